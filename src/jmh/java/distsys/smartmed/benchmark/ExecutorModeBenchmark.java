@@ -0,0 +1,81 @@
+package distsys.smartmed.benchmark;
+
+import com.healthcare.grpc.monitoring.*;
+import com.healthcare.grpc.patient.*;
+import distsys.smartmed.security.JwtClientInterceptor;
+import distsys.smartmed.security.JwtUtil;
+import distsys.smartmed.server.ExecutorMode;
+import distsys.smartmed.server.SmartMedServer;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the server executor modes under concurrent GetPatientRecord and StreamVitals load.
+ * The server runs with the same services and interceptors as {@link SmartMedServer#main},
+ * on the in-process transport so the numbers reflect dispatch cost rather than the network.
+ * The virtual mode needs JDK 21 or newer and is left out of the defaults; add it with
+ * {@code -p mode=cached,fixed,virtual,direct} on such a JDK.
+ *
+ * @author anukratimehta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsmartmed.monitoring.intervalMillis=1")
+@Threads(64)
+public class ExecutorModeBenchmark {
+
+    @Param({"cached", "fixed", "direct"})
+    public String mode;
+
+    private SmartMedServer server;
+    private ManagedChannel channel;
+    private PatientServiceGrpc.PatientServiceBlockingStub patientStub;
+    private MonitoringServiceGrpc.MonitoringServiceBlockingStub monitoringStub;
+
+    @Setup
+    public void setup() throws Exception {
+        // Per-call INFO logging would dominate the measurement
+        Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+
+        String name = "executor-benchmark-" + mode;
+        server = new SmartMedServer(0, ExecutorMode.parse(mode), Runtime.getRuntime().availableProcessors() * 2);
+        server.start(InProcessServerBuilder.forName(name));
+        channel = InProcessChannelBuilder.forName(name)
+            .intercept(new JwtClientInterceptor(JwtUtil.generateToken("benchmark")))
+            .build();
+        patientStub = PatientServiceGrpc.newBlockingStub(channel);
+        monitoringStub = MonitoringServiceGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Benchmark
+    public PatientResponse getPatientRecord() {
+        return patientStub.getPatientRecord(PatientRequest.newBuilder().setPatientId("42").build());
+    }
+
+    @Benchmark
+    public int streamVitals() {
+        Iterator<VitalsUpdate> updates = monitoringStub.streamVitals(VitalsRequest.newBuilder()
+            .setPatientId("42")
+            .setDurationSeconds(5)
+            .build());
+        int count = 0;
+        while (updates.hasNext()) {
+            count += updates.next().getHeartRate();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,86 @@
+package distsys.smartmed.benchmark;
+
+import distsys.smartmed.security.JwtUtil;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the original per-call JWT handling (a new parser or builder for every operation)
+ * with the shared engine behind {@link JwtUtil}, for token generation, validation and
+ * subject extraction.
+ *
+ * @author anukratimehta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+    // Same secret as JwtUtil so both paths accept each other's tokens
+    private static final SecretKey LEGACY_KEY =
+        Keys.hmacShaKeyFor("smartmed-secret-key-1234567890-abcdefgh".getBytes());
+    private static final long EXPIRATION_TIME = 3600000;
+
+    private String token;
+
+    @Setup
+    public void setup() {
+        token = JwtUtil.generateToken("admin");
+    }
+
+    @Benchmark
+    public String legacyGenerate() {
+        return Jwts.builder()
+            .setSubject("admin")
+            .setIssuedAt(new Date())
+            .setExpiration(new Date(System.currentTimeMillis() + EXPIRATION_TIME))
+            .signWith(LEGACY_KEY)
+            .compact();
+    }
+
+    @Benchmark
+    public String engineGenerate() {
+        return JwtUtil.generateToken("admin");
+    }
+
+    @Benchmark
+    public boolean legacyValidate() {
+        try {
+            Jwts.parserBuilder()
+                .setSigningKey(LEGACY_KEY)
+                .build()
+                .parseClaimsJws(token);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean engineValidate() {
+        return JwtUtil.validateToken(token);
+    }
+
+    @Benchmark
+    public String legacyExtractSubject() {
+        // The interceptor used to validate first and then parse again for the subject
+        legacyValidate();
+        return Jwts.parserBuilder()
+            .setSigningKey(LEGACY_KEY)
+            .build()
+            .parseClaimsJws(token)
+            .getBody()
+            .getSubject();
+    }
+
+    @Benchmark
+    public String engineExtractSubject() {
+        return JwtUtil.parse(token).getSubject();
+    }
+}
@@ -0,0 +1,61 @@
+package distsys.smartmed.benchmark;
+
+import distsys.smartmed.server.PostureJudge;
+import distsys.smartmed.server.PostureRules;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures posture samples judged per second on one core, using the bundled rules.
+ * Each benchmark thread owns its judge like a rehab session does, so running with
+ * {@code -t <n>} reports the per-core rate under n concurrent sessions.
+ *
+ * @author anukratimehta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostureRulesBenchmark {
+
+    @Param({"Squat", "Lunge", "Leg Raise", "Unknown"})
+    public String exercise;
+
+    private PostureRules rules;
+    private PostureJudge judge;
+    private final double[] angles = new double[1024];
+    private int next = 0;
+    private long clock = 0;
+
+    @Setup
+    public void setup() {
+        rules = PostureRules.loadDefault();
+        judge = rules.forExercise(exercise).newJudge();
+        Random random = new Random(42);
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = 20 + random.nextDouble() * 35; // Spans both sides of every band
+        }
+    }
+
+    /**
+     * Judges one sample with the session's cached judge, the per-sample path of a session.
+     */
+    @Benchmark
+    public PostureRules.Verdict judgeSample() {
+        next = (next + 1) & (angles.length - 1);
+        clock += 700_000_000L;
+        return judge.judge(angles[next], clock);
+    }
+
+    /**
+     * Resolves the exercise's rule before judging, the path taken when a session switches
+     * exercise or the rules were reloaded.
+     */
+    @Benchmark
+    public PostureRules.ExerciseRule lookupRule() {
+        return rules.forExercise(exercise);
+    }
+}
@@ -0,0 +1,258 @@
+package distsys.smartmed.benchmark;
+
+import com.healthcare.grpc.auth.*;
+import com.healthcare.grpc.medication.*;
+import com.healthcare.grpc.monitoring.*;
+import com.healthcare.grpc.patient.*;
+import com.healthcare.grpc.rehab.*;
+import distsys.smartmed.security.JwtClientInterceptor;
+import distsys.smartmed.security.JwtUtil;
+import distsys.smartmed.security.TokenCache;
+import distsys.smartmed.server.ExecutorMode;
+import distsys.smartmed.server.SmartMedServer;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * End-to-end throughput and latency of every SmartMed service, with the same services and
+ * interceptors as {@link SmartMedServer#main}. The in-process transport isolates the cost of
+ * the services and the interceptor chain; the netty transport adds serialization and loopback
+ * TCP. {@code getPatientRecord} passes authentication through the token cache of
+ * {@code JwtServerInterceptor}, {@code getPatientRecordUncachedToken} cycles through ten
+ * times more tokens than the cache holds so nearly every call verifies its signature, and
+ * {@code login} skips authentication, so the three together show the interceptor cost.
+ * <p>
+ * Sample-time mode reports latency percentiles next to the throughput. Vitals streams tick
+ * every millisecond and history recording is disabled so the streams measure delivery.
+ *
+ * @author anukratimehta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dsmartmed.monitoring.intervalMillis=1", "-Dsmartmed.vitals.historyDir="})
+@Threads(4)
+public class ServiceBenchmark {
+    private static final int STREAM_MESSAGES = 10;
+    private static final int UNCACHED_TOKENS = TokenCache.DEFAULT_MAX_ENTRIES * 10;
+
+    @Param({"inprocess", "netty"})
+    public String transport;
+
+    private SmartMedServer server;
+    private ManagedChannel channel;
+    private ManagedChannel uncachedChannel;
+    private AuthServiceGrpc.AuthServiceBlockingStub authStub;
+    private PatientServiceGrpc.PatientServiceBlockingStub patientStub;
+    private PatientServiceGrpc.PatientServiceBlockingStub uncachedPatientStub;
+    private MonitoringServiceGrpc.MonitoringServiceBlockingStub monitoringStub;
+    private MedicationServiceGrpc.MedicationServiceStub medicationStub;
+    private RehabServiceGrpc.RehabServiceStub rehabStub;
+
+    private LoginRequest loginRequest;
+    private PatientRequest patientRequest;
+    private VitalsRequest vitalsRequest;
+    private MedicationRecord[] medicationRecords;
+    private ExerciseInput[] exerciseInputs;
+
+    @Setup
+    public void setup() throws Exception {
+        // Per-call INFO logging would dominate the measurement
+        Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+
+        String name = "service-benchmark";
+        server = new SmartMedServer(0, ExecutorMode.CACHED, Runtime.getRuntime().availableProcessors() * 2);
+        if (transport.equals("netty")) {
+            server.start(ServerBuilder.forPort(0));
+        } else {
+            server.start(InProcessServerBuilder.forName(name));
+        }
+
+        String[] tokens = new String[UNCACHED_TOKENS];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = JwtUtil.generateToken("benchmark-" + i);
+        }
+        channel = newChannel(name, new JwtClientInterceptor(JwtUtil.generateToken("benchmark")));
+        uncachedChannel = newChannel(name, new RotatingTokenInterceptor(tokens));
+
+        authStub = AuthServiceGrpc.newBlockingStub(channel);
+        patientStub = PatientServiceGrpc.newBlockingStub(channel);
+        uncachedPatientStub = PatientServiceGrpc.newBlockingStub(uncachedChannel);
+        monitoringStub = MonitoringServiceGrpc.newBlockingStub(channel);
+        medicationStub = MedicationServiceGrpc.newStub(channel);
+        rehabStub = RehabServiceGrpc.newStub(channel);
+
+        loginRequest = LoginRequest.newBuilder().setUsername("admin").setPassword("smartmed123").build();
+        patientRequest = PatientRequest.newBuilder().setPatientId("42").build();
+        vitalsRequest = VitalsRequest.newBuilder().setPatientId("42").setDurationSeconds(STREAM_MESSAGES).build();
+        medicationRecords = new MedicationRecord[STREAM_MESSAGES];
+        exerciseInputs = new ExerciseInput[STREAM_MESSAGES];
+        for (int i = 0; i < STREAM_MESSAGES; i++) {
+            boolean taken = i % 3 != 0;
+            medicationRecords[i] = MedicationRecord.newBuilder()
+                .setPatientId("42")
+                .setMedicationName("Metformin")
+                .setDosageMg(500)
+                .setScheduledTime(String.format("%02d:00", 8 + i))
+                .setWasTaken(taken)
+                .setActualTimeTaken(taken ? String.format("%02d:10", 8 + i) : "")
+                .build();
+            exerciseInputs[i] = ExerciseInput.newBuilder()
+                .setPatientId("42")
+                .setExerciseName("Squat")
+                .setRepetitionNumber(i + 1)
+                .setPostureAngle(60 + i * 5)
+                .build();
+        }
+    }
+
+    private ManagedChannel newChannel(String name, ClientInterceptor auth) {
+        if (transport.equals("netty")) {
+            return ManagedChannelBuilder.forAddress("localhost", server.getPort())
+                .intercept(auth)
+                .usePlaintext()
+                .build();
+        }
+        return InProcessChannelBuilder.forName(name).intercept(auth).build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        uncachedChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Benchmark
+    public LoginResponse login() {
+        return authStub.login(loginRequest);
+    }
+
+    @Benchmark
+    public PatientResponse getPatientRecord() {
+        return patientStub.getPatientRecord(patientRequest);
+    }
+
+    @Benchmark
+    public PatientResponse getPatientRecordUncachedToken() {
+        return uncachedPatientStub.getPatientRecord(patientRequest);
+    }
+
+    @Benchmark
+    public int streamVitals() {
+        Iterator<VitalsUpdate> updates = monitoringStub.streamVitals(vitalsRequest);
+        int sum = 0;
+        while (updates.hasNext()) {
+            sum += updates.next().getHeartRate();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public MedicationAnalysis analyzeMedicationSchedule() throws Exception {
+        CompletableFuture<MedicationAnalysis> result = new CompletableFuture<>();
+        StreamObserver<MedicationRecord> requests = medicationStub.analyzeMedicationSchedule(
+            new StreamObserver<MedicationAnalysis>() {
+                @Override
+                public void onNext(MedicationAnalysis analysis) {
+                    result.complete(analysis);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    result.completeExceptionally(t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    result.complete(null);
+                }
+            });
+        for (MedicationRecord record : medicationRecords) {
+            requests.onNext(record);
+        }
+        requests.onCompleted();
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public int liveExerciseFeedback() throws Exception {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        StreamObserver<ExerciseInput> inputs = rehabStub.liveExerciseFeedback(
+            new StreamObserver<ExerciseFeedback>() {
+                private int feedback = 0;
+
+                @Override
+                public void onNext(ExerciseFeedback message) {
+                    feedback++;
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    result.completeExceptionally(t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    result.complete(feedback);
+                }
+            });
+        for (ExerciseInput input : exerciseInputs) {
+            inputs.onNext(input);
+        }
+        inputs.onCompleted();
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Attaches the next of a fixed set of tokens to every call, shared by all threads.
+     */
+    private static final class RotatingTokenInterceptor implements ClientInterceptor {
+        private static final Metadata.Key<String> AUTHORIZATION =
+            Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+        private final String[] headers;
+        private final AtomicInteger next = new AtomicInteger();
+
+        RotatingTokenInterceptor(String[] tokens) {
+            headers = new String[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                headers[i] = "Bearer " + tokens[i];
+            }
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+            MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel channel) {
+
+            String header = headers[Math.floorMod(next.getAndIncrement(), headers.length)];
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
+                channel.newCall(method, callOptions)) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata metadata) {
+                    metadata.put(AUTHORIZATION, header);
+                    super.start(responseListener, metadata);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package distsys.smartmed.client;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+
+/**
+ * Log of a {@link JTextArea} that any thread can write to. Lines are queued and a Swing timer
+ * appends everything queued since its last tick in one update on the event dispatch thread,
+ * so a fast stream costs one append and one caret move per frame instead of one per line.
+ * The oldest lines are removed when the text grows beyond a limit, so long sessions do not
+ * grow the area without bound.
+ *
+ * @author anukratimehta
+ */
+final class BatchedLog {
+    // Upper bound of one flush, so a producer outrunning the EDT cannot stall it
+    private static final int MAX_LINES_PER_FLUSH = 1000;
+
+    private final JTextArea area;
+    private final int maxChars;
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private final Timer timer;
+
+    /**
+     * @param area the text area the lines are appended to
+     * @param intervalMillis time between two flushes, in milliseconds
+     * @param maxChars the most characters the area keeps
+     */
+    BatchedLog(JTextArea area, int intervalMillis, int maxChars) {
+        this.area = area;
+        this.maxChars = maxChars;
+        this.timer = new Timer(intervalMillis, e -> flush());
+        timer.setCoalesce(true);
+    }
+
+    void start() {
+        timer.start();
+    }
+
+    /**
+     * Stops the timer and writes the remaining lines. Must be called on the EDT.
+     */
+    void stop() {
+        timer.stop();
+        flush();
+    }
+
+    /**
+     * Queues a line for the next flush.
+     *
+     * @param line the text to append, without the line break
+     */
+    void append(String line) {
+        pending.add(line);
+    }
+
+    private void flush() {
+        String line = pending.poll();
+        if (line == null) {
+            return;
+        }
+        StringBuilder batch = new StringBuilder();
+        int lines = 0;
+        do {
+            batch.append(line).append('\n');
+        } while (++lines < MAX_LINES_PER_FLUSH && (line = pending.poll()) != null);
+        area.append(batch.toString());
+        trim();
+        area.setCaretPosition(area.getDocument().getLength());
+    }
+
+    /**
+     * Removes whole lines from the start until the text fits the limit.
+     */
+    private void trim() {
+        int excess = area.getDocument().getLength() - maxChars;
+        if (excess <= 0) {
+            return;
+        }
+        try {
+            int end = area.getLineEndOffset(area.getLineOfOffset(excess));
+            area.replaceRange("", 0, end);
+        } catch (BadLocationException e) {
+            area.setText("");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package distsys.smartmed.client;
+
+import distsys.smartmed.common.LoadHints;
+import io.grpc.Attributes;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.SynchronizationContext;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.jmdns.JmDNS;
+import javax.jmdns.ServiceEvent;
+import javax.jmdns.ServiceInfo;
+import javax.jmdns.ServiceListener;
+
+/**
+ * Name resolver keeping the live set of instances of one DNS-SD service type. Each resolved
+ * instance becomes one address group; an instance resolved again replaces its old addresses
+ * and a removed one is dropped. The load hints in the TXT record of an instance are attached
+ * to its group for information; servers refresh their hints, and JmDNS reports every
+ * refresh as a new resolution. Every change publishes the whole set to the channel from its
+ * synchronization context. Until the first instance is found, calls wait for it; once every
+ * instance has left, the resolver reports that no server is available and the channel keeps
+ * its last connections only until they fail.
+ *
+ * @author anukratimehta
+ */
+final class JmdnsNameResolver extends NameResolver implements ServiceListener {
+    private static final Logger logger = Logger.getLogger(JmdnsNameResolver.class.getName());
+
+    private final JmDNS jmdns;
+    private final String serviceType;
+    private final SynchronizationContext syncContext;
+    // Only used in the synchronization context
+    private final Map<String, EquivalentAddressGroup> instances = new LinkedHashMap<>();
+    private Listener2 listener;
+    private boolean discovered = false;
+    private boolean shutdown = false;
+
+    JmdnsNameResolver(JmDNS jmdns, String serviceType, SynchronizationContext syncContext) {
+        this.jmdns = jmdns;
+        this.serviceType = serviceType;
+        this.syncContext = syncContext;
+    }
+
+    @Override
+    public String getServiceAuthority() {
+        return "smartmed.local";
+    }
+
+    @Override
+    public void start(Listener2 listener) {
+        this.listener = listener;
+        // JmDNS also reports the instances it already knows to a new listener
+        jmdns.addServiceListener(serviceType, this);
+    }
+
+    @Override
+    public void refresh() {
+        publish();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        jmdns.removeServiceListener(serviceType, this);
+    }
+
+    @Override
+    public void serviceAdded(ServiceEvent event) {
+        jmdns.requestServiceInfo(event.getType(), event.getName());
+    }
+
+    @Override
+    public void serviceResolved(ServiceEvent event) {
+        ServiceInfo info = event.getInfo();
+        List<SocketAddress> addresses = new ArrayList<>();
+        for (InetAddress address : info.getInetAddresses()) {
+            addresses.add(new InetSocketAddress(address, info.getPort()));
+        }
+        if (addresses.isEmpty()) {
+            return;
+        }
+        LoadHints announced = LoadHints.fromServiceInfo(info);
+        syncContext.execute(() -> {
+            EquivalentAddressGroup previous = instances.get(event.getName());
+            LoadHints load = announced;
+            if (load == null && previous != null) {
+                // JmDNS may resolve the address records before the TXT record, keep the last hints
+                load = previous.getAttributes().get(JmdnsNameResolverProvider.LOAD_HINTS);
+            }
+            Attributes attributes = load == null ? Attributes.EMPTY
+                : Attributes.newBuilder().set(JmdnsNameResolverProvider.LOAD_HINTS, load).build();
+            EquivalentAddressGroup group = new EquivalentAddressGroup(addresses, attributes);
+            if (group.equals(previous)) {
+                return;
+            }
+            instances.put(event.getName(), group);
+            if (previous == null || !previous.getAddresses().equals(group.getAddresses())) {
+                logger.info("Discovered " + event.getName() + " at " + addresses);
+            } else {
+                logger.fine("Load of " + event.getName() + ": " + load);
+            }
+            publish();
+        });
+    }
+
+    @Override
+    public void serviceRemoved(ServiceEvent event) {
+        syncContext.execute(() -> {
+            if (instances.remove(event.getName()) != null) {
+                logger.info("Service left: " + event.getName());
+                publish();
+            }
+        });
+    }
+
+    private void publish() {
+        if (shutdown || listener == null) {
+            return;
+        }
+        if (instances.isEmpty()) {
+            if (!discovered) {
+                return;  // Keep calls waiting for the first instance
+            }
+            listener.onError(Status.UNAVAILABLE.withDescription("No " + serviceType + " instance available"));
+            return;
+        }
+        discovered = true;
+        listener.onResult(ResolutionResult.newBuilder()
+            .setAddresses(new ArrayList<>(instances.values()))
+            .build());
+    }
+}
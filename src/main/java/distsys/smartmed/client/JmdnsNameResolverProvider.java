@@ -0,0 +1,78 @@
+package distsys.smartmed.client;
+
+import distsys.smartmed.common.LoadHints;
+import io.grpc.Attributes;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import javax.jmdns.JmDNS;
+
+/**
+ * Resolves targets of the form {@code jmdns:///_smartmed._tcp.local.} to the instances of that
+ * DNS-SD service type found by a {@link JmDNS} browser. The address list follows the JmDNS
+ * events, so a channel using it with the {@code round_robin} policy spreads its calls over
+ * every replica and stops using a replica as soon as it leaves. Replicas announcing their
+ * {@link LoadHints} carry them under {@link #LOAD_HINTS}. Only a custom load-balancing policy
+ * would read them; {@code round_robin} ignores them.
+ *
+ * @author anukratimehta
+ */
+public class JmdnsNameResolverProvider extends NameResolverProvider {
+    public static final String SCHEME = "jmdns";
+    /** Load announced by the replica of an {@link EquivalentAddressGroup}, if it announces one. */
+    public static final Attributes.Key<LoadHints> LOAD_HINTS = Attributes.Key.create("smartmed.loadHints");
+
+    private final JmDNS jmdns;
+
+    /**
+     * @param jmdns the browser the resolvers listen on; it stays owned by the caller
+     */
+    public JmdnsNameResolverProvider(JmDNS jmdns) {
+        this.jmdns = jmdns;
+    }
+
+    /**
+     * @param serviceType the DNS-SD service type, such as {@code _smartmed._tcp.local.}
+     * @return the channel target resolving the service type with this provider
+     */
+    public static String target(String serviceType) {
+        return SCHEME + ":///" + serviceType;
+    }
+
+    @Override
+    public NameResolver newNameResolver(URI targetUri, NameResolver.Args args) {
+        if (!SCHEME.equals(targetUri.getScheme())) {
+            return null;
+        }
+        String path = targetUri.getPath();
+        if (path == null || path.length() < 2) {
+            throw new IllegalArgumentException("Missing service type in " + targetUri);
+        }
+        return new JmdnsNameResolver(jmdns, path.substring(1), args.getSynchronizationContext());
+    }
+
+    @Override
+    public String getDefaultScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    protected boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    protected int priority() {
+        return 5;
+    }
+
+    @Override
+    public Collection<Class<? extends SocketAddress>> getProducedSocketAddressTypes() {
+        return Collections.singleton(InetSocketAddress.class);
+    }
+}
@@ -0,0 +1,542 @@
+package distsys.smartmed.client;
+
+import com.healthcare.grpc.auth.*;
+import com.healthcare.grpc.medication.*;
+import com.healthcare.grpc.monitoring.*;
+import com.healthcare.grpc.patient.*;
+import com.healthcare.grpc.rehab.*;
+import distsys.smartmed.common.ThreadUtils;
+import distsys.smartmed.common.ValidationUtils;
+import distsys.smartmed.metrics.LatencyHistogram;
+import distsys.smartmed.metrics.MetricsClientInterceptor;
+import distsys.smartmed.metrics.MetricsRegistry;
+import distsys.smartmed.security.JwtClientInterceptor;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator driving all five SmartMed RPCs against a running server, for
+ * capacity planning. Every call is asynchronous, so thousands of concurrent streams share a
+ * small pool of channels and a handful of gRPC threads.
+ * <p>
+ * In open-loop mode calls are started on a fixed schedule of {@code --rate} calls per second
+ * regardless of how fast the server answers. In closed-loop mode {@code --concurrency} virtual
+ * users each start their next call when the previous one ends, paced to a combined
+ * {@code --rate} if it is given. Latencies are measured from the time a call was scheduled to
+ * start, not from when it actually started, so a stalled server or client shows up as the
+ * wait of every call queued behind the stall instead of as a single slow call (coordinated
+ * omission). The time from the actual start is reported separately as service time.
+ * <p>
+ * Arguments, all optional, in the {@code --name=value} form:
+ * <ul>
+ *   <li>{@code host}, {@code port}: the server (default localhost:50051)</li>
+ *   <li>{@code mode}: open or closed (default open)</li>
+ *   <li>{@code rate}: calls per second; 0 runs closed-loop users back to back (default 100)</li>
+ *   <li>{@code concurrency}: virtual users in closed-loop mode (default 64)</li>
+ *   <li>{@code maxOutstanding}: open-loop calls in flight above which new ones are skipped
+ *       and counted as failed (default 20000)</li>
+ *   <li>{@code duration}, {@code warmup}: seconds to run and seconds at the start left out
+ *       of the results (default 30 and 5)</li>
+ *   <li>{@code drain}: seconds to wait for calls still open at the end (default 30)</li>
+ *   <li>{@code channels}: size of the channel pool (default 4)</li>
+ *   <li>{@code mix}: relative weights of the RPCs, e.g.
+ *       {@code login:1,patient:10,vitals:2,medication:2,rehab:2} (the default)</li>
+ *   <li>{@code streamMessages}: messages per stream, and vitals updates per StreamVitals call
+ *       (default 10)</li>
+ * </ul>
+ *
+ * @author anukratimehta
+ */
+public class LoadGenerator {
+    // The exercises of the default posture rules
+    private static final String[] EXERCISES = {"Squat", "Lunge", "Leg Raise"};
+
+    /**
+     * The RPCs the generator drives, with the name used in {@code --mix}.
+     */
+    enum Rpc {
+        LOGIN("login", "Login"),
+        PATIENT("patient", "GetPatientRecord"),
+        VITALS("vitals", "StreamVitals"),
+        MEDICATION("medication", "AnalyzeMedicationSchedule"),
+        REHAB("rehab", "LiveExerciseFeedback");
+
+        final String key;
+        final String method;
+
+        Rpc(String key, String method) {
+            this.key = key;
+            this.method = method;
+        }
+
+        static Rpc parse(String key) {
+            for (Rpc rpc : values()) {
+                if (rpc.key.equals(key)) {
+                    return rpc;
+                }
+            }
+            throw new IllegalArgumentException("Unknown RPC in mix: " + key);
+        }
+    }
+
+    /**
+     * Results of one RPC. Latencies are in microseconds.
+     */
+    private static final class Stats {
+        final LatencyHistogram responseTime = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LongAdder succeeded = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder messages = new LongAdder();
+    }
+
+    /**
+     * A closed-loop virtual user, holding the scheduled start of its current call.
+     */
+    private static final class User {
+        long intendedNanos;
+    }
+
+    private final String host;
+    private final int port;
+    private final boolean openLoop;
+    private final double rate;
+    private final int concurrency;
+    private final int maxOutstanding;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final long drainNanos;
+    private final int channelCount;
+    private final int streamMessages;
+    private final int[] cumulativeWeights = new int[Rpc.values().length];
+
+    private final Stats[] stats = new Stats[Rpc.values().length];
+    private final MetricsRegistry clientMetrics = new MetricsRegistry();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private final LongAdder skipped = new LongAdder();
+    private final ScheduledExecutorService pacer =
+        Executors.newSingleThreadScheduledExecutor(ThreadUtils.daemonThreadFactory("load-pacer"));
+
+    private ManagedChannel[] channels;
+    private AuthServiceGrpc.AuthServiceStub[] authStubs;
+    private PatientServiceGrpc.PatientServiceStub[] patientStubs;
+    private MonitoringServiceGrpc.MonitoringServiceStub[] monitoringStubs;
+    private MedicationServiceGrpc.MedicationServiceStub[] medicationStubs;
+    private RehabServiceGrpc.RehabServiceStub[] rehabStubs;
+
+    private LoginRequest loginRequest;
+    private PatientRequest[] patientRequests;
+    private VitalsRequest[] vitalsRequests;
+    private MedicationRecord[][] medicationRecords;
+    private ExerciseInput[][] exerciseInputs;
+
+    private long startNanos;
+    private volatile long measureFromNanos;
+    private volatile long endNanos;
+
+    LoadGenerator(String[] args) {
+        String host = "localhost";
+        int port = 50051;
+        String mode = "open";
+        double rate = 100;
+        int concurrency = 64;
+        int maxOutstanding = 20000;
+        int duration = 30;
+        int warmup = 5;
+        int drain = 30;
+        int channelCount = 4;
+        int streamMessages = 10;
+        String mix = "login:1,patient:10,vitals:2,medication:2,rehab:2";
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "host": host = value; break;
+                case "port": port = Integer.parseInt(value); break;
+                case "mode": mode = value; break;
+                case "rate": rate = Double.parseDouble(value); break;
+                case "concurrency": concurrency = Integer.parseInt(value); break;
+                case "maxOutstanding": maxOutstanding = Integer.parseInt(value); break;
+                case "duration": duration = Integer.parseInt(value); break;
+                case "warmup": warmup = Integer.parseInt(value); break;
+                case "drain": drain = Integer.parseInt(value); break;
+                case "channels": channelCount = Integer.parseInt(value); break;
+                case "streamMessages": streamMessages = Integer.parseInt(value); break;
+                case "mix": mix = value; break;
+                default: throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (!mode.equals("open") && !mode.equals("closed")) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        if (mode.equals("open") && rate <= 0) {
+            throw new IllegalArgumentException("Open-loop mode needs a positive rate");
+        }
+        if (warmup >= duration || concurrency <= 0 || channelCount <= 0 || streamMessages <= 0) {
+            throw new IllegalArgumentException("Invalid load settings");
+        }
+
+        this.host = host;
+        this.port = port;
+        this.openLoop = mode.equals("open");
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.maxOutstanding = maxOutstanding;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(duration);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmup);
+        this.drainNanos = TimeUnit.SECONDS.toNanos(drain);
+        this.channelCount = channelCount;
+        this.streamMessages = streamMessages;
+        parseMix(mix);
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    private void parseMix(String mix) {
+        int[] weights = new int[Rpc.values().length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in mix: " + part);
+            }
+            weights[Rpc.parse(pair[0].trim()).ordinal()] = weight;
+        }
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The mix has no RPC with a positive weight");
+        }
+    }
+
+    /**
+     * Entry point of the load generator.
+     *
+     * @param args the settings, see the class documentation
+     * @throws InterruptedException if interrupted while waiting for the channels to close
+     */
+    public static void main(String[] args) throws InterruptedException {
+        // Per-call logging of the client interceptors would skew the measurement
+        java.util.logging.Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+        new LoadGenerator(args).run();
+    }
+
+    void run() throws InterruptedException {
+        prepareRequests();
+        String token = login();
+        channels = new ManagedChannel[channelCount];
+        authStubs = new AuthServiceGrpc.AuthServiceStub[channelCount];
+        patientStubs = new PatientServiceGrpc.PatientServiceStub[channelCount];
+        monitoringStubs = new MonitoringServiceGrpc.MonitoringServiceStub[channelCount];
+        medicationStubs = new MedicationServiceGrpc.MedicationServiceStub[channelCount];
+        rehabStubs = new RehabServiceGrpc.RehabServiceStub[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            channels[i] = ManagedChannelBuilder.forAddress(host, port)
+                .intercept(new JwtClientInterceptor(token))
+                .intercept(new MetricsClientInterceptor(clientMetrics))
+                .usePlaintext()
+                .build();
+            authStubs[i] = AuthServiceGrpc.newStub(channels[i]);
+            patientStubs[i] = PatientServiceGrpc.newStub(channels[i]);
+            monitoringStubs[i] = MonitoringServiceGrpc.newStub(channels[i]);
+            medicationStubs[i] = MedicationServiceGrpc.newStub(channels[i]);
+            rehabStubs[i] = RehabServiceGrpc.newStub(channels[i]);
+        }
+
+        System.out.printf("Driving %s:%d %s-loop for %ds (%ds warmup), %s%n", host, port,
+            openLoop ? "open" : "closed", TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+            TimeUnit.NANOSECONDS.toSeconds(warmupNanos),
+            openLoop ? rate + " calls/s" : concurrency + " users"
+                + (rate > 0 ? " at " + rate + " calls/s" : " back to back"));
+
+        startNanos = System.nanoTime();
+        measureFromNanos = startNanos + warmupNanos;
+        endNanos = startNanos + durationNanos;
+        if (openLoop) {
+            runOpenLoop();
+        } else {
+            startClosedLoop();
+            LockSupport.parkNanos(endNanos - System.nanoTime());
+        }
+
+        long drainUntil = System.nanoTime() + drainNanos;
+        while (outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(50);
+        }
+        int unfinished = outstanding.get();
+        printReport(System.nanoTime() - measureFromNanos, unfinished);
+
+        pacer.shutdownNow();
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+        for (ManagedChannel channel : channels) {
+            channel.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private String login() {
+        ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+        try {
+            return AuthServiceGrpc.newBlockingStub(channel).login(loginRequest).getToken();
+        } finally {
+            channel.shutdownNow();
+        }
+    }
+
+    private void prepareRequests() {
+        loginRequest = LoginRequest.newBuilder().setUsername("admin").setPassword("smartmed123").build();
+        int patients = ValidationUtils.PATIENT_ID_MAX - ValidationUtils.PATIENT_ID_MIN + 1;
+        patientRequests = new PatientRequest[patients];
+        vitalsRequests = new VitalsRequest[patients];
+        medicationRecords = new MedicationRecord[patients][streamMessages];
+        exerciseInputs = new ExerciseInput[patients][streamMessages];
+        for (int p = 0; p < patients; p++) {
+            String id = String.valueOf(ValidationUtils.PATIENT_ID_MIN + p);
+            patientRequests[p] = PatientRequest.newBuilder().setPatientId(id).build();
+            vitalsRequests[p] = VitalsRequest.newBuilder().setPatientId(id).setDurationSeconds(streamMessages).build();
+            for (int i = 0; i < streamMessages; i++) {
+                boolean taken = (p + i) % 4 != 0;
+                String hour = String.format("%02d", i % 24);
+                medicationRecords[p][i] = MedicationRecord.newBuilder()
+                    .setPatientId(id)
+                    .setMedicationName("Medication" + (i % 3))
+                    .setDosageMg(250)
+                    .setScheduledTime(hour + ":00")
+                    .setWasTaken(taken)
+                    .setActualTimeTaken(taken ? hour + ":15" : "")
+                    .build();
+                exerciseInputs[p][i] = ExerciseInput.newBuilder()
+                    .setPatientId(id)
+                    .setExerciseName(EXERCISES[i % EXERCISES.length])
+                    .setRepetitionNumber(i + 1)
+                    .setPostureAngle(50 + (p * 7 + i * 13) % 80)
+                    .build();
+            }
+        }
+    }
+
+    /**
+     * Starts calls on a fixed schedule from this thread. When it falls behind, the late calls
+     * start at once but keep their scheduled start for the latency.
+     */
+    private void runOpenLoop() {
+        long periodNanos = (long) (1e9 / rate);
+        for (long n = 0; ; n++) {
+            long intended = startNanos + n * periodNanos;
+            if (intended - endNanos >= 0) {
+                return;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (outstanding.get() >= maxOutstanding) {
+                // The call the schedule asked for did not happen: a failure, not a gap
+                Rpc rpc = pickRpc();
+                if (measured(intended)) {
+                    stats[rpc.ordinal()].failed.increment();
+                    skipped.increment();
+                }
+                continue;
+            }
+            outstanding.incrementAndGet();
+            issue(pickRpc(), intended, null);
+        }
+    }
+
+    private void startClosedLoop() {
+        for (int i = 0; i < concurrency; i++) {
+            User user = new User();
+            // Spread the users over one pacing interval so they do not start in lockstep
+            user.intendedNanos = startNanos + userIntervalNanos() * i / concurrency;
+            outstanding.incrementAndGet();
+            schedule(user);
+        }
+    }
+
+    private long userIntervalNanos() {
+        return rate > 0 ? (long) (1e9 * concurrency / rate) : 0;
+    }
+
+    private void schedule(User user) {
+        if (user.intendedNanos - endNanos >= 0) {
+            outstanding.decrementAndGet();
+            return;
+        }
+        long delay = user.intendedNanos - System.nanoTime();
+        if (delay > 0) {
+            pacer.schedule(() -> issue(pickRpc(), user.intendedNanos, user), delay, TimeUnit.NANOSECONDS);
+        } else {
+            issue(pickRpc(), user.intendedNanos, user);
+        }
+    }
+
+    private Rpc pickRpc() {
+        int ticket = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (ticket >= cumulativeWeights[i]) {
+            i++;
+        }
+        return Rpc.values()[i];
+    }
+
+    private void issue(Rpc rpc, long intendedNanos, User user) {
+        int channel = Math.floorMod(nextChannel.getAndIncrement(), channelCount);
+        int patient = ThreadLocalRandom.current().nextInt(patientRequests.length);
+        Observer<Object> observer = new Observer<>(rpc, intendedNanos, user);
+        try {
+            switch (rpc) {
+                case LOGIN:
+                    authStubs[channel].login(loginRequest, cast(observer));
+                    break;
+                case PATIENT:
+                    patientStubs[channel].getPatientRecord(patientRequests[patient], cast(observer));
+                    break;
+                case VITALS:
+                    monitoringStubs[channel].streamVitals(vitalsRequests[patient], cast(observer));
+                    break;
+                case MEDICATION: {
+                    StreamObserver<MedicationRecord> records =
+                        medicationStubs[channel].analyzeMedicationSchedule(cast(observer));
+                    for (MedicationRecord record : medicationRecords[patient]) {
+                        records.onNext(record);
+                    }
+                    records.onCompleted();
+                    break;
+                }
+                case REHAB: {
+                    StreamObserver<ExerciseInput> inputs = rehabStubs[channel].liveExerciseFeedback(cast(observer));
+                    for (ExerciseInput input : exerciseInputs[patient]) {
+                        inputs.onNext(input);
+                    }
+                    inputs.onCompleted();
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            observer.onError(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> StreamObserver<T> cast(Observer<Object> observer) {
+        return (StreamObserver<T>) (StreamObserver<?>) observer;
+    }
+
+    private void completed(Observer<?> call, boolean succeeded) {
+        long now = System.nanoTime();
+        Stats rpcStats = stats[call.rpc.ordinal()];
+        if (measured(call.intendedNanos)) {
+            if (succeeded) {
+                rpcStats.succeeded.increment();
+                rpcStats.responseTime.record((now - call.intendedNanos) / 1000);
+                rpcStats.serviceTime.record((now - call.sentNanos) / 1000);
+            } else {
+                rpcStats.failed.increment();
+            }
+        }
+        User user = call.user;
+        if (user != null && now - endNanos < 0) {
+            long interval = userIntervalNanos();
+            user.intendedNanos = interval > 0 ? user.intendedNanos + interval : now;
+            outstanding.incrementAndGet();
+            schedule(user);
+        }
+        outstanding.decrementAndGet();
+    }
+
+    private boolean measured(long intendedNanos) {
+        return intendedNanos - measureFromNanos >= 0 && intendedNanos - endNanos < 0;
+    }
+
+    /**
+     * Response observer of one call, reporting its end to the generator.
+     */
+    private final class Observer<T> implements StreamObserver<T> {
+        final Rpc rpc;
+        final long intendedNanos;
+        final long sentNanos = System.nanoTime();
+        final User user;
+
+        Observer(Rpc rpc, long intendedNanos, User user) {
+            this.rpc = rpc;
+            this.intendedNanos = intendedNanos;
+            this.user = user;
+        }
+
+        @Override
+        public void onNext(T value) {
+            if (measured(intendedNanos)) {
+                stats[rpc.ordinal()].messages.increment();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            completed(this, false);
+        }
+
+        @Override
+        public void onCompleted() {
+            completed(this, true);
+        }
+    }
+
+    private void printReport(long measuredNanos, int unfinished) {
+        double seconds = measuredNanos / 1e9;
+        System.out.printf("%nResults over %.1fs, latencies in ms; response time from the scheduled start, "
+            + "service time from the actual start%n", seconds);
+        System.out.printf("%-26s %9s %7s %9s %10s | %8s %8s %8s %8s %8s | %8s %8s%n",
+            "rpc", "ok", "failed", "calls/s", "msgs/s", "p50", "p90", "p99", "p99.9", "max", "svc p50", "svc p99");
+        for (Rpc rpc : Rpc.values()) {
+            Stats rpcStats = stats[rpc.ordinal()];
+            LatencyHistogram.Snapshot response = rpcStats.responseTime.snapshot();
+            LatencyHistogram.Snapshot service = rpcStats.serviceTime.snapshot();
+            long ok = rpcStats.succeeded.sum();
+            long failed = rpcStats.failed.sum();
+            if (ok + failed == 0) {
+                continue;
+            }
+            System.out.printf(Locale.ROOT, "%-26s %9d %7d %9.1f %10.1f | %8.2f %8.2f %8.2f %8.2f %8.2f | %8.2f %8.2f%n",
+                rpc.method, ok, failed, ok / seconds, rpcStats.messages.sum() / seconds,
+                millis(response.getPercentile(0.5)), millis(response.getPercentile(0.9)),
+                millis(response.getPercentile(0.99)), millis(response.getPercentile(0.999)),
+                millis(response.getMax()), millis(service.getPercentile(0.5)), millis(service.getPercentile(0.99)));
+        }
+        if (skipped.sum() > 0) {
+            System.out.printf("Skipped %d calls over the limit of %d in flight, counted as failed%n",
+                skipped.sum(), maxOutstanding);
+        }
+        if (unfinished > 0) {
+            System.out.printf("%d calls still open after the drain timeout%n", unfinished);
+        }
+        System.out.printf("%nPer-method client metrics (network, auth and handler split):%n%s",
+            clientMetrics.report("").getText());
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
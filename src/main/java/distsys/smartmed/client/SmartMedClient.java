@@ -1,80 +1,95 @@
 package distsys.smartmed.client;
 
+import distsys.smartmed.common.ServiceDiscovery;
+import distsys.smartmed.metrics.MetricsClientInterceptor;
+import distsys.smartmed.metrics.MetricsRegistry;
 import distsys.smartmed.security.JwtClientInterceptor;
 import distsys.smartmed.security.JwtUtil;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
 import javax.jmdns.JmDNS;
-import javax.jmdns.ServiceEvent;
-import javax.jmdns.ServiceInfo;
-import javax.jmdns.ServiceListener;
 
 /**
  * The SmartMedClient class represents a gRPC client that connects to a remote service
  * using dynamic service discovery (via JmDNS) and JWT-based authentication.
- * It listens for available services on the local network and connects to them securely using
- * a JWT token for authentication.
- * 
+ * It keeps the live set of SmartMed servers announced on the local network and balances its
+ * calls over all of them round-robin, using a JWT token for authentication. The servers
+ * announce themselves when they start, see {@code SmartMedServer}.
+ *
  * @author anukratimehta
  */
-public class SmartMedClient {
-    private JmDNS jmdns;
-    private ManagedChannel channel;
+public class SmartMedClient implements Closeable {
+    private final JmDNS jmdns;
+    private final ManagedChannel channel;
     private final String jwtToken;
+    private final MetricsRegistry metrics = new MetricsRegistry();
 
     /**
      * Constructs a SmartMedClient instance.
-     * It generates a JWT token and listens for services using JmDNS to discover available services.
-     * Once a service is resolved, it connects to it using gRPC with the JWT token for authentication.
-     * 
-     * @throws IOException if an I/O error occurs while creating JmDNS or managing the channel
+     * It generates a JWT token and opens one channel whose addresses are the SmartMed
+     * services found by JmDNS. Servers joining the network start receiving calls once they
+     * are resolved, and servers leaving it are dropped without interrupting the others.
+     *
+     * @throws IOException if an I/O error occurs while creating JmDNS
      */
+    @SuppressWarnings("deprecation")  // nameResolverFactory is the per-channel resolver hook in this gRPC version
     public SmartMedClient() throws IOException {
         // Generate a JWT token for authentication
         this.jwtToken = JwtUtil.generateToken();
 
         // Initialize JmDNS for service discovery
         jmdns = JmDNS.create(InetAddress.getByName("0.0.0.0"));
-        
-        // Add a service listener for discovering services of type "_smartmed._tcp.local."
-        jmdns.addServiceListener("_smartmed._tcp.local.", new ServiceListener() {
-            @Override
-            public void serviceResolved(ServiceEvent event) {
-                // When a service is resolved, extract the host and port
-                ServiceInfo info = event.getInfo();
-                String host = info.getHostAddresses()[0];
-                int port = info.getPort();
-                
-                // If not connected, establish a connection with the service
-                if (channel == null) {
-                    channel = ManagedChannelBuilder.forAddress(host, port)
-                        .intercept(new JwtClientInterceptor(jwtToken))  // Intercept requests with JWT for authentication
-                        .usePlaintext()  // Disable encryption for local connections
-                        .build();
-                    System.out.println("Connected to secure service at " + host + ":" + port);
-                }
-            }
 
-            @Override 
-            public void serviceAdded(ServiceEvent event) {
-                // Request service info for newly added services
-                jmdns.requestServiceInfo(event.getType(), event.getName());
-            }
+        channel = ManagedChannelBuilder.forTarget(JmdnsNameResolverProvider.target(ServiceDiscovery.SERVICE_TYPE))
+            .nameResolverFactory(new JmdnsNameResolverProvider(jmdns))  // Addresses follow the JmDNS events
+            .defaultLoadBalancingPolicy("round_robin")  // Spread calls over every discovered server
+            .intercept(new JwtClientInterceptor(jwtToken))  // Intercept requests with JWT for authentication
+            .intercept(new MetricsClientInterceptor(metrics))  // Time calls and send a trace id
+            .usePlaintext()  // Disable encryption for local connections
+            .build();
+        // Start browsing now rather than on the first call
+        channel.getState(true);
+    }
+
+    /**
+     * @return the load-balanced channel to the discovered servers; calls made before the
+     *         first server is found wait for it
+     */
+    public ManagedChannel getChannel() {
+        return channel;
+    }
 
-            @Override 
-            public void serviceRemoved(ServiceEvent event) {
-                // Log when a service is removed from the network
-                System.out.println("Service left: " + event.getName());
-            }
-        });
+    /**
+     * @return the per-method latencies and counters of the calls made through this client
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Shuts down the channel and stops browsing.
+     *
+     * @throws IOException if JmDNS fails to close
+     */
+    @Override
+    public void close() throws IOException {
+        channel.shutdown();
+        try {
+            channel.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        jmdns.close();
     }
 
     /**
      * The entry point for the SmartMedClient application.
      * Initializes the client and starts listening for services.
-     * 
+     *
      * @param args command-line arguments
      * @throws IOException if an I/O error occurs during client initialization
      * @throws InterruptedException if the main thread is interrupted
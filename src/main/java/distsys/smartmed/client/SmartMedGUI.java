@@ -25,8 +25,21 @@ import java.util.Collections;
 import java.util.Comparator;
 import distsys.smartmed.security.JwtClientInterceptor;
 import distsys.smartmed.security.JwtUtil;
+import distsys.smartmed.common.ThreadUtils;
 import distsys.smartmed.common.ValidationUtils;
+import distsys.smartmed.metrics.MetricsClientInterceptor;
+import distsys.smartmed.metrics.MetricsRegistry;
 import io.grpc.StatusRuntimeException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
 public class SmartMedGUI extends javax.swing.JFrame {
@@ -35,9 +48,19 @@ public class SmartMedGUI extends javax.swing.JFrame {
     private String jwtToken;
     private volatile boolean isServiceRunning = false;
     private final Object serviceLock = new Object();
+    private final MetricsRegistry clientMetrics = new MetricsRegistry();
+    // Runs the gRPC callbacks and paces the streamed requests, so no thread waits in a sleep
+    private final ScheduledExecutorService clientExecutor =
+        Executors.newScheduledThreadPool(2, ThreadUtils.daemonThreadFactory("smartmed-gui-client"));
+    private BatchedLog batchedLog;
 
     public SmartMedGUI() {
         initComponents();
+        // Lines from the streams reach the text area at most once per frame; it keeps the
+        // latest 200k characters
+        batchedLog = new BatchedLog(resultArea, 33, 200000);
+        batchedLog.start();
+        initializeMenu();
         initializeGRPCChannel();
         idField.requestFocusInWindow();
     }
@@ -46,6 +69,7 @@ public class SmartMedGUI extends javax.swing.JFrame {
         try {
             // First create unauthenticated channel
             ManagedChannel tempChannel = ManagedChannelBuilder.forAddress("localhost", 50051)
+                    .intercept(new MetricsClientInterceptor(clientMetrics))
                     .usePlaintext()
                     .build();
 
@@ -74,11 +98,62 @@ public class SmartMedGUI extends javax.swing.JFrame {
 
         // Create authenticated channel
         this.channel = ManagedChannelBuilder.forAddress("localhost", 50051)
+                .executor(clientExecutor)
                 .intercept(new JwtClientInterceptor(jwtToken))
+                // Added last so it runs first, timing the whole call including the token header
+                .intercept(new MetricsClientInterceptor(clientMetrics))
                 .usePlaintext()
                 .build();
     }
 
+    /**
+     * Adds the menu bar, which is not part of the generated form.
+     */
+    private void initializeMenu() {
+        JMenuItem dashboardItem = new JMenuItem("Patient dashboard...");
+        dashboardItem.addActionListener(e -> promptDashboard());
+        JMenu viewMenu = new JMenu("View");
+        viewMenu.add(dashboardItem);
+        JMenuBar menuBar = new JMenuBar();
+        menuBar.add(viewMenu);
+        setJMenuBar(menuBar);
+        pack();
+    }
+
+    private void promptDashboard() {
+        String text = JOptionPane.showInputDialog(this, "Patient IDs, e.g. 1-24,30", "1-24");
+        if (text == null) {
+            return;
+        }
+        try {
+            openDashboard(VitalsDashboard.parsePatientIds(text));
+        } catch (IllegalArgumentException e) {
+            logClientError("Dashboard", e);
+        }
+    }
+
+    /**
+     * Opens a live dashboard of several patients sharing this window's channel. Must be
+     * called on the EDT.
+     *
+     * @param patientIds the patients to show
+     * @return the dashboard window
+     */
+    public VitalsDashboard openDashboard(List<String> patientIds) {
+        VitalsDashboard dashboard = new VitalsDashboard(channel, patientIds);
+        dashboard.setLocationRelativeTo(this);
+        dashboard.setVisible(true);
+        return dashboard;
+    }
+
+    /**
+     * @return the per-method latencies and counters of the calls made by this window;
+     *         {@code getClientMetrics().report("").getText()} renders them as text
+     */
+    public MetricsRegistry getClientMetrics() {
+        return clientMetrics;
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -179,7 +254,14 @@ public class SmartMedGUI extends javax.swing.JFrame {
         pack();
     }// </editor-fold>//GEN-END:initComponents
 
-private void handleServiceRequest(Runnable serviceAction) {
+/**
+ * Validates the patient ID and runs an action while the service buttons are disabled. The
+ * action only starts its calls and returns a future that its response observer completes, so
+ * the buttons are enabled again exactly when the call ends rather than after a fixed wait.
+ *
+ * @param serviceAction starts the calls and returns the future of their completion
+ */
+private void handleServiceRequest(Supplier<CompletableFuture<Void>> serviceAction) {
     
     // Validate first before setting service as running
     String patientId = idField.getText().trim();
@@ -194,8 +276,8 @@ private void handleServiceRequest(Runnable serviceAction) {
     setServiceRunning(true);
     
     try {
-        serviceAction.run();
-    } catch (Exception e) {
+        serviceAction.get().whenComplete((result, error) -> setServiceRunning(false));
+    } catch (RuntimeException e) {
         setServiceRunning(false);
         throw e;
     }
@@ -217,10 +299,7 @@ private void setServiceRunning(boolean running) {
     }
 }
    private void log(String message) {
-    SwingUtilities.invokeLater(() -> {
-        resultArea.append(message + "\n");
-        resultArea.setCaretPosition(resultArea.getDocument().getLength());
-    });
+    batchedLog.append(message);
 }
 
     private void logClientError(String context, Throwable t) {
@@ -230,161 +309,185 @@ private void setServiceRunning(boolean running) {
         } else {
             message = t.getMessage();
         }
-        resultArea.append(String.format("[ERROR] %s: %s\n", context, message));
+        log(String.format("[ERROR] %s: %s", context, message));
+    }
+
+    /**
+     * Response observer that completes a future when its call ends, either way.
+     */
+    private abstract class CompletingObserver<T> implements StreamObserver<T> {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final String context;
+
+        CompletingObserver(String context) {
+            this.context = context;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logClientError(context, t);
+            done.complete(null);
+        }
     }
 
     private void patientBtnActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_patientBtnActionPerformed
         // TODO add your handling code here:
-         handleServiceRequest(() -> {
-        String patientId = idField.getText().trim();
-        
-        if (!ValidationUtils.isValidPatientId(patientId)) {
-            log("\nError: Patient ID must be between " + 
-                ValidationUtils.PATIENT_ID_MIN + "-" + 
-                ValidationUtils.PATIENT_ID_MAX);
-            return;
-        }
+        handleServiceRequest(() -> {
+            String patientId = idField.getText().trim();
+            log("\nFetching record for patient: " + patientId);
 
-        new Thread(() -> {
-            try {
-                log("\nFetching record for patient: " + patientId);
-                PatientResponse response = PatientServiceGrpc.newBlockingStub(channel)
-                    .getPatientRecord(PatientRequest.newBuilder()
-                        .setPatientId(patientId)
-                        .build());
-
-                log("Name: " + response.getName());
-                log("Age: " + response.getAge());
-                log("Medication: " + response.getCurrentMedication());
-                log("History: " + response.getMedicalHistoryList());
-            } catch (StatusRuntimeException e) {
-                logClientError("Patient Records", e);
-            } catch (Exception e) {
-                logClientError("Unexpected Error", e);
-            } finally {
-                setServiceRunning(false);
-            }
-        }).start();
-    });
+            CompletingObserver<PatientResponse> observer = new CompletingObserver<PatientResponse>("Patient Records") {
+                @Override
+                public void onNext(PatientResponse response) {
+                    log("Name: " + response.getName());
+                    log("Age: " + response.getAge());
+                    log("Medication: " + response.getCurrentMedication());
+                    log("History: " + response.getMedicalHistoryList());
+                }
+
+                @Override
+                public void onCompleted() {
+                    done.complete(null);
+                }
+            };
+            PatientServiceGrpc.newStub(channel).getPatientRecord(
+                PatientRequest.newBuilder().setPatientId(patientId).build(), observer);
+            return observer.done;
+        });
     }//GEN-LAST:event_patientBtnActionPerformed
 
     private void monitoringBtnActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_monitoringBtnActionPerformed
         // TODO add your handling code here:
-       handleServiceRequest(() -> {
-        String patientId = idField.getText().trim();
-    
-        if (!ValidationUtils.isValidPatientId(patientId)) {
-            log("\nError: Patient ID must be between " + 
-                ValidationUtils.PATIENT_ID_MIN + "-" + 
-                ValidationUtils.PATIENT_ID_MAX);
-            return;
-        }
-
-        new Thread(() -> {
-            try {
-                log("\n=== Starting Vitals Monitoring ===");
-                
-                MonitoringServiceGrpc.MonitoringServiceStub stub = 
-                    MonitoringServiceGrpc.newStub(channel);
-
-                stub.streamVitals(
-                    VitalsRequest.newBuilder()
-                        .setPatientId(patientId)
-                        .setDurationSeconds(10)
-                        .build(),
-                    new StreamObserver<VitalsUpdate>() {
-                        @Override
-                        public void onNext(VitalsUpdate update) {
-                            log(String.format("Heart Rate: %d | Oxygen: %.1f%% | Time: %tT",
-                                update.getHeartRate(),
-                                update.getOxygenLevel(),
-                                update.getTimestamp()));
-                        }
+        handleServiceRequest(() -> {
+            String patientId = idField.getText().trim();
+            log("\n=== Starting Vitals Monitoring ===");
 
-                        @Override
-                        public void onError(Throwable t) {
-                            logClientError("Vitals Monitoring", t);
-                        }
+            CompletingObserver<VitalsUpdate> observer = new CompletingObserver<VitalsUpdate>("Vitals Monitoring") {
+                @Override
+                public void onNext(VitalsUpdate update) {
+                    log(String.format("Heart Rate: %d (avg %.1f) | Oxygen: %.1f%% (avg %.1f%%) | Time: %tT",
+                        update.getHeartRate(),
+                        update.getStats().getHeartRateAvg(),
+                        update.getOxygenLevel(),
+                        update.getStats().getOxygenAvg(),
+                        update.getTimestamp()));
+                    for (VitalsAlert alert : update.getAlertsList()) {
+                        log("ALERT: " + alert.getMessage());
+                    }
+                }
 
-                        @Override
-                        public void onCompleted() {
-                            log("Monitoring session ended");
-                        }
-                    });
-
-                Thread.sleep(10000); // Match 10s duration
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (Exception e) {
-                logClientError("Monitoring Setup", e);
-            } finally {
-                setServiceRunning(false);
-            }
-        }).start();
-    });
+                @Override
+                public void onCompleted() {
+                    log("Monitoring session ended");
+                    done.complete(null);
+                }
+            };
+            // The session ends when the server completes the stream, however fast it ticks
+            MonitoringServiceGrpc.newStub(channel).streamVitals(
+                VitalsRequest.newBuilder()
+                    .setPatientId(patientId)
+                    .setDurationSeconds(10)
+                    .build(),
+                observer);
+            return observer.done;
+        });
     }//GEN-LAST:event_monitoringBtnActionPerformed
 
     private void medicationBtnActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_medicationBtnActionPerformed
         // TODO add your handling code here:
         handleServiceRequest(() -> {
-        String patientId = idField.getText().trim();
-        
-        if (!ValidationUtils.isValidPatientId(patientId)) {
-            log("\nError: Patient ID must be between 1-100");
-            return;
+            String patientId = idField.getText().trim();
+            log("\n=== Starting Medication Tracking ===");
+
+            CompletingObserver<MedicationAnalysis> observer = new CompletingObserver<MedicationAnalysis>("Medication Analysis") {
+                @Override
+                public void onNext(MedicationAnalysis analysis) {
+                    log("\n=== MEDICATION ANALYSIS ===");
+                    log(String.format("Adherence: %.1f%%", analysis.getAdherencePercentage()));
+                    log("Taken: %d/%d doses".formatted(
+                        analysis.getTakenDoses(), 
+                        analysis.getTotalDoses()));
+                    log("Summary: " + analysis.getSummary());
+                }
+
+                @Override
+                public void onCompleted() {
+                    log("Medication analysis completed");
+                    done.complete(null);
+                }
+            };
+            StreamObserver<MedicationRecord> requestObserver =
+                MedicationServiceGrpc.newStub(channel).analyzeMedicationSchedule(observer);
+
+            List<MedicationRecord> records = generatePatientMedications(patientId, 
+                LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm")));
+            log("\n=== Streaming Medication Records ===");
+            streamPaced(records.size(), 500, observer.done, i -> {
+                MedicationRecord record = records.get(i);
+                requestObserver.onNext(record);
+                log("Sent: " + record.getMedicationName() + 
+                    " at " + record.getScheduledTime() + 
+                    " (" + (record.getWasTaken() ? "taken" : "missed") + ")");
+            }, requestObserver);
+            return observer.done;
+        });
+    }
+
+    /**
+     * Sends the requests of a stream on the client executor, one every interval, then half
+     * closes the stream.
+     *
+     * @param count the number of requests
+     * @param intervalMillis the time between two requests
+     * @param done the completion of the call; no more requests are sent once it is done
+     * @param send sends the request with the given index
+     * @param requests the request stream to complete after the last one
+     */
+    private void streamPaced(int count, long intervalMillis, CompletableFuture<Void> done,
+            IntConsumer send, StreamObserver<?> requests) {
+        clientExecutor.execute(new PacedSender(count, intervalMillis, done, send, requests));
+    }
+
+    /**
+     * Sends one request per run and schedules itself again, so a paced stream holds no
+     * thread between its requests. Stops early if the call already ended, for instance on a
+     * server error.
+     */
+    private final class PacedSender implements Runnable {
+        private final int count;
+        private final long intervalMillis;
+        private final CompletableFuture<Void> done;
+        private final IntConsumer send;
+        private final StreamObserver<?> requests;
+        private int next = 0;
+
+        PacedSender(int count, long intervalMillis, CompletableFuture<Void> done,
+                IntConsumer send, StreamObserver<?> requests) {
+            this.count = count;
+            this.intervalMillis = intervalMillis;
+            this.done = done;
+            this.send = send;
+            this.requests = requests;
         }
 
-        new Thread(() -> {
+        @Override
+        public void run() {
+            if (done.isDone()) {
+                return;
+            }
             try {
-                log("\n=== Starting Medication Tracking ===");
-
-                StreamObserver<MedicationRecord> requestObserver = 
-                    MedicationServiceGrpc.newStub(channel).analyzeMedicationSchedule(
-                        new StreamObserver<MedicationAnalysis>() {
-                            @Override
-                            public void onNext(MedicationAnalysis analysis) {
-                                log("\n=== MEDICATION ANALYSIS ===");
-                                log(String.format("Adherence: %.1f%%", analysis.getAdherencePercentage()));
-                                log("Taken: %d/%d doses".formatted(
-                                    analysis.getTakenDoses(), 
-                                    analysis.getTotalDoses()));
-                                log("Summary: " + analysis.getSummary());
-                            }
-
-                            @Override
-                            public void onError(Throwable t) {
-                                logClientError("Medication Analysis", t);
-                            }
-
-                            @Override
-                            public void onCompleted() {
-                                log("Medication analysis completed");
-                            }
-                        });
-
-                List<MedicationRecord> records = generatePatientMedications(patientId, 
-                    LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm")));
-                
-                log("\n=== Streaming Medication Records ===");
-                for (MedicationRecord record : records) {
-                    requestObserver.onNext(record);
-                    log("Sent: " + record.getMedicationName() + 
-                        " at " + record.getScheduledTime() + 
-                        " (" + (record.getWasTaken() ? "taken" : "missed") + ")");
-                    Thread.sleep(500);
+                if (next < count) {
+                    send.accept(next++);
+                    clientExecutor.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    requests.onCompleted();
                 }
-
-                requestObserver.onCompleted();
-                Thread.sleep(1000); // Wait for final analysis
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (Exception e) {
-                logClientError("Medication Tracking", e);
-            } finally {
-                setServiceRunning(false);
+            } catch (RuntimeException e) {
+                requests.onError(e);
+                logClientError("Request Stream", e);
+                done.complete(null);
             }
-        }).start();
-    });
+        }
     }
 
     private List<MedicationRecord> generatePatientMedications(String patientId, String currentTime) {
@@ -577,73 +680,49 @@ private void setServiceRunning(boolean running) {
     private void rehabBtnActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_rehabBtnActionPerformed
         // TODO add your handling code here:
         handleServiceRequest(() -> {
-        String patientId = idField.getText().trim();
-        
-        if (!ValidationUtils.isValidPatientId(patientId)) {
-            log("\nError: Patient ID must be between 1-100");
-            return;
-        }
+            String patientId = idField.getText().trim();
+            log("\n=== Starting Rehab Session ===");
 
-        new Thread(() -> {
-            try {
-                log("\n=== Starting Rehab Session ===");
-
-                StreamObserver<ExerciseInput> requestObserver = 
-                    RehabServiceGrpc.newStub(channel).liveExerciseFeedback(
-                        new StreamObserver<ExerciseFeedback>() {
-                            @Override
-                            public void onNext(ExerciseFeedback feedback) {
-                                if (feedback.getRepetitionNumber() == 0) {
-                                    log("\n=== FINAL REPORT ===");
-                                    log(feedback.getMessage());
-                                } else {
-                                    log(String.format("[Rep %d] %s: %s", 
-                                        feedback.getRepetitionNumber(),
-                                        feedback.getSeverity().toUpperCase(),
-                                        feedback.getMessage()));
-                                }
-                            }
-
-                            @Override
-                            public void onError(Throwable t) {
-                                logClientError("Rehab Feedback", t);
-                            }
-
-                            @Override
-                            public void onCompleted() {
-                                log("Rehab session ended");
-                            }
-                        });
-
-                String[] exercises = {"Squat", "Lunge", "Leg Raise"};
-                String exercise = exercises[new Random().nextInt(exercises.length)];
-                
-                log("Performing 10 reps of: " + exercise);
-                for (int i = 1; i <= 10; i++) {
-                    double angle = 20 + new Random().nextDouble() * 30; // 20-50°
-                    
-                    requestObserver.onNext(ExerciseInput.newBuilder()
-                        .setPatientId(patientId)
-                        .setExerciseName(exercise)
-                        .setRepetitionNumber(i)
-                        .setPostureAngle(angle)
-                        .build());
-                    
-                    log("Sent rep " + i + " - Angle: " + String.format("%.1f°", angle));
-                    Thread.sleep(1000);
+            CompletingObserver<ExerciseFeedback> observer = new CompletingObserver<ExerciseFeedback>("Rehab Feedback") {
+                @Override
+                public void onNext(ExerciseFeedback feedback) {
+                    if (feedback.getRepetitionNumber() == 0) {
+                        log("\n=== FINAL REPORT ===");
+                        log(feedback.getMessage());
+                    } else {
+                        log(String.format("[Rep %d] %s: %s", 
+                            feedback.getRepetitionNumber(),
+                            feedback.getSeverity().toUpperCase(),
+                            feedback.getMessage()));
+                    }
                 }
 
-                requestObserver.onCompleted();
-                Thread.sleep(500); // Wait for final report
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (Exception e) {
-                logClientError("Rehab Session", e);
-            } finally {
-                setServiceRunning(false);
-            }
-        }).start();
-    });
+                @Override
+                public void onCompleted() {
+                    log("Rehab session ended");
+                    done.complete(null);
+                }
+            };
+            StreamObserver<ExerciseInput> requestObserver =
+                RehabServiceGrpc.newStub(channel).liveExerciseFeedback(observer);
+
+            String[] exercises = {"Squat", "Lunge", "Leg Raise"};
+            Random random = new Random();
+            String exercise = exercises[random.nextInt(exercises.length)];
+            log("Performing 10 reps of: " + exercise);
+            streamPaced(10, 1000, observer.done, i -> {
+                double angle = 20 + random.nextDouble() * 30; // 20-50°
+                requestObserver.onNext(ExerciseInput.newBuilder()
+                    .setPatientId(patientId)
+                    .setExerciseName(exercise)
+                    .setRepetitionNumber(i + 1)
+                    .setPostureAngle(angle)
+                    .setTimestampMillis(System.currentTimeMillis())
+                    .build());
+                log("Sent rep " + (i + 1) + " - Angle: " + String.format("%.1f°", angle));
+            }, requestObserver);
+            return observer.done;
+        });
     }//GEN-LAST:event_rehabBtnActionPerformed
 
     /**
@@ -701,6 +780,8 @@ private void setServiceRunning(boolean running) {
         if (channel != null) {
             channel.shutdown();
         }
+        clientExecutor.shutdownNow();
+        batchedLog.stop();
         super.dispose();
     }
 
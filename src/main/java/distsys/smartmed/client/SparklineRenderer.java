@@ -0,0 +1,84 @@
+package distsys.smartmed.client;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import javax.swing.JComponent;
+import javax.swing.JTable;
+import javax.swing.table.TableCellRenderer;
+
+/**
+ * Table cell renderer drawing the latest samples of a {@link VitalsRing} as a line, one pixel
+ * per sample, scaled to the range of the visible samples. Like every Swing renderer it is
+ * only asked to paint visible cells, and it reuses its buffers between cells.
+ *
+ * @author anukratimehta
+ */
+final class SparklineRenderer extends JComponent implements TableCellRenderer {
+    private static final long serialVersionUID = 1L;
+    private final boolean oxygen;
+    private final Color lineColor;
+    private float[] values = new float[0];
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+    private VitalsRing ring;
+    private boolean selected;
+    private Color selectionBackground;
+
+    /**
+     * @param oxygen true to draw the oxygen levels, false for the heart rates
+     * @param lineColor the color of the line
+     */
+    SparklineRenderer(boolean oxygen, Color lineColor) {
+        this.oxygen = oxygen;
+        this.lineColor = lineColor;
+        setOpaque(true);
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+            boolean hasFocus, int row, int column) {
+        ring = (VitalsRing) value;
+        selected = isSelected;
+        selectionBackground = table.getSelectionBackground();
+        setBackground(table.getBackground());
+        return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        g.setColor(selected ? selectionBackground : getBackground());
+        g.fillRect(0, 0, width, height);
+        if (ring == null || width < 2 || height < 4) {
+            return;
+        }
+        if (values.length < width) {
+            values = new float[width];
+            xs = new int[width];
+            ys = new int[width];
+        }
+        // The newest samples that fit the cell, oldest first, right-aligned
+        int count = oxygen ? ring.copyOxygenLevels(values, width) : ring.copyHeartRates(values, width);
+        if (count < 2) {
+            return;
+        }
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        float range = Math.max(max - min, 1f);
+        int top = 2;
+        int span = height - 5;
+        int x0 = width - count;
+        for (int i = 0; i < count; i++) {
+            xs[i] = x0 + i;
+            ys[i] = top + Math.round((max - values[i]) / range * span);
+        }
+        g.setColor(lineColor);
+        g.drawPolyline(xs, ys, count);
+    }
+}
@@ -0,0 +1,372 @@
+package distsys.smartmed.client;
+
+import com.healthcare.grpc.auth.*;
+import com.healthcare.grpc.monitoring.*;
+import distsys.smartmed.common.ThreadUtils;
+import distsys.smartmed.common.ValidationUtils;
+import distsys.smartmed.security.JwtClientInterceptor;
+import distsys.smartmed.security.JwtUtil;
+import io.grpc.Channel;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Live vitals of many patients at once, for nurse stations. Every patient gets a StreamVitals
+ * subscription on one shared channel and a row in a table showing the latest values and
+ * sparklines of the recent history.
+ * <p>
+ * Stream callbacks only write into the patient's row and mark it changed. A Swing timer
+ * running at the capped frame rate repaints just the changed rows, and the table only renders
+ * the visible ones, so the cost of a frame does not grow with the number of patients or the
+ * update rate. The history of each patient is a {@link VitalsRing} of primitive arrays, so the
+ * memory stays flat over a whole shift. Streams that end or fail are subscribed again.
+ * <p>
+ * Settings: {@code smartmed.dashboard.historySamples} (samples kept per patient, default 3600),
+ * {@code smartmed.dashboard.maxFps} (repaints per second, default 10) and
+ * {@code smartmed.dashboard.streamUpdates} (updates per subscription before it is renewed,
+ * default 3600).
+ *
+ * @author anukratimehta
+ */
+public class VitalsDashboard extends JFrame {
+    private static final long serialVersionUID = 1L;
+    private static final long RETRY_DELAY_MILLIS = 5000;
+    // One subscription and one table row per patient
+    private static final int MAX_PATIENTS = 1000;
+
+    private final Channel channel;
+    private final List<PatientRow> rows = new ArrayList<>();
+    private final DashboardModel model = new DashboardModel();
+    private final Context.CancellableContext streams = Context.current().withCancellation();
+    private final ScheduledExecutorService retries =
+        Executors.newSingleThreadScheduledExecutor(ThreadUtils.daemonThreadFactory("smartmed-dashboard-retry"));
+    private final int streamUpdates;
+    private final Timer repaintTimer;
+    private final JLabel status = new JLabel(" ");
+
+    /**
+     * Creates the dashboard with the settings from the system properties and subscribes to
+     * the patients. Must be called on the EDT.
+     *
+     * @param channel the authenticated channel all subscriptions share
+     * @param patientIds the patients to show, in the order of the rows
+     */
+    public VitalsDashboard(Channel channel, List<String> patientIds) {
+        this(channel, patientIds,
+            Integer.getInteger("smartmed.dashboard.historySamples", 3600),
+            Integer.getInteger("smartmed.dashboard.maxFps", 10),
+            Integer.getInteger("smartmed.dashboard.streamUpdates", 3600));
+    }
+
+    /**
+     * Creates the dashboard and subscribes to the patients. Must be called on the EDT.
+     *
+     * @param channel the authenticated channel all subscriptions share
+     * @param patientIds the patients to show, in the order of the rows
+     * @param historySamples the number of samples kept per patient
+     * @param maxFps the most repaints per second
+     * @param streamUpdates the number of updates requested per subscription
+     */
+    public VitalsDashboard(Channel channel, List<String> patientIds, int historySamples, int maxFps,
+            int streamUpdates) {
+        super("SmartMed Vitals Dashboard");
+        this.channel = channel;
+        this.streamUpdates = streamUpdates;
+        for (String patientId : patientIds) {
+            ValidationUtils.validatePatientId(patientId);
+            rows.add(new PatientRow(patientId, historySamples));
+        }
+
+        JTable table = new JTable(model);
+        table.setRowHeight(32);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(DashboardModel.HEART_TREND)
+            .setCellRenderer(new SparklineRenderer(false, new Color(200, 40, 40)));
+        table.getColumnModel().getColumn(DashboardModel.OXYGEN_TREND)
+            .setCellRenderer(new SparklineRenderer(true, new Color(40, 90, 200)));
+        table.getColumnModel().getColumn(DashboardModel.HEART_TREND).setPreferredWidth(240);
+        table.getColumnModel().getColumn(DashboardModel.OXYGEN_TREND).setPreferredWidth(240);
+        table.getColumnModel().getColumn(DashboardModel.LAST_ALERT).setPreferredWidth(260);
+
+        getContentPane().setLayout(new BorderLayout());
+        getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+        getContentPane().add(status, BorderLayout.SOUTH);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setSize(1100, 600);
+
+        repaintTimer = new Timer(1000 / Math.max(1, maxFps), e -> repaintChanged());
+        repaintTimer.setCoalesce(true);
+        repaintTimer.start();
+        for (PatientRow row : rows) {
+            subscribe(row);
+        }
+    }
+
+    private void subscribe(PatientRow row) {
+        // Subscriptions started in the cancellable context end together when the window closes
+        streams.run(() -> MonitoringServiceGrpc.newStub(channel).streamVitals(
+            VitalsRequest.newBuilder()
+                .setPatientId(row.patientId)
+                .setDurationSeconds(streamUpdates)
+                .build(),
+            new RowObserver(row)));
+    }
+
+    private void resubscribe(PatientRow row, long delayMillis) {
+        if (streams.isCancelled()) {
+            return;
+        }
+        retries.schedule(() -> subscribe(row), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fires one update per run of changed rows. Runs on the EDT at the capped frame rate.
+     */
+    private void repaintChanged() {
+        int changed = 0;
+        int first = -1;
+        for (int i = 0; i <= rows.size(); i++) {
+            boolean dirty = i < rows.size() && rows.get(i).takeChanged();
+            if (dirty) {
+                changed++;
+                if (first < 0) {
+                    first = i;
+                }
+            } else if (first >= 0) {
+                model.fireTableRowsUpdated(first, i - 1);
+                first = -1;
+            }
+        }
+        if (changed > 0) {
+            status.setText(rows.size() + " patients, " + changed + " updated in the last frame");
+        }
+    }
+
+    @Override
+    public void dispose() {
+        repaintTimer.stop();
+        streams.cancel(null);
+        retries.shutdownNow();
+        super.dispose();
+    }
+
+    /**
+     * Latest state of one patient. Written by the patient's stream, read on the EDT.
+     */
+    private static final class PatientRow {
+        final String patientId;
+        final VitalsRing history;
+        volatile int heartRate;
+        volatile float oxygenLevel;
+        volatile long updates;
+        volatile long alerts;
+        volatile String lastAlert = "";
+        volatile String state = "Connecting";
+        private volatile boolean changed = true;
+
+        PatientRow(String patientId, int historySamples) {
+            this.patientId = patientId;
+            this.history = new VitalsRing(historySamples);
+        }
+
+        void markChanged() {
+            changed = true;
+        }
+
+        boolean takeChanged() {
+            if (!changed) {
+                return false;
+            }
+            changed = false;
+            return true;
+        }
+    }
+
+    /**
+     * Stream observer of one patient's subscription.
+     */
+    private final class RowObserver implements StreamObserver<VitalsUpdate> {
+        private final PatientRow row;
+
+        RowObserver(PatientRow row) {
+            this.row = row;
+        }
+
+        @Override
+        public void onNext(VitalsUpdate update) {
+            row.history.add(update.getHeartRate(), update.getOxygenLevel());
+            row.heartRate = update.getHeartRate();
+            row.oxygenLevel = update.getOxygenLevel();
+            row.updates++;  // Callbacks of one stream are serialized
+            if (update.getAlertsCount() > 0) {
+                row.alerts += update.getAlertsCount();
+                row.lastAlert = update.getAlerts(update.getAlertsCount() - 1).getMessage();
+            }
+            row.state = "Live";
+            row.markChanged();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (streams.isCancelled()) {
+                return;
+            }
+            row.state = "Retrying: " + (t instanceof StatusRuntimeException
+                ? ((StatusRuntimeException) t).getStatus().getCode() : t.getMessage());
+            row.markChanged();
+            resubscribe(row, RETRY_DELAY_MILLIS);
+        }
+
+        @Override
+        public void onCompleted() {
+            resubscribe(row, 0);
+        }
+    }
+
+    /**
+     * Table model reading the patient rows; the trend columns hand the ring to the renderer.
+     */
+    private final class DashboardModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        static final int PATIENT = 0;
+        static final int HEART_RATE = 1;
+        static final int HEART_TREND = 2;
+        static final int OXYGEN = 3;
+        static final int OXYGEN_TREND = 4;
+        static final int ALERTS = 5;
+        static final int LAST_ALERT = 6;
+        static final int STATE = 7;
+
+        private final String[] columns = {
+            "Patient", "Heart rate", "Heart rate trend", "SpO2 %", "SpO2 trend", "Alerts", "Last alert", "Stream"
+        };
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == HEART_TREND || column == OXYGEN_TREND ? VitalsRing.class : Object.class;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            PatientRow row = rows.get(rowIndex);
+            switch (column) {
+                case PATIENT: return row.patientId;
+                case HEART_RATE: return row.updates == 0 ? "" : row.heartRate;
+                case HEART_TREND: return row.history;
+                case OXYGEN: return row.updates == 0 ? "" : String.format("%.1f", row.oxygenLevel);
+                case OXYGEN_TREND: return row.history;
+                case ALERTS: return row.alerts;
+                case LAST_ALERT: return row.lastAlert;
+                default: return row.state;
+            }
+        }
+    }
+
+    /**
+     * Parses a list of patient IDs such as {@code 1-12,20,25}. Ranges are checked before they
+     * are expanded, so a mistyped range fails at once instead of filling memory.
+     *
+     * @param text comma-separated IDs and inclusive ranges
+     * @return the IDs in the given order
+     * @throws IllegalArgumentException if an entry is not a valid ID or range, or if the list
+     *         names more than {@value #MAX_PATIENTS} patients
+     */
+    public static List<String> parsePatientIds(String text) {
+        List<String> ids = new ArrayList<>();
+        for (String part : text.split(",")) {
+            String entry = part.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int dash = entry.indexOf('-');
+            if (dash > 0) {
+                String first = entry.substring(0, dash).trim();
+                String last = entry.substring(dash + 1).trim();
+                ValidationUtils.validatePatientId(first);
+                ValidationUtils.validatePatientId(last);
+                int from = Integer.parseInt(first);
+                int to = Integer.parseInt(last);
+                if (from > to) {
+                    throw new IllegalArgumentException("Empty patient ID range: " + entry);
+                }
+                checkPatientCount(ids.size() + (to - from + 1));
+                for (int id = from; id <= to; id++) {
+                    ids.add(String.valueOf(id));
+                }
+            } else {
+                ValidationUtils.validatePatientId(entry);
+                checkPatientCount(ids.size() + 1);
+                ids.add(entry);
+            }
+        }
+        return ids;
+    }
+
+    private static void checkPatientCount(int count) {
+        if (count > MAX_PATIENTS) {
+            throw new IllegalArgumentException("A dashboard shows at most " + MAX_PATIENTS + " patients");
+        }
+    }
+
+    /**
+     * Opens a dashboard connected to the local server.
+     *
+     * @param args the patient IDs in the form accepted by {@link #parsePatientIds}, default 1-24
+     */
+    public static void main(String[] args) {
+        List<String> patientIds = parsePatientIds(args.length > 0 ? String.join(",", args) : "1-24");
+        String token;
+        ManagedChannel loginChannel = ManagedChannelBuilder.forAddress("localhost", 50051).usePlaintext().build();
+        try {
+            token = AuthServiceGrpc.newBlockingStub(loginChannel).login(LoginRequest.newBuilder()
+                .setUsername("admin")
+                .setPassword("smartmed123")
+                .build()).getToken();
+        } catch (StatusRuntimeException e) {
+            token = JwtUtil.generateToken("dashboard");
+        } finally {
+            loginChannel.shutdown();
+        }
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", 50051)
+            .intercept(new JwtClientInterceptor(token))
+            .usePlaintext()
+            .build();
+        SwingUtilities.invokeLater(() -> {
+            VitalsDashboard dashboard = new VitalsDashboard(channel, patientIds);
+            dashboard.setDefaultCloseOperation(EXIT_ON_CLOSE);
+            dashboard.setVisible(true);
+        });
+    }
+}
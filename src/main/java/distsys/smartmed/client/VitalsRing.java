@@ -0,0 +1,70 @@
+package distsys.smartmed.client;
+
+/**
+ * Fixed-size ring of the latest vitals samples of one patient, kept in primitive arrays so
+ * its memory stays the same however long the dashboard runs. Writers and readers synchronize
+ * on the ring.
+ *
+ * @author anukratimehta
+ */
+final class VitalsRing {
+    private final int[] heartRates;
+    private final float[] oxygenLevels;
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * @param capacity the number of samples kept; older ones are overwritten
+     */
+    VitalsRing(int capacity) {
+        heartRates = new int[capacity];
+        oxygenLevels = new float[capacity];
+    }
+
+    synchronized void add(int heartRate, float oxygenLevel) {
+        heartRates[next] = heartRate;
+        oxygenLevels[next] = oxygenLevel;
+        next = next + 1 == heartRates.length ? 0 : next + 1;
+        if (size < heartRates.length) {
+            size++;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Copies the latest heart rates, oldest first.
+     *
+     * @param target the array to fill
+     * @param limit the most values to copy, at most the length of the target
+     * @return the number of values copied
+     */
+    synchronized int copyHeartRates(float[] target, int limit) {
+        int count = Math.min(size, limit);
+        int index = Math.floorMod(next - count, heartRates.length);
+        for (int i = 0; i < count; i++) {
+            target[i] = heartRates[index];
+            index = index + 1 == heartRates.length ? 0 : index + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Copies the latest oxygen levels, oldest first.
+     *
+     * @param target the array to fill
+     * @param limit the most values to copy, at most the length of the target
+     * @return the number of values copied
+     */
+    synchronized int copyOxygenLevels(float[] target, int limit) {
+        int count = Math.min(size, limit);
+        int index = Math.floorMod(next - count, oxygenLevels.length);
+        for (int i = 0; i < count; i++) {
+            target[i] = oxygenLevels[index];
+            index = index + 1 == oxygenLevels.length ? 0 : index + 1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Logging handler that hands records to a background writer instead of writing them on the
+ * logging thread. Records go into a lock-free queue; the writer drains it in batches, lets the
+ * target handlers format and write each record, and flushes the targets once per batch.
+ * The queue is bounded: when it is full, records are dropped and counted rather than blocking
+ * the caller, and the writer reports the number dropped. Closing the handler drains the queue
+ * and closes the targets.
+ *
+ * @author anukratimehta
+ */
+public class AsyncLogHandler extends Handler {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    // Records written between two flushes at most
+    private static final int BATCH_SIZE = 512;
+    // Longest time a record waits in the queue when the writer is idle
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Handler[] targets;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<LogRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * Creates the handler and starts its writer thread.
+     *
+     * @param capacity the maximum number of queued records
+     * @param targets the handlers the records are written to
+     */
+    public AsyncLogHandler(int capacity, Handler... targets) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.targets = targets.clone();
+        this.writer = ThreadUtils.daemonThreadFactory("log-writer").newThread(this::writeLoop);
+        writer.start();
+    }
+
+    /**
+     * Queues a record for the writer. Never blocks; drops the record if the queue is full.
+     *
+     * @param record the record to write
+     */
+    @Override
+    public void publish(LogRecord record) {
+        if (!running || !isLoggable(record)) {
+            return;
+        }
+        // Resolve the caller now; inferred on the writer thread it would name the writer
+        record.getSourceClassName();
+        int queued = size.incrementAndGet();
+        if (queued > capacity) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(record);
+        if (queued == capacity / 2) {
+            // Wake the writer early rather than waiting for its idle timeout
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Asks the writer to write the queued records now.
+     */
+    @Override
+    public void flush() {
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Stops accepting records, waits for the writer to drain the queue and closes the targets.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        long reportedDropped = 0;
+        while (true) {
+            int written = 0;
+            LogRecord record;
+            while (written < BATCH_SIZE && (record = queue.poll()) != null) {
+                size.decrementAndGet();
+                write(record);
+                written++;
+            }
+            long droppedNow = dropped.get();
+            if (droppedNow != reportedDropped) {
+                write(new LogRecord(Level.WARNING, (droppedNow - reportedDropped)
+                    + " log records dropped, logging queue full"));
+                reportedDropped = droppedNow;
+                written++;
+            }
+            if (written > 0) {
+                for (Handler target : targets) {
+                    target.flush();
+                }
+            } else if (!running) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void write(LogRecord record) {
+        for (Handler target : targets) {
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError("Failed to write log record", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+}
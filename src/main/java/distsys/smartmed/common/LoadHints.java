@@ -0,0 +1,105 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.jmdns.ServiceInfo;
+
+/**
+ * Load of one SmartMed server as announced in the TXT record of its DNS-SD service: the calls
+ * in flight, how many of them are streams, and the CPU use of the server process in percent,
+ * all coarsely rounded by the server. Servers refresh the record while they run. The clients
+ * in this project spread their calls round-robin and only publish the hints of each replica
+ * to the channel; no client picks replicas by load.
+ *
+ * @author anukratimehta
+ */
+public final class LoadHints {
+    public static final String IN_FLIGHT = "inflight";
+    public static final String STREAMS = "streams";
+    public static final String CPU = "cpu";
+
+    private final long inFlight;
+    private final long streams;
+    private final int cpuPercent;
+
+    /**
+     * @param inFlight the calls that have started and not finished yet
+     * @param streams the streaming calls among them
+     * @param cpuPercent the CPU use of the server process from 0 to 100, or -1 if unknown
+     */
+    public LoadHints(long inFlight, long streams, int cpuPercent) {
+        this.inFlight = inFlight;
+        this.streams = streams;
+        this.cpuPercent = cpuPercent;
+    }
+
+    /**
+     * Reads the hints from the TXT record of a resolved service.
+     *
+     * @param info the resolved service
+     * @return the hints, or null if the service does not announce its load
+     */
+    public static LoadHints fromServiceInfo(ServiceInfo info) {
+        String inFlight = info.getPropertyString(IN_FLIGHT);
+        if (inFlight == null) {
+            return null;
+        }
+        try {
+            String cpu = info.getPropertyString(CPU);
+            String streams = info.getPropertyString(STREAMS);
+            return new LoadHints(Long.parseLong(inFlight),
+                streams == null ? 0 : Long.parseLong(streams),
+                cpu == null ? -1 : Integer.parseInt(cpu));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the TXT record properties announcing these hints
+     */
+    public Map<String, String> toText() {
+        Map<String, String> text = new LinkedHashMap<>();
+        text.put(IN_FLIGHT, String.valueOf(inFlight));
+        text.put(STREAMS, String.valueOf(streams));
+        if (cpuPercent >= 0) {
+            text.put(CPU, String.valueOf(cpuPercent));
+        }
+        return text;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public long getStreams() {
+        return streams;
+    }
+
+    public int getCpuPercent() {
+        return cpuPercent;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof LoadHints)) {
+            return false;
+        }
+        LoadHints other = (LoadHints) o;
+        return inFlight == other.inFlight && streams == other.streams && cpuPercent == other.cpuPercent;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * inFlight + streams) + cpuPercent);
+    }
+
+    @Override
+    public String toString() {
+        return "inflight=" + inFlight + " streams=" + streams + " cpu=" + cpuPercent;
+    }
+}
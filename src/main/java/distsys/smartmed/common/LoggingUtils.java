@@ -10,15 +10,39 @@ import java.util.logging.Logger;
 /**
  * Utility class for standardized logging across the services.
  * Provides methods for logging service start, completion, errors, and detailed debug information.
+ * Messages are passed as parameterized records that are only created if their level is enabled,
+ * and are formatted by the handler, which is an {@link AsyncLogHandler} on the server, so
+ * request threads neither format nor write log lines.
  * 
  * @author anukratimehta
  */
 public class LoggingUtils {
     
-    // Standardized log message templates
-    private static final String SERVICE_START = "[%s] Starting for patient %s";
-    private static final String SERVICE_END = "[%s] Completed for patient %s (%s)";
-    private static final String ERROR_OCCURRED = "[%s] Error for patient %s: %s";
+    // Standardized log message templates, in java.text.MessageFormat syntax
+    private static final String SERVICE_START = "[{0}] Starting for patient {1}";
+    private static final String SERVICE_END = "[{0}] Completed for patient {1} ({2})";
+    private static final String ERROR_OCCURRED = "[{0}] Error for patient {1}: {2}";
+
+    // Source class of the records, given explicitly so JUL does not walk the stack to find it
+    private static final String SOURCE_CLASS = LoggingUtils.class.getName();
+
+    /**
+     * Message formatted with {@link String#format} only when the handler renders it.
+     */
+    private static final class FormattedMessage {
+        private final String format;
+        private final Object[] args;
+
+        FormattedMessage(String format, Object[] args) {
+            this.format = format;
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(format, args);
+        }
+    }
 
     /**
      * Logs the start of a service with consistent formatting.
@@ -28,7 +52,10 @@ public class LoggingUtils {
      * @param patientId the ID of the patient involved in the service
      */
     public static void logServiceStart(Logger logger, String serviceName, String patientId) {
-        logger.log(Level.INFO, String.format(SERVICE_START, serviceName, patientId));
+        if (logger.isLoggable(Level.INFO)) {
+            logger.logp(Level.INFO, SOURCE_CLASS, "logServiceStart", SERVICE_START,
+                new Object[] {serviceName, patientId});
+        }
     }
 
     /**
@@ -40,7 +67,10 @@ public class LoggingUtils {
      * @param resultSummary the result or summary of the service completion
      */
     public static void logServiceEnd(Logger logger, String serviceName, String patientId, String resultSummary) {
-        logger.log(Level.INFO, String.format(SERVICE_END, serviceName, patientId, resultSummary));
+        if (logger.isLoggable(Level.INFO)) {
+            logger.logp(Level.INFO, SOURCE_CLASS, "logServiceEnd", SERVICE_END,
+                new Object[] {serviceName, patientId, resultSummary});
+        }
     }
 
     /**
@@ -54,11 +84,15 @@ public class LoggingUtils {
      */
     public static void logError(Logger logger, String serviceName, String patientId, Throwable error, boolean isClientError) {
         Level level = isClientError ? Level.WARNING : Level.SEVERE;
-        logger.log(level, String.format(ERROR_OCCURRED, serviceName, patientId, error.getMessage()));
+        if (logger.isLoggable(level)) {
+            logger.logp(level, SOURCE_CLASS, "logError", ERROR_OCCURRED,
+                new Object[] {serviceName, patientId, error.getMessage()});
+        }
     }
 
     /**
      * Logs detailed debug information, but only if FINE logging level is enabled.
+     * The message is formatted by the handler, so the arguments must not change afterwards.
      * 
      * @param logger the Logger instance to use for logging
      * @param format the format string for the log message
@@ -66,7 +100,7 @@ public class LoggingUtils {
      */
     public static void logFine(Logger logger, String format, Object... args) {
         if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE, String.format(format, args));
+            logger.logp(Level.FINE, SOURCE_CLASS, "logFine", "{0}", new FormattedMessage(format, args));
         }
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.common;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.ErrorManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+/**
+ * Buffered log file handler rotating over a fixed number of generations, like
+ * {@link java.util.logging.FileHandler} but without flushing after every record. Records are
+ * only written through on {@link #flush()}, which {@link AsyncLogHandler} calls once per batch.
+ * The file name pattern uses {@code %g} for the generation; generation 0 is the current file,
+ * and existing files are shifted up one generation when the handler opens.
+ * <p>
+ * Like {@code FileHandler}, the handler holds a lock on the current file name plus
+ * {@code .lck} while it is open. If another handler, possibly in another process, already holds
+ * it, the next unique number is tried: it replaces {@code %u} in the pattern, or is appended
+ * as {@code .<n>} to the file names if the pattern has no {@code %u}. Several servers started
+ * in one directory thus each rotate their own files.
+ *
+ * @author anukratimehta
+ */
+public class RotatingFileHandler extends StreamHandler {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_UNIQUE = 100;
+
+    private final String pattern;
+    private final long limit;
+    private final int count;
+    private long written;
+    private int unique;
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    /**
+     * @param pattern the file name pattern, e.g. "smartmed-%g.log", optionally with {@code %u}
+     * @param limit the approximate maximum size of one file in bytes
+     * @param count the number of generations to keep
+     * @throws IOException if no unique file name can be locked or the current file cannot be
+     *         opened
+     */
+    public RotatingFileHandler(String pattern, long limit, int count) throws IOException {
+        if (!pattern.contains("%g") || limit <= 0 || count <= 0) {
+            throw new IllegalArgumentException("pattern must contain %g, limit and count must be positive");
+        }
+        this.pattern = pattern;
+        this.limit = limit;
+        this.count = count;
+        setFormatter(new SimpleFormatter());
+        lockUniqueName();
+        try {
+            rotate();
+        } catch (IOException e) {
+            releaseLock();
+            throw e;
+        }
+    }
+
+    /**
+     * Locks the lock file of the first unique number not used by another handler.
+     */
+    private void lockUniqueName() throws IOException {
+        for (unique = 0; unique < MAX_UNIQUE; unique++) {
+            Path lockFile = lockFile();
+            FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock acquired = null;
+            try {
+                acquired = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Held by another handler of this JVM
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            if (acquired != null) {
+                lockChannel = channel;
+                lock = acquired;
+                return;
+            }
+            channel.close();
+        }
+        throw new IOException("All " + MAX_UNIQUE + " unique log file names of " + pattern + " are locked");
+    }
+
+    /**
+     * Closes the current file and releases its lock, so another handler may take the name.
+     */
+    @Override
+    public synchronized void close() {
+        super.close();
+        releaseLock();
+    }
+
+    private void releaseLock() {
+        if (lockChannel == null) {
+            return;
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+            Files.deleteIfExists(lockFile());
+        } catch (IOException e) {
+            reportError("Failed to release the log file lock", e, ErrorManager.CLOSE_FAILURE);
+        }
+        lockChannel = null;
+        lock = null;
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        super.publish(record);
+        if (written >= limit) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                reportError("Failed to rotate log file", e, ErrorManager.OPEN_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the current file, shifts every generation up by one, dropping the
+     * oldest, and starts a new current file. The current file is closed before it is renamed,
+     * which some platforms do not allow on open files.
+     */
+    private void rotate() throws IOException {
+        // Writes the formatter tail and closes the stream; the handler stays usable with the
+        // stream set below
+        super.close();
+        for (int generation = count - 2; generation >= 0; generation--) {
+            Path file = file(generation);
+            if (Files.exists(file)) {
+                Files.move(file, file(generation + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        written = 0;
+        setOutputStream(new CountingStream(new BufferedOutputStream(
+            new FileOutputStream(file(0).toFile()), BUFFER_SIZE)));
+    }
+
+    private Path file(int generation) {
+        String name = pattern.replace("%g", Integer.toString(generation));
+        if (pattern.contains("%u")) {
+            name = name.replace("%u", Integer.toString(unique));
+        } else if (unique > 0) {
+            name += "." + unique;
+        }
+        return Paths.get(name);
+    }
+
+    private Path lockFile() {
+        return Paths.get(file(0) + ".lck");
+    }
+
+    /**
+     * Counts the bytes written to the current file to decide when to rotate.
+     */
+    private final class CountingStream extends FilterOutputStream {
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+}
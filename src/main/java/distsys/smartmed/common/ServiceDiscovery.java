@@ -0,0 +1,20 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.common;
+
+/**
+ * DNS-SD settings shared by the servers announcing themselves and the clients browsing for them.
+ *
+ * @author anukratimehta
+ */
+public final class ServiceDiscovery {
+    /**
+     * The service type every SmartMed server registers under.
+     */
+    public static final String SERVICE_TYPE = "_smartmed._tcp.local.";
+
+    private ServiceDiscovery() {
+    }
+}
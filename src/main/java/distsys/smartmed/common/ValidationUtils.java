@@ -11,9 +11,9 @@ package distsys.smartmed.common;
  * @author anukratimehta
  */
 public class ValidationUtils {
-    // Minimum and maximum allowed values for patient IDs
+    // Minimum and maximum allowed values for patient IDs; the maximum can be raised for large patient stores
     public static final int PATIENT_ID_MIN = 1;
-    public static final int PATIENT_ID_MAX = 100;
+    public static final int PATIENT_ID_MAX = Integer.getInteger("smartmed.patient.maxId", 100);
 
     /**
      * Checks whether the provided patient ID is valid by ensuring it is within the allowed range.
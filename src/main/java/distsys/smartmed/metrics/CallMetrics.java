@@ -0,0 +1,153 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.metrics;
+
+import io.grpc.Status;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one RPC method. All updates are {@link LongAdder}
+ * increments or histogram records, so concurrent calls of the same method do not contend.
+ * Recorded by {@link MetricsServerInterceptor} on the server and by
+ * {@link MetricsClientInterceptor} on the client, where received messages are responses and
+ * sent messages are requests.
+ *
+ * @author anukratimehta
+ */
+public final class CallMetrics {
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    private final String method;
+    private final LongAdder started = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder[] statusCounts = new LongAdder[CODES.length];
+    private final LatencyHistogram durations = new LatencyHistogram();
+    private final LatencyHistogram firstMessage = new LatencyHistogram();
+    private final LatencyHistogram auth = new LatencyHistogram();
+    private final LatencyHistogram handler = new LatencyHistogram();
+    private final LatencyHistogram network = new LatencyHistogram();
+
+    CallMetrics(String method) {
+        this.method = method;
+        for (int i = 0; i < statusCounts.length; i++) {
+            statusCounts[i] = new LongAdder();
+        }
+    }
+
+    void callStarted() {
+        started.increment();
+        inFlight.increment();
+    }
+
+    void messageReceived() {
+        received.increment();
+    }
+
+    void messageSent() {
+        sent.increment();
+    }
+
+    void callClosed(Status.Code code, long durationNanos) {
+        inFlight.decrement();
+        statusCounts[code.ordinal()].increment();
+        durations.record(durationNanos / 1000);
+    }
+
+    void firstMessage(long delayNanos) {
+        firstMessage.record(delayNanos / 1000);
+    }
+
+    void timing(long authMicros, long handlerMicros) {
+        auth.record(authMicros);
+        handler.record(handlerMicros);
+    }
+
+    void network(long micros) {
+        network.record(micros);
+    }
+
+    /**
+     * @return the full method name
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the number of calls started
+     */
+    public long getStarted() {
+        return started.sum();
+    }
+
+    /**
+     * @return the number of calls started but not yet closed
+     */
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * @return the number of request messages received
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * @return the number of response messages sent
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @param code a status code
+     * @return the number of calls closed with the code
+     */
+    public long getStatusCount(Status.Code code) {
+        return statusCounts[code.ordinal()].sum();
+    }
+
+    /**
+     * @return the durations of the closed calls, in microseconds
+     */
+    public LatencyHistogram getDurations() {
+        return durations;
+    }
+
+    /**
+     * @return the delays from the start of a call to its first response message, in
+     *         microseconds; recorded by the client
+     */
+    public LatencyHistogram getFirstMessage() {
+        return firstMessage;
+    }
+
+    /**
+     * @return the times from the start of a call until it passed authentication, in
+     *         microseconds; the whole call for rejected ones
+     */
+    public LatencyHistogram getAuth() {
+        return auth;
+    }
+
+    /**
+     * @return the times from the handler receiving a call until it was closed, in microseconds
+     */
+    public LatencyHistogram getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return the client-side durations minus the server-side durations, in microseconds;
+     *         recorded by the client for calls the server reported its timing for
+     */
+    public LatencyHistogram getNetwork() {
+        return network;
+    }
+}
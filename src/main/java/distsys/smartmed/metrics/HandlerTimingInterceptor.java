@@ -0,0 +1,40 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.metrics;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Marks the moment a call passed the other interceptors and reaches its service, splitting
+ * the duration recorded by {@link MetricsServerInterceptor} into auth and handler time.
+ * Register it first, so it runs last, right before the service.
+ *
+ * @author anukratimehta
+ */
+public class HandlerTimingInterceptor implements ServerInterceptor {
+
+    /**
+     * Records the handler start of the call and passes it on.
+     *
+     * @param <ReqT> the type of the request
+     * @param <RespT> the type of the response
+     * @param call the server call to be processed
+     * @param headers the metadata containing the headers of the request
+     * @param next the handler to call
+     * @return a listener for the server call
+     */
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call,
+        Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+
+        MetricsServerInterceptor.markHandlerStart();
+        return next.startCall(call, headers);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.metrics;
+
+import distsys.smartmed.common.LoggingUtils;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.logging.Logger;
+
+/**
+ * Client-side counterpart of {@link MetricsServerInterceptor}, added to a channel next to
+ * {@link distsys.smartmed.security.JwtClientInterceptor}. It records per-method call counts,
+ * responses received, requests sent, status codes, call latencies and the delay to the first
+ * response in a {@link MetricsRegistry}, and sends every call with a trace id. From the timing
+ * trailer the server answers with it also records the server's auth and handler time and the
+ * rest of the latency as network time.
+ * <p>
+ * A caller can choose the trace id of a call with {@link #TRACE_ID}, for instance to find it in
+ * the server log; otherwise a random one is used.
+ *
+ * @author anukratimehta
+ */
+public class MetricsClientInterceptor implements ClientInterceptor {
+    private static final Logger logger = Logger.getLogger(MetricsClientInterceptor.class.getName());
+
+    /** Call option setting the trace id of a call. */
+    public static final CallOptions.Key<String> TRACE_ID = CallOptions.Key.create("smartmed-trace-id");
+
+    private final MetricsRegistry registry;
+
+    /**
+     * @param registry the registry the metrics are recorded in
+     */
+    public MetricsClientInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return the registry the metrics are recorded in
+     */
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Wraps the call to add the trace id and observe its messages and its end.
+     *
+     * @param <ReqT> the type of the request
+     * @param <RespT> the type of the response
+     * @param method the method descriptor of the call
+     * @param callOptions the options of the call
+     * @param next the channel to create the call on
+     * @return the metered call
+     */
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method,
+        CallOptions callOptions,
+        Channel next) {
+
+        String traceId = callOptions.getOption(TRACE_ID);
+        return new MeteredClientCall<>(
+            next.newCall(method, callOptions),
+            registry.forMethod(method.getFullMethodName()),
+            traceId != null ? traceId : TraceHeaders.newTraceId());
+    }
+
+    /**
+     * Client call counting its sent messages and recording its latencies when it closes.
+     * gRPC calls the listener of a call serially, so its state needs no synchronization.
+     */
+    private static final class MeteredClientCall<ReqT, RespT>
+        extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+
+        private final CallMetrics metrics;
+        private final String traceId;
+        private long startNanos;
+        private boolean firstMessageSeen = false;
+
+        MeteredClientCall(ClientCall<ReqT, RespT> call, CallMetrics metrics, String traceId) {
+            super(call);
+            this.metrics = metrics;
+            this.traceId = traceId;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            headers.put(TraceHeaders.TRACE_ID, traceId);
+            startNanos = System.nanoTime();
+            metrics.callStarted();
+            try {
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                    @Override
+                    public void onMessage(RespT message) {
+                        if (!firstMessageSeen) {
+                            firstMessageSeen = true;
+                            metrics.firstMessage(System.nanoTime() - startNanos);
+                        }
+                        metrics.messageReceived();
+                        super.onMessage(message);
+                    }
+
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        finish(status.getCode(), trailers);
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            } catch (RuntimeException e) {
+                metrics.callClosed(Status.Code.UNKNOWN, System.nanoTime() - startNanos);
+                throw e;
+            }
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            metrics.messageSent();
+            super.sendMessage(message);
+        }
+
+        private void finish(Status.Code code, Metadata trailers) {
+            long durationNanos = System.nanoTime() - startNanos;
+            metrics.callClosed(code, durationNanos);
+            long[] server = TraceHeaders.parseTiming(trailers.get(TraceHeaders.TIMING));
+            if (server != null) {
+                long network = Math.max(0, durationNanos / 1000 - server[0]);
+                metrics.timing(server[1], server[2]);
+                metrics.network(network);
+                LoggingUtils.logFine(logger, "[trace %s] %s %s total=%dus network=%dus auth=%dus handler=%dus",
+                    traceId, metrics.getMethod(), code, durationNanos / 1000, network, server[1], server[2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.metrics;
+
+import com.healthcare.grpc.metrics.MethodMetrics;
+import com.healthcare.grpc.metrics.MetricsReport;
+import com.healthcare.grpc.metrics.Percentiles;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link CallMetrics} of every RPC method seen by a {@link MetricsServerInterceptor}
+ * or a {@link MetricsClientInterceptor} and renders them as a {@link MetricsReport}. The text
+ * rendering also shows call and message rates averaged over the uptime.
+ *
+ * @author anukratimehta
+ */
+public class MetricsRegistry {
+    private final ConcurrentHashMap<String, CallMetrics> methods = new ConcurrentHashMap<>();
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * @param method the full method name
+     * @return the metrics of the method, created on first use
+     */
+    public CallMetrics forMethod(String method) {
+        CallMetrics metrics = methods.get(method);
+        return metrics != null ? metrics : methods.computeIfAbsent(method, CallMetrics::new);
+    }
+
+    /**
+     * @return the calls of every method that have started and not finished yet
+     */
+    public long getInFlight() {
+        long total = 0;
+        for (CallMetrics metrics : methods.values()) {
+            total += metrics.getInFlight();
+        }
+        return total;
+    }
+
+    /**
+     * @param selected the full names of the methods to count
+     * @return the calls of the selected methods that have started and not finished yet
+     */
+    public long getInFlight(Set<String> selected) {
+        long total = 0;
+        for (CallMetrics metrics : methods.values()) {
+            if (selected.contains(metrics.getMethod())) {
+                total += metrics.getInFlight();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Builds a report of the methods whose name contains the filter, sorted by name, with a
+     * plain-text rendering of the same data.
+     *
+     * @param filter text the method names must contain, empty for all methods
+     * @return the report
+     */
+    public MetricsReport report(String filter) {
+        List<CallMetrics> selected = new ArrayList<>();
+        for (CallMetrics metrics : methods.values()) {
+            if (metrics.getMethod().contains(filter)) {
+                selected.add(metrics);
+            }
+        }
+        selected.sort(Comparator.comparing(CallMetrics::getMethod));
+
+        long uptime = System.currentTimeMillis() - startMillis;
+        MetricsReport.Builder report = MetricsReport.newBuilder().setUptimeMillis(uptime);
+        StringBuilder text = new StringBuilder("uptime_millis=").append(uptime).append('\n');
+        for (CallMetrics metrics : selected) {
+            MethodMetrics method = toMessage(metrics);
+            report.addMethods(method);
+            appendText(text, method, uptime);
+        }
+        return report.setText(text.toString()).build();
+    }
+
+    private static MethodMetrics toMessage(CallMetrics metrics) {
+        LatencyHistogram.Snapshot durations = metrics.getDurations().snapshot();
+        MethodMetrics.Builder method = MethodMetrics.newBuilder()
+            .setMethod(metrics.getMethod())
+            .setCallsStarted(metrics.getStarted())
+            .setCallsInFlight(metrics.getInFlight())
+            .setMessagesReceived(metrics.getReceived())
+            .setMessagesSent(metrics.getSent())
+            .setDurationMeanMicros(durations.getMean())
+            .setDurationP50Micros(durations.getPercentile(0.5))
+            .setDurationP90Micros(durations.getPercentile(0.9))
+            .setDurationP99Micros(durations.getPercentile(0.99))
+            .setDurationP999Micros(durations.getPercentile(0.999))
+            .setDurationMaxMicros(durations.getMax());
+        LatencyHistogram.Snapshot firstMessage = metrics.getFirstMessage().snapshot();
+        if (firstMessage.getCount() > 0) {
+            method.setFirstMessage(toPercentiles(firstMessage));
+        }
+        LatencyHistogram.Snapshot auth = metrics.getAuth().snapshot();
+        if (auth.getCount() > 0) {
+            method.setAuth(toPercentiles(auth));
+            method.setHandler(toPercentiles(metrics.getHandler().snapshot()));
+        }
+        LatencyHistogram.Snapshot network = metrics.getNetwork().snapshot();
+        if (network.getCount() > 0) {
+            method.setNetwork(toPercentiles(network));
+        }
+        for (Status.Code code : Status.Code.values()) {
+            long count = metrics.getStatusCount(code);
+            if (count > 0) {
+                method.putStatusCounts(code.name(), count);
+            }
+        }
+        return method.build();
+    }
+
+    private static Percentiles toPercentiles(LatencyHistogram.Snapshot snapshot) {
+        return Percentiles.newBuilder()
+            .setCount(snapshot.getCount())
+            .setMeanMicros(snapshot.getMean())
+            .setP50Micros(snapshot.getPercentile(0.5))
+            .setP90Micros(snapshot.getPercentile(0.9))
+            .setP99Micros(snapshot.getPercentile(0.99))
+            .setP999Micros(snapshot.getPercentile(0.999))
+            .setMaxMicros(snapshot.getMax())
+            .build();
+    }
+
+    private static void appendText(StringBuilder text, MethodMetrics method, long uptimeMillis) {
+        double seconds = Math.max(uptimeMillis, 1) / 1000.0;
+        text.append(method.getMethod())
+            .append(" started=").append(method.getCallsStarted())
+            .append(" in_flight=").append(method.getCallsInFlight())
+            .append(" received=").append(method.getMessagesReceived())
+            .append(" sent=").append(method.getMessagesSent())
+            .append(" status=").append(method.getStatusCountsMap())
+            .append(String.format(Locale.ROOT, " duration_us{mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d}",
+                method.getDurationMeanMicros(), method.getDurationP50Micros(), method.getDurationP90Micros(),
+                method.getDurationP99Micros(), method.getDurationP999Micros(), method.getDurationMaxMicros()))
+            .append(String.format(Locale.ROOT, " rate_per_s{calls=%.2f received=%.2f sent=%.2f}",
+                method.getCallsStarted() / seconds, method.getMessagesReceived() / seconds,
+                method.getMessagesSent() / seconds));
+        appendPercentiles(text, "first_message_us", method.hasFirstMessage(), method.getFirstMessage());
+        appendPercentiles(text, "auth_us", method.hasAuth(), method.getAuth());
+        appendPercentiles(text, "handler_us", method.hasHandler(), method.getHandler());
+        appendPercentiles(text, "network_us", method.hasNetwork(), method.getNetwork());
+        text.append('\n');
+    }
+
+    private static void appendPercentiles(StringBuilder text, String name, boolean present, Percentiles p) {
+        if (present) {
+            text.append(String.format(Locale.ROOT, " %s{mean=%.1f p50=%d p99=%d max=%d}",
+                name, p.getMeanMicros(), p.getP50Micros(), p.getP99Micros(), p.getMaxMicros()));
+        }
+    }
+}
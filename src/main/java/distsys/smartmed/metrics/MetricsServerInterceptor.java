@@ -0,0 +1,168 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.metrics;
+
+import distsys.smartmed.common.LoggingUtils;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Logger;
+
+/**
+ * gRPC interceptor recording per-method call counts, in-flight calls, messages in both
+ * directions, final status codes and call durations in a {@link MetricsRegistry}.
+ * Register it after {@link distsys.smartmed.security.JwtServerInterceptor} so it runs first
+ * and also counts the calls rejected by authentication. A call is closed once, either by the
+ * server closing it or by the client cancelling it.
+ * <p>
+ * Calls are split into auth time, until the call reaches the {@link HandlerTimingInterceptor}
+ * registered before the authentication interceptor, and handler time, from there to the
+ * close. Calls carrying a {@link TraceHeaders#TRACE_ID} are logged with their trace id and
+ * answered with a {@link TraceHeaders#TIMING} trailer.
+ *
+ * @author anukratimehta
+ */
+public class MetricsServerInterceptor implements ServerInterceptor {
+    private static final Logger logger = Logger.getLogger(MetricsServerInterceptor.class.getName());
+    private static final Context.Key<MeteredCall<?, ?>> CALL = Context.key("smartmed-metered-call");
+
+    private final MetricsRegistry registry;
+
+    /**
+     * @param registry the registry the metrics are recorded in
+     */
+    public MetricsServerInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return the registry the metrics are recorded in
+     */
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Wraps the call and its listener to observe its messages and its end.
+     *
+     * @param <ReqT> the type of the request
+     * @param <RespT> the type of the response
+     * @param call the server call to be processed
+     * @param headers the metadata containing the headers of the request
+     * @param next the handler to call
+     * @return a listener for the server call
+     */
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call,
+        Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+
+        CallMetrics metrics = registry.forMethod(call.getMethodDescriptor().getFullMethodName());
+        MeteredCall<ReqT, RespT> metered = new MeteredCall<>(call, metrics, headers.get(TraceHeaders.TRACE_ID));
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = Contexts.interceptCall(Context.current().withValue(CALL, metered), metered, headers, next);
+        } catch (RuntimeException e) {
+            metered.finish(Status.Code.UNKNOWN);
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onMessage(ReqT message) {
+                metrics.messageReceived();
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                metered.finish(Status.Code.CANCELLED);
+                super.onCancel();
+            }
+        };
+    }
+
+    /**
+     * Marks the call of the current context as having reached its handler.
+     */
+    static void markHandlerStart() {
+        MeteredCall<?, ?> call = CALL.get();
+        if (call != null) {
+            call.handlerStartNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Server call counting its sent messages and recording its end exactly once.
+     */
+    private static final class MeteredCall<ReqT, RespT>
+        extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<MeteredCall> FINISHED =
+            AtomicIntegerFieldUpdater.newUpdater(MeteredCall.class, "finished");
+
+        private final CallMetrics metrics;
+        private final String traceId;
+        private final long startNanos = System.nanoTime();
+        private volatile long handlerStartNanos = 0;
+        private volatile int finished = 0;
+
+        MeteredCall(ServerCall<ReqT, RespT> call, CallMetrics metrics, String traceId) {
+            super(call);
+            this.metrics = metrics;
+            this.traceId = traceId;
+            metrics.callStarted();
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            metrics.messageSent();
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            long[] timing = finish(status.getCode());
+            if (timing != null && traceId != null) {
+                trailers.put(TraceHeaders.TIMING, TraceHeaders.formatTiming(timing[0], timing[1], timing[2]));
+            }
+            super.close(status, trailers);
+        }
+
+        /**
+         * @return the total, auth and handler microseconds, or null if the call was already
+         *         finished
+         */
+        long[] finish(Status.Code code) {
+            if (!FINISHED.compareAndSet(this, 0, 1)) {
+                return null;
+            }
+            long endNanos = System.nanoTime();
+            long handlerStart = handlerStartNanos;
+            metrics.callClosed(code, endNanos - startNanos);
+            long total = (endNanos - startNanos) / 1000;
+            long auth = total;  // Calls rejected before the handler spent all their time in auth
+            long handler = 0;
+            if (handlerStart != 0) {
+                auth = (handlerStart - startNanos) / 1000;
+                handler = total - auth;
+            }
+            metrics.timing(auth, handler);
+            if (traceId != null) {
+                LoggingUtils.logFine(logger, "[trace %s] %s %s total=%dus auth=%dus handler=%dus",
+                    traceId, getMethodDescriptor().getFullMethodName(), code, total, auth, handler);
+            }
+            return new long[] {total, auth, handler};
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.metrics;
+
+import io.grpc.Metadata;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Metadata shared by {@link MetricsClientInterceptor} and {@link MetricsServerInterceptor}.
+ * The client sends a trace id with every call; when the server sees one it logs it with the
+ * call and answers with a timing trailer of the form {@code t=<total>,a=<auth>,h=<handler>},
+ * all in microseconds, from which the client derives the network time.
+ *
+ * @author anukratimehta
+ */
+public final class TraceHeaders {
+
+    /** Request header carrying the 16 hex digit trace id of the call. */
+    public static final Metadata.Key<String> TRACE_ID =
+        Metadata.Key.of("x-smartmed-trace", Metadata.ASCII_STRING_MARSHALLER);
+
+    /** Response trailer carrying the server-side timing of a traced call. */
+    public static final Metadata.Key<String> TIMING =
+        Metadata.Key.of("x-smartmed-timing", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private TraceHeaders() {
+    }
+
+    /**
+     * @return a new random trace id of 16 hex digits
+     */
+    public static String newTraceId() {
+        long id = ThreadLocalRandom.current().nextLong();
+        char[] digits = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            digits[i] = HEX[(int) id & 0xF];
+            id >>>= 4;
+        }
+        return new String(digits);
+    }
+
+    static String formatTiming(long totalMicros, long authMicros, long handlerMicros) {
+        return "t=" + totalMicros + ",a=" + authMicros + ",h=" + handlerMicros;
+    }
+
+    /**
+     * Parses a timing trailer.
+     *
+     * @param timing the trailer value, may be null
+     * @return the total, auth and handler microseconds, or null if the value is missing or
+     *         malformed
+     */
+    static long[] parseTiming(String timing) {
+        if (timing == null) {
+            return null;
+        }
+        long[] values = new long[3];
+        int found = 0;
+        for (String part : timing.split(",")) {
+            int eq = part.indexOf('=');
+            if (eq != 1) {
+                continue;
+            }
+            int slot = "tah".indexOf(part.charAt(0));
+            if (slot < 0) {
+                continue;
+            }
+            try {
+                values[slot] = Long.parseLong(part.substring(2));
+                found |= 1 << slot;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return found == 7 ? values : null;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.security;
+
+import distsys.smartmed.common.ThreadUtils;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Audit trail of the calls checked by {@link JwtServerInterceptor}.
+ * Every call is counted per method and principal in {@link LongAdder}s, so the hot path is a
+ * map lookup and an uncontended increment. Detail lines are written for at most a configured
+ * number of calls per second, which at normal load still covers every call; a periodic summary
+ * then logs the exact per-method, per-principal counts of granted and denied calls since the
+ * previous summary, so no access goes unaccounted even when its detail line was skipped.
+ * Principals idle for a whole summary period are dropped from the counters, so many one-off
+ * principals do not make every later summary slower.
+ *
+ * @author anukratimehta
+ */
+public class AccessLog {
+    private static final Logger logger = Logger.getLogger(AccessLog.class.getName());
+
+    public static final int DEFAULT_DETAIL_PER_SECOND = 5;
+    public static final long DEFAULT_SUMMARY_SECONDS = 60;
+
+    private final int detailPerSecond;
+    private final ScheduledExecutorService summarizer;
+    // Method -> principal -> counters
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Counters>> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger detailsThisSecond = new AtomicInteger();
+    private volatile long detailSecond;
+
+    /**
+     * Granted and denied calls of one method by one principal. The adders only grow; the
+     * totals at the last summary are kept so summaries never lose concurrent increments.
+     */
+    private static final class Counters {
+        final LongAdder granted = new LongAdder();
+        final LongAdder denied = new LongAdder();
+        long reportedGranted = 0;  // Guarded by the AccessLog
+        long reportedDenied = 0;
+    }
+
+    /**
+     * Creates an access log and schedules its summary.
+     *
+     * @param detailPerSecond the maximum number of detail lines per second, 0 for none
+     * @param summarySeconds the time between two summaries
+     */
+    public AccessLog(int detailPerSecond, long summarySeconds) {
+        if (detailPerSecond < 0 || summarySeconds <= 0) {
+            throw new IllegalArgumentException("detailPerSecond must not be negative and summarySeconds must be positive");
+        }
+        this.detailPerSecond = detailPerSecond;
+        this.summarizer = Executors.newSingleThreadScheduledExecutor(ThreadUtils.daemonThreadFactory("access-log"));
+        summarizer.scheduleAtFixedRate(this::summarize, summarySeconds, summarySeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates the access log configured through system properties:
+     * {@code smartmed.access.detailPerSecond} (default 5) and
+     * {@code smartmed.access.summarySeconds} (default 60).
+     *
+     * @return the access log
+     */
+    public static AccessLog fromSystemProperties() {
+        return new AccessLog(
+            Integer.getInteger("smartmed.access.detailPerSecond", DEFAULT_DETAIL_PER_SECOND),
+            Long.getLong("smartmed.access.summarySeconds", DEFAULT_SUMMARY_SECONDS));
+    }
+
+    /**
+     * Records an authenticated call.
+     *
+     * @param method the full method name
+     * @param principal the authenticated user
+     */
+    public void granted(String method, String principal) {
+        countersOf(method, principal).granted.increment();
+        if (takeDetailPermit() && logger.isLoggable(Level.INFO)) {
+            logger.log(Level.INFO, "Authenticated access to {0} by {1}", new Object[] {method, principal});
+        }
+    }
+
+    /**
+     * Records a rejected call.
+     *
+     * @param method the full method name
+     * @param principal the claimed user, or "anonymous" if unknown
+     * @param reason why the call was rejected
+     */
+    public void denied(String method, String principal, String reason) {
+        countersOf(method, principal).denied.increment();
+        if (takeDetailPermit() && logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, "Denied access to {0} by {1}: {2}", new Object[] {method, principal, reason});
+        }
+    }
+
+    /**
+     * @return the total number of calls, granted and denied, not yet reported in a summary
+     */
+    public synchronized long getPendingCount() {
+        long total = 0;
+        for (Map<String, Counters> byPrincipal : counters.values()) {
+            for (Counters counter : byPrincipal.values()) {
+                total += counter.granted.sum() - counter.reportedGranted + counter.denied.sum() - counter.reportedDenied;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Stops the periodic summary and writes a final one.
+     */
+    public void shutdown() {
+        summarizer.shutdown();
+        summarize();
+    }
+
+    private Counters countersOf(String method, String principal) {
+        ConcurrentHashMap<String, Counters> byPrincipal = counters.get(method);
+        if (byPrincipal == null) {
+            byPrincipal = counters.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        }
+        Counters counter = byPrincipal.get(principal);
+        return counter != null ? counter : byPrincipal.computeIfAbsent(principal, p -> new Counters());
+    }
+
+    /**
+     * Grants a detail line if fewer than the limit were written in the current second.
+     * Racing threads may reset the window twice, letting a few extra lines through.
+     */
+    private boolean takeDetailPermit() {
+        if (detailPerSecond == 0) {
+            return false;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        if (second != detailSecond) {
+            detailSecond = second;
+            detailsThisSecond.set(0);
+        }
+        // Once the budget is spent, only read the shared counter so its cache line stays shared
+        return detailsThisSecond.get() < detailPerSecond && detailsThisSecond.incrementAndGet() <= detailPerSecond;
+    }
+
+    /**
+     * Logs the counts of every method and principal called since the last summary, if INFO is
+     * enabled. Principals without calls since the last summary are dropped from the counters,
+     * so the map only holds recently active principals. Calls counted while the summary runs
+     * are reported in the next one.
+     */
+    private synchronized void summarize() {
+        boolean loggable = logger.isLoggable(Level.INFO);
+        StringBuilder summary = loggable ? new StringBuilder() : null;
+        for (Map.Entry<String, ConcurrentHashMap<String, Counters>> method : counters.entrySet()) {
+            ConcurrentHashMap<String, Counters> byPrincipal = method.getValue();
+            for (Map.Entry<String, Counters> principal : byPrincipal.entrySet()) {
+                Counters counter = principal.getValue();
+                long grantedTotal = counter.granted.sum();
+                long deniedTotal = counter.denied.sum();
+                long granted = grantedTotal - counter.reportedGranted;
+                long denied = deniedTotal - counter.reportedDenied;
+                if (granted + denied == 0) {
+                    retire(byPrincipal, principal.getKey(), counter);
+                    continue;
+                }
+                counter.reportedGranted = grantedTotal;
+                counter.reportedDenied = deniedTotal;
+                if (loggable) {
+                    summary.append("\n  ").append(method.getKey()).append(" by ").append(principal.getKey())
+                        .append(": ").append(granted).append(" granted, ").append(denied).append(" denied");
+                }
+            }
+        }
+        if (loggable && summary.length() > 0) {
+            logger.info("Access counts since the last summary:" + summary);
+        }
+    }
+
+    /**
+     * Removes an idle principal's counters. A call that looked the counters up just before
+     * the removal may still increment them; such late counts are moved to fresh counters.
+     */
+    private void retire(ConcurrentHashMap<String, Counters> byPrincipal, String principal, Counters counter) {
+        if (!byPrincipal.remove(principal, counter)) {
+            return;
+        }
+        long lateGranted = counter.granted.sum() - counter.reportedGranted;
+        long lateDenied = counter.denied.sum() - counter.reportedDenied;
+        if (lateGranted + lateDenied > 0) {
+            Counters fresh = byPrincipal.computeIfAbsent(principal, p -> new Counters());
+            fresh.granted.add(lateGranted);
+            fresh.denied.add(lateDenied);
+        }
+    }
+}
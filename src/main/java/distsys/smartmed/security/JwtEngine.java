@@ -0,0 +1,233 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.security;
+
+import io.jsonwebtoken.*;
+import io.jsonwebtoken.io.Serializer;
+import java.security.Key;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.SecretKey;
+
+/**
+ * Thread-safe engine for signing and verifying JWT tokens.
+ * The parser and JSON serializer are built once and shared by all threads. Several signing
+ * keys can be registered under a key id ("kid") so keys can be rotated: new tokens are signed
+ * with the active key, while tokens signed with any registered key remain valid until that key
+ * is removed. Tokens without a key id are checked against the key the engine was created with.
+ * Components caching verified tokens are told about removed keys through removal listeners.
+ *
+ * @author anukratimehta
+ */
+public class JwtEngine {
+    private static final Logger logger = Logger.getLogger(JwtEngine.class.getName());
+
+    private final long expirationMillis;
+    private final JwtParser parser;
+    private final Serializer<Map<String, ?>> serializer;
+
+    // Copy-on-write key ring, read without locking on every parse
+    private volatile Map<String, SecretKey> keys;
+    private volatile String activeKeyId;
+    private final String legacyKeyId;
+    private final CopyOnWriteArrayList<Consumer<String>> removalListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates an engine with a single signing key.
+     *
+     * @param keyId the id written to the "kid" header of tokens signed with this key, also used
+     *              for tokens without a "kid" header
+     * @param key the HMAC signing key
+     * @param expirationMillis how long generated tokens stay valid, in milliseconds
+     */
+    public JwtEngine(String keyId, SecretKey key, long expirationMillis) {
+        this.expirationMillis = expirationMillis;
+        this.keys = Collections.singletonMap(keyId, key);
+        this.activeKeyId = keyId;
+        this.legacyKeyId = keyId;
+        this.serializer = loadSerializer();
+        this.parser = Jwts.parserBuilder()
+            .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                @Override
+                @SuppressWarnings("rawtypes")  // Overrides the raw signature of jjwt 0.11
+                public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                    return resolveKey(header.getKeyId());
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Looks up the JSON serializer once so token generation does not repeat the service lookup.
+     *
+     * @return the first registered serializer, or null to let jjwt find one itself
+     */
+    @SuppressWarnings("unchecked")
+    private static Serializer<Map<String, ?>> loadSerializer() {
+        for (Object serializer : ServiceLoader.load(Serializer.class)) {
+            return (Serializer<Map<String, ?>>) serializer;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the key that signed a token. Tokens without a key id were issued before key
+     * rotation was introduced and are checked against the key the engine was created with,
+     * whichever key is active now.
+     *
+     * @param keyId the "kid" header of the token, may be null
+     * @return the matching signing key
+     * @throws UnsupportedJwtException if no key is registered under the id
+     */
+    private Key resolveKey(String keyId) {
+        SecretKey key = keys.get(effectiveKeyId(keyId));
+        if (key == null) {
+            throw new UnsupportedJwtException("Unknown signing key id: " + keyId);
+        }
+        return key;
+    }
+
+    /**
+     * @param keyId the "kid" header of a token, may be null
+     * @return the id of the key the token is checked against
+     */
+    private String effectiveKeyId(String keyId) {
+        return keyId != null ? keyId : legacyKeyId;
+    }
+
+    /**
+     * Registers an additional signing key. Tokens carrying this key id are accepted from now on.
+     *
+     * @param keyId the key id
+     * @param key the HMAC signing key
+     */
+    public synchronized void addKey(String keyId, SecretKey key) {
+        Map<String, SecretKey> updated = new HashMap<>(keys);
+        updated.put(keyId, key);
+        keys = Collections.unmodifiableMap(updated);
+    }
+
+    /**
+     * Makes a registered key the one used to sign new tokens.
+     *
+     * @param keyId the id of a registered key
+     * @throws IllegalArgumentException if no key is registered under the id
+     */
+    public synchronized void activateKey(String keyId) {
+        if (!keys.containsKey(keyId)) {
+            throw new IllegalArgumentException("Unknown signing key id: " + keyId);
+        }
+        activeKeyId = keyId;
+    }
+
+    /**
+     * Removes a signing key. Tokens signed with it are rejected from now on, and the removal
+     * listeners are called so cached verifications of such tokens are dropped too.
+     *
+     * @param keyId the id of the key to retire
+     * @throws IllegalArgumentException if the key is the active signing key
+     */
+    public synchronized void removeKey(String keyId) {
+        if (keyId.equals(activeKeyId)) {
+            throw new IllegalArgumentException("Cannot remove the active signing key: " + keyId);
+        }
+        Map<String, SecretKey> updated = new HashMap<>(keys);
+        updated.remove(keyId);
+        keys = Collections.unmodifiableMap(updated);
+        for (Consumer<String> listener : removalListeners) {
+            listener.accept(keyId);
+        }
+    }
+
+    /**
+     * @param keyId a key id as returned by {@link JwtResult#getKeyId()}
+     * @return true if a key is registered under the id
+     */
+    public boolean hasKey(String keyId) {
+        return keys.containsKey(keyId);
+    }
+
+    /**
+     * Registers a callback receiving the id of every key removed from now on.
+     *
+     * @param listener the callback
+     */
+    public void addRemovalListener(Consumer<String> listener) {
+        removalListeners.add(listener);
+    }
+
+    /**
+     * @param listener a callback registered with {@link #addRemovalListener}
+     */
+    public void removeRemovalListener(Consumer<String> listener) {
+        removalListeners.remove(listener);
+    }
+
+    /**
+     * @return the id of the key used to sign new tokens
+     */
+    public String getActiveKeyId() {
+        return activeKeyId;
+    }
+
+    /**
+     * Generates a token for the given subject, signed with the active key.
+     *
+     * @param subject the subject (username) of the token
+     * @return the compact JWT token string
+     */
+    public String generate(String subject) {
+        String keyId = activeKeyId;
+        long now = System.currentTimeMillis();
+        JwtBuilder builder = Jwts.builder()
+            .setHeaderParam(JwsHeader.KEY_ID, keyId)
+            .setSubject(subject)
+            .setIssuedAt(new Date(now))
+            .setExpiration(new Date(now + expirationMillis))
+            .signWith(keys.get(keyId));
+        if (serializer != null) {
+            builder.serializeToJsonWith(serializer);
+        }
+        return builder.compact();
+    }
+
+    /**
+     * Verifies a token's signature and expiration with the shared parser.
+     * Rejections are counted and only logged at FINE level, so invalid tokens never
+     * touch stderr on the request path.
+     *
+     * @param token the compact JWT token string
+     * @return the verification result carrying the claims and key id of a valid token
+     */
+    public JwtResult parse(String token) {
+        try {
+            Jws<Claims> jws = parser.parseClaimsJws(token);
+            return JwtResult.valid(jws.getBody(), effectiveKeyId(jws.getHeader().getKeyId()));
+        } catch (JwtException | IllegalArgumentException e) {
+            rejected.increment();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Rejected token: {0}", e.getMessage());
+            }
+            return JwtResult.invalid(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of tokens rejected since the engine was created
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.security;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Outcome of verifying a JWT token.
+ * Carries the claims and signing key id of a valid token, or the reason a token was rejected,
+ * so callers get both from a single parse.
+ *
+ * @author anukratimehta
+ */
+public final class JwtResult {
+    private final Claims claims;
+    private final String keyId;
+    private final String failure;
+
+    private JwtResult(Claims claims, String keyId, String failure) {
+        this.claims = claims;
+        this.keyId = keyId;
+        this.failure = failure;
+    }
+
+    /**
+     * Creates the result for a token that passed signature and expiration checks.
+     *
+     * @param claims the verified claims
+     * @param keyId the id of the key that verified the signature
+     * @return a valid result
+     */
+    static JwtResult valid(Claims claims, String keyId) {
+        return new JwtResult(claims, keyId, null);
+    }
+
+    /**
+     * Creates the result for a rejected token.
+     *
+     * @param failure a short description of why the token was rejected
+     * @return an invalid result
+     */
+    static JwtResult invalid(String failure) {
+        return new JwtResult(null, null, failure);
+    }
+
+    /**
+     * @return true if the token's signature and expiration are valid
+     */
+    public boolean isValid() {
+        return claims != null;
+    }
+
+    /**
+     * @return the verified claims, or null if the token is invalid
+     */
+    public Claims getClaims() {
+        return claims;
+    }
+
+    /**
+     * @return the id of the key that verified a valid token, or null if the token is invalid
+     */
+    public String getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * @return the subject of a valid token, or null if the token is invalid
+     */
+    public String getSubject() {
+        return claims != null ? claims.getSubject() : null;
+    }
+
+    /**
+     * @return why the token was rejected, or null if it is valid
+     */
+    public String getFailure() {
+        return failure;
+    }
+}
@@ -5,20 +5,71 @@
 package distsys.smartmed.security;
 
 import io.grpc.*;
-import java.util.logging.Logger;
+import io.jsonwebtoken.Claims;
+import java.util.function.Consumer;
 
 /**
  * gRPC interceptor for authenticating requests using JWT tokens.
  * This interceptor checks for a valid "authorization" header and verifies the token's validity
  * before allowing access to any service endpoints, except for the login endpoint.
+ * Verified tokens are kept in a {@link TokenCache} so repeat calls skip the signature check;
+ * the tokens of a signing key removed from the {@link JwtEngine} are dropped from the cache.
+ * Granted and denied calls are recorded in an {@link AccessLog} rather than logged one by one.
  * 
  * @author anukratimehta
  */
 public class JwtServerInterceptor implements ServerInterceptor {
-    private static final Logger logger = Logger.getLogger(JwtServerInterceptor.class.getName());
     private static final Metadata.Key<String> AUTH_HEADER = 
         Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
 
+    private final TokenCache tokenCache;
+    private final AccessLog accessLog;
+    private final JwtEngine engine = JwtUtil.getEngine();
+    private final Consumer<String> keyRemoval;
+
+    /**
+     * Creates an interceptor with a token cache of the default size and an access log
+     * configured through system properties.
+     */
+    public JwtServerInterceptor() {
+        this(new TokenCache(), AccessLog.fromSystemProperties());
+    }
+
+    /**
+     * Creates an interceptor that uses the given cache for verified tokens.
+     * 
+     * @param tokenCache the cache of verified tokens
+     * @param accessLog the log the checked calls are recorded in
+     */
+    public JwtServerInterceptor(TokenCache tokenCache, AccessLog accessLog) {
+        this.tokenCache = tokenCache;
+        this.accessLog = accessLog;
+        this.keyRemoval = tokenCache::evictKey;
+        engine.addRemovalListener(keyRemoval);
+    }
+
+    /**
+     * @return the cache of verified tokens, exposing its hit and miss counters
+     */
+    public TokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    /**
+     * @return the log the checked calls are recorded in
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Writes the final access summary, stops the periodic one and stops following key removals.
+     */
+    public void shutdown() {
+        engine.removeRemovalListener(keyRemoval);
+        accessLog.shutdown();
+    }
+
     /**
      * Intercepts the incoming gRPC call to check for authentication using JWT.
      * If the token is missing or invalid, the request is rejected with an UNAUTHENTICATED status.
@@ -46,7 +97,7 @@ public class JwtServerInterceptor implements ServerInterceptor {
         // Extract the token from the headers
         String token = headers.get(AUTH_HEADER);
         if (token == null) {
-            logger.warning("Unauthenticated attempt to access: " + method);
+            accessLog.denied(method, "anonymous", "Missing token");
             call.close(Status.UNAUTHENTICATED.withDescription("Missing token"), headers);
             return new ServerCall.Listener<ReqT>() {};
         }
@@ -56,16 +107,26 @@ public class JwtServerInterceptor implements ServerInterceptor {
             token = token.substring(7);
         }
 
-        // Validate the token
-        if (!JwtUtil.validateToken(token)) {
-            logger.warning("Invalid token for: " + method);
-            call.close(Status.UNAUTHENTICATED.withDescription("Invalid token"), headers);
-            return new ServerCall.Listener<ReqT>() {};
+        // Validate the token, verifying the signature only for tokens not seen before
+        Claims claims = tokenCache.get(token);
+        if (claims == null) {
+            JwtResult result = engine.parse(token);
+            if (!result.isValid()) {
+                accessLog.denied(method, "anonymous", "Invalid token");
+                call.close(Status.UNAUTHENTICATED.withDescription("Invalid token"), headers);
+                return new ServerCall.Listener<ReqT>() {};
+            }
+            claims = result.getClaims();
+            tokenCache.put(token, claims, result.getKeyId());
+            if (!engine.hasKey(result.getKeyId())) {
+                // The key was removed while the token was being verified
+                tokenCache.evictKey(result.getKeyId());
+            }
         }
 
-        // Extract username from the token and log authenticated access
-        String username = JwtUtil.getUsernameFromToken(token);
-        logger.info("Authenticated access to " + method + " by " + username);
+        // Extract username from the token and record the authenticated access
+        String username = claims.getSubject();
+        accessLog.granted(method, username);
         return next.startCall(call, headers);
     }
 }
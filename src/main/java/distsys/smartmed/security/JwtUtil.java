@@ -6,22 +6,62 @@ package distsys.smartmed.security;
 
 /**
  * Utility class for generating, validating, and extracting information from JWT tokens.
- * Uses a shared secret key for signing and verifying tokens.
- * Tokens expire after 1 hour.
+ * Delegates to a shared {@link JwtEngine} whose parser is built once at class loading.
+ * Tokens are signed with the active key of the engine and expire after 1 hour.
+ * 
+ * Extra signing keys for rotation can be supplied with the system property
+ * {@code smartmed.jwt.keys} as a comma-separated list of {@code kid:secret} pairs,
+ * and the key used for new tokens selected with {@code smartmed.jwt.activeKey}.
  * 
  * @author anukratimehta
  */
 
-import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import javax.crypto.SecretKey;
-import java.util.Date;
 
 public class JwtUtil {
     private static final String SECRET_STRING = "smartmed-secret-key-1234567890-abcdefgh";
+    private static final String DEFAULT_KEY_ID = "smartmed-1";
     private static final SecretKey SECRET_KEY = Keys.hmacShaKeyFor(SECRET_STRING.getBytes());
     private static final long EXPIRATION_TIME = 3600000; // 1 hour in milliseconds
 
+    private static final JwtEngine ENGINE = createEngine();
+
+    /**
+     * Builds the shared engine with the default key plus any keys configured through
+     * system properties.
+     * 
+     * @return the configured engine
+     */
+    private static JwtEngine createEngine() {
+        JwtEngine engine = new JwtEngine(DEFAULT_KEY_ID, SECRET_KEY, EXPIRATION_TIME);
+        String extraKeys = System.getProperty("smartmed.jwt.keys");
+        if (extraKeys != null && !extraKeys.trim().isEmpty()) {
+            for (String pair : extraKeys.split(",")) {
+                int separator = pair.indexOf(':');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("Expected kid:secret in smartmed.jwt.keys, got: " + pair);
+                }
+                engine.addKey(pair.substring(0, separator).trim(),
+                    Keys.hmacShaKeyFor(pair.substring(separator + 1).trim().getBytes()));
+            }
+        }
+        String activeKey = System.getProperty("smartmed.jwt.activeKey");
+        if (activeKey != null) {
+            engine.activateKey(activeKey.trim());
+        }
+        return engine;
+    }
+
+    /**
+     * Returns the shared engine, e.g. to rotate signing keys at runtime.
+     * 
+     * @return the engine used by all static methods of this class
+     */
+    public static JwtEngine getEngine() {
+        return ENGINE;
+    }
+
     /**
      * Generates a token with a default subject ("default-client").
      * 
@@ -38,12 +78,17 @@ public class JwtUtil {
      * @return the generated JWT token string
      */
     public static String generateToken(String username) {
-        return Jwts.builder()
-                .setSubject(username)
-                .setIssuedAt(new Date())
-                .setExpiration(new Date(System.currentTimeMillis() + EXPIRATION_TIME))
-                .signWith(SECRET_KEY)
-                .compact();
+        return ENGINE.generate(username);
+    }
+
+    /**
+     * Verifies a JWT token and returns the validity result and claims from a single parse.
+     * 
+     * @param token the JWT token string to verify
+     * @return the verification result
+     */
+    public static JwtResult parse(String token) {
+        return ENGINE.parse(token);
     }
 
     /**
@@ -53,16 +98,7 @@ public class JwtUtil {
      * @return true if the token is valid, false otherwise
      */
     public static boolean validateToken(String token) {
-        try {
-            Jwts.parserBuilder()
-                .setSigningKey(SECRET_KEY)
-                .build()
-                .parseClaimsJws(token);
-            return true;
-        } catch (Exception e) {
-            System.err.println("[JWT] Invalid token: " + e.getMessage());
-            return false;
-        }
+        return ENGINE.parse(token).isValid();
     }
 
     /**
@@ -72,16 +108,7 @@ public class JwtUtil {
      * @return the username if extraction succeeds, or "unknown" if it fails
      */
     public static String getUsernameFromToken(String token) {
-        try {
-            return Jwts.parserBuilder()
-                .setSigningKey(SECRET_KEY)
-                .build()
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
-        } catch (Exception e) {
-            System.err.println("[JWT] Failed to get username from token: " + e.getMessage());
-            return "unknown";
-        }
+        JwtResult result = ENGINE.parse(token);
+        return result.isValid() ? result.getSubject() : "unknown";
     }
 }
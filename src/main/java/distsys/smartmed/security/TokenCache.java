@@ -0,0 +1,194 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.security;
+
+import io.jsonwebtoken.Claims;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of already verified JWT tokens.
+ * Maps the raw token string to its claims and keeps each entry only until the token's
+ * expiration time, so a token seen before is accepted with a single hash lookup instead of
+ * a new parser build and signature check. Each entry remembers the id of the key that verified
+ * it, so the tokens of a removed key can be dropped at once.
+ *
+ * @author anukratimehta
+ */
+public class TokenCache {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+    private final int maxEntries;
+
+    // Counters are striped so concurrent RPC threads do not contend on them
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Immutable cache entry holding the verified claims, their expiry in epoch milliseconds and
+     * the id of the verifying key.
+     */
+    private static final class Entry {
+        final Claims claims;
+        final long expiresAt;
+        final String keyId;
+
+        Entry(Claims claims, long expiresAt, String keyId) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
+            this.keyId = keyId;
+        }
+    }
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAX_ENTRIES} tokens.
+     */
+    public TokenCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a cache holding at most the given number of tokens.
+     *
+     * @param maxEntries the maximum number of cached tokens, must be positive
+     */
+    public TokenCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Looks up the claims of a previously verified token.
+     * Expired entries are removed and reported as a miss.
+     *
+     * @param token the raw JWT token string
+     * @return the cached claims, or null if the token is unknown or has expired
+     */
+    public Claims get(String token) {
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(token, entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.claims;
+    }
+
+    /**
+     * Caches the claims of a verified token until its expiration time.
+     * Tokens without an expiration claim are never cached.
+     *
+     * @param token the raw JWT token string
+     * @param claims the claims obtained from verifying the token
+     * @param keyId the id of the key that verified the token
+     */
+    public void put(String token, Claims claims, String keyId) {
+        Date expiration = claims.getExpiration();
+        if (expiration == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expiresAt = expiration.getTime();
+        if (expiresAt <= now) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            evict(now);
+        }
+        entries.put(token, new Entry(claims, expiresAt, keyId));
+    }
+
+    /**
+     * Removes every token verified with the given key, e.g. after the key was retired.
+     *
+     * @param keyId the id of the key
+     */
+    public void evictKey(String keyId) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (keyId.equals(it.next().keyId)) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Makes room for new entries. Expired tokens are dropped first; if the cache is still full,
+     * arbitrary entries are dropped until it is back to three quarters of its capacity so the
+     * sweep is not repeated on every insert.
+     *
+     * @param now the current time in epoch milliseconds
+     */
+    private void evict(long now) {
+        synchronized (evictionLock) {
+            if (entries.size() < maxEntries) {
+                return; // Another thread already made room
+            }
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue().expiresAt <= now) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+            int target = maxEntries - maxEntries / 4;
+            it = entries.entrySet().iterator();
+            while (entries.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes every cached token.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the number of tokens currently cached
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that required a full token verification
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of entries removed to keep the cache within its bound
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
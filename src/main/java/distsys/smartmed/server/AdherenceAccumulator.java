@@ -0,0 +1,97 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import com.healthcare.grpc.medication.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Running medication adherence statistics for one patient.
+ * Counters are updated as each record arrives, and at most a fixed number of missed doses
+ * is retained for the report, so memory stays constant however long the stream is.
+ * Not thread-safe; each instance is updated by one stream at a time.
+ *
+ * @author anukratimehta
+ */
+public class AdherenceAccumulator {
+    public static final int DEFAULT_MISSED_DOSE_CAP = 1000;
+
+    private final String patientId;
+    private final int missedDoseCap;
+    private final List<MedicationRecord> missedDoses = new ArrayList<>();
+    private int total = 0;
+    private int taken = 0;
+    private int missedOmitted = 0;
+
+    /**
+     * Creates an accumulator that lists at most the given number of missed doses.
+     *
+     * @param patientId the patient the doses belong to
+     * @param missedDoseCap the maximum number of missed doses kept for the report
+     */
+    public AdherenceAccumulator(String patientId, int missedDoseCap) {
+        if (missedDoseCap < 0) {
+            throw new IllegalArgumentException("missedDoseCap must not be negative");
+        }
+        this.patientId = patientId;
+        this.missedDoseCap = missedDoseCap;
+    }
+
+    /**
+     * Adds one dose to the statistics. Missed doses beyond the cap are only counted.
+     *
+     * @param record the medication record
+     */
+    public void add(MedicationRecord record) {
+        total++;
+        if (record.getWasTaken()) {
+            taken++;
+        } else if (missedDoses.size() < missedDoseCap) {
+            missedDoses.add(record);
+        } else {
+            missedOmitted++;
+        }
+    }
+
+    /**
+     * @return the number of doses added so far
+     */
+    public int getTotalDoses() {
+        return total;
+    }
+
+    /**
+     * Builds the adherence analysis from the statistics collected so far.
+     *
+     * @return MedicationAnalysis object with adherence stats and summary
+     */
+    public MedicationAnalysis toAnalysis() {
+        float percentage = total > 0 ? (taken * 100.0f) / total : 0;
+
+        return MedicationAnalysis.newBuilder()
+            .setPatientId(patientId)
+            .setAdherencePercentage(percentage)
+            .setTotalDoses(total)
+            .setTakenDoses(taken)
+            .addAllMissedDoses(missedDoses)
+            .setMissedDosesOmitted(missedOmitted)
+            .setSummary(generateAdherenceSummary(percentage))
+            .build();
+    }
+
+    /**
+     * Provides a text-based summary based on adherence percentage.
+     *
+     * @param percentage Calculated medication adherence percentage
+     * @return Summary string describing the adherence quality
+     */
+    private static String generateAdherenceSummary(float percentage) {
+        if (percentage >= 90) return "Excellent adherence! Keep it up!";
+        if (percentage >= 70) return "Good adherence, but could improve";
+        if (percentage >= 50) return "Fair adherence - consult your doctor";
+        return "Poor adherence - requires intervention";
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import distsys.smartmed.common.ThreadUtils;
+import io.grpc.ServerBuilder;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Execution modes for the gRPC server's call executor.
+ * Selected at startup with {@code --executor=<mode>} or the system property
+ * {@code smartmed.executor}.
+ *
+ * @author anukratimehta
+ */
+public enum ExecutorMode {
+    /** gRPC's default unbounded cached thread pool. */
+    CACHED,
+    /** A fixed pool of platform threads, bounding the number of concurrently running handlers. */
+    FIXED,
+    /** One virtual thread per call. Requires JDK 21 or newer. */
+    VIRTUAL,
+    /** Runs handlers on the transport threads. Only safe when no handler blocks. */
+    DIRECT;
+
+    /**
+     * Parses a mode name, ignoring case.
+     *
+     * @param name the mode name, e.g. "virtual"
+     * @return the matching mode
+     * @throws IllegalArgumentException if the name is not a known mode
+     */
+    public static ExecutorMode parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown executor mode: " + name
+                + " (expected cached, fixed, virtual or direct)");
+        }
+    }
+
+    /**
+     * Applies this mode to a server builder.
+     *
+     * @param builder the server builder to configure
+     * @param threads the pool size for {@link #FIXED}, ignored by other modes
+     * @return the executor created for the server, which the caller must shut down after the
+     *         server terminates, or null if gRPC manages the executor
+     */
+    public ExecutorService configure(ServerBuilder<?> builder, int threads) {
+        switch (this) {
+            case FIXED:
+                ExecutorService fixed = Executors.newFixedThreadPool(threads,
+                    ThreadUtils.daemonThreadFactory("grpc-server"));
+                builder.executor(fixed);
+                return fixed;
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                builder.executor(virtual);
+                return virtual;
+            case DIRECT:
+                builder.directExecutor();
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor through reflection, so the server still
+     * compiles for and runs on older JDKs in the other modes.
+     *
+     * @return the executor
+     * @throws IllegalStateException if the running JDK has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual thread executor requires JDK 21 or newer (running "
+                + System.getProperty("java.version") + ")", e);
+        }
+    }
+}
@@ -7,6 +7,9 @@ package distsys.smartmed.server;
 /**
  * gRPC service implementation for analyzing a patient's medication schedule in the SmartMed system.
  * Calculates adherence percentage and provides feedback based on incoming medication records.
+ * Statistics are accumulated as records arrive, so memory per call does not grow with the stream.
+ * The bulk variant partitions patients across a fixed set of single-threaded stripes, so many
+ * patients can be reconciled in one call using all cores without locking.
  * 
  * @author anukratimehta
  */
@@ -14,46 +17,72 @@ package distsys.smartmed.server;
 import com.healthcare.grpc.medication.*;
 import distsys.smartmed.common.ValidationUtils;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import java.util.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 import distsys.smartmed.common.LoggingUtils;
-import java.util.stream.Collectors;
+import distsys.smartmed.common.ThreadUtils;
 
 public class MedicationServiceImpl extends MedicationServiceGrpc.MedicationServiceImplBase {
     private static final Logger logger = Logger.getLogger(MedicationServiceImpl.class.getName());
 
+    // Records a bulk call may have queued on the stripes before it stops reading from the client
+    private static final int BULK_IN_FLIGHT_RECORDS = 1024;
+
+    private final int missedDoseCap;
+    private final ExecutorService[] stripes;
+
+    /**
+     * Creates the service configured through system properties:
+     * {@code smartmed.medication.missedDoseCap} (default 1000) and
+     * {@code smartmed.medication.stripes} (default: number of cores).
+     */
+    public MedicationServiceImpl() {
+        this(Integer.getInteger("smartmed.medication.missedDoseCap", AdherenceAccumulator.DEFAULT_MISSED_DOSE_CAP),
+            Integer.getInteger("smartmed.medication.stripes", Runtime.getRuntime().availableProcessors()));
+    }
+
     /**
-     * Generates a medication adherence analysis from a list of medication records.
+     * Creates the service with the given missed-dose cap and one stripe per core.
      *
-     * @param records List of MedicationRecord objects to analyze
-     * @return MedicationAnalysis object with adherence stats and summary
+     * @param missedDoseCap the maximum number of missed doses listed in each analysis
      */
-    private MedicationAnalysis generateAnalysis(List<MedicationRecord> records) {
-        int total = records.size();
-        int taken = (int) records.stream().filter(MedicationRecord::getWasTaken).count();
-        float percentage = total > 0 ? (taken * 100.0f) / total : 0;
-
-        return MedicationAnalysis.newBuilder()
-            .setAdherencePercentage(percentage)
-            .setTotalDoses(total)
-            .setTakenDoses(taken)
-            .addAllMissedDoses(records.stream().filter(r -> !r.getWasTaken()).collect(Collectors.toList()))
-            .setSummary(generateAdherenceSummary(percentage))
-            .build();
+    public MedicationServiceImpl(int missedDoseCap) {
+        this(missedDoseCap, Runtime.getRuntime().availableProcessors());
     }
 
     /**
-     * Provides a text-based summary based on adherence percentage.
+     * Creates the service with the given missed-dose cap and number of aggregation stripes.
      *
-     * @param percentage Calculated medication adherence percentage
-     * @return Summary string describing the adherence quality
+     * @param missedDoseCap the maximum number of missed doses listed in each analysis
+     * @param stripeCount the number of single-threaded stripes used by bulk analysis
      */
-    private String generateAdherenceSummary(float percentage) {
-        if (percentage >= 90) return "Excellent adherence! Keep it up!";
-        if (percentage >= 70) return "Good adherence, but could improve";
-        if (percentage >= 50) return "Fair adherence - consult your doctor";
-        return "Poor adherence - requires intervention";
+    public MedicationServiceImpl(int missedDoseCap, int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount must be positive");
+        }
+        this.missedDoseCap = missedDoseCap;
+        this.stripes = new ExecutorService[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = Executors.newSingleThreadExecutor(ThreadUtils.daemonThreadFactory("medication-stripe-" + i));
+        }
+    }
+
+    /**
+     * Stops the bulk aggregation stripes.
+     */
+    public void shutdown() {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
     }
 
     /**
@@ -67,7 +96,7 @@ public class MedicationServiceImpl extends MedicationServiceGrpc.MedicationServi
     public StreamObserver<MedicationRecord> analyzeMedicationSchedule(StreamObserver<MedicationAnalysis> responseObserver) {
         return new StreamObserver<MedicationRecord>() {
             private String patientId = null;
-            private final List<MedicationRecord> records = new ArrayList<>();
+            private AdherenceAccumulator adherence = null;
 
             @Override
             public void onNext(MedicationRecord record) {
@@ -78,10 +107,11 @@ public class MedicationServiceImpl extends MedicationServiceGrpc.MedicationServi
                     // Log service start when the first record is received
                     if (patientId == null) {
                         patientId = record.getPatientId();
+                        adherence = new AdherenceAccumulator(patientId, missedDoseCap);
                         LoggingUtils.logServiceStart(logger, "MedicationService", patientId);
                     }
 
-                    records.add(record);
+                    adherence.add(record);
 
                     // Log each medication intake event
                     LoggingUtils.logFine(logger, "Received medication: %s at %s (%s)",
@@ -98,8 +128,8 @@ public class MedicationServiceImpl extends MedicationServiceGrpc.MedicationServi
             @Override
             public void onCompleted() {
                 // Send back the analysis report and complete the stream
-                if (!records.isEmpty()) {
-                    responseObserver.onNext(generateAnalysis(records));
+                if (adherence != null) {
+                    responseObserver.onNext(adherence.toAnalysis());
                 }
                 responseObserver.onCompleted();
             }
@@ -111,4 +141,150 @@ public class MedicationServiceImpl extends MedicationServiceGrpc.MedicationServi
             }
         };
     }
+
+    /**
+     * Receives interleaved MedicationRecord messages for many patients and responds with one
+     * adherence analysis per patient once the client completes the stream.
+     * Each patient is owned by the stripe selected by its id hash, so its statistics are only ever
+     * touched by that stripe's thread. Reading from the client is paused while too many records
+     * are queued on the stripes, and the analyses are sent only while the client can take them.
+     *
+     * @param responseObserver StreamObserver to send one MedicationAnalysis per patient
+     * @return StreamObserver to receive MedicationRecord messages from the client
+     */
+    @Override
+    public StreamObserver<MedicationRecord> analyzeMedicationSchedules(StreamObserver<MedicationAnalysis> responseObserver) {
+        ServerCallStreamObserver<MedicationAnalysis> serverObserver =
+            (ServerCallStreamObserver<MedicationAnalysis>) responseObserver;
+        BulkAnalysis analysis = new BulkAnalysis(serverObserver);
+        serverObserver.disableAutoRequest();
+        serverObserver.setOnReadyHandler(analysis::drain);
+        serverObserver.request(BULK_IN_FLIGHT_RECORDS);
+        LoggingUtils.logServiceStart(logger, "MedicationService", "bulk");
+        return analysis;
+    }
+
+    /**
+     * State of one bulk analysis call: the per-stripe partitions while records arrive, then the
+     * analyses waiting for the client.
+     */
+    private final class BulkAnalysis implements StreamObserver<MedicationRecord> {
+        private final ServerCallStreamObserver<MedicationAnalysis> call;
+        // One partition per stripe, each confined to its stripe's thread
+        private final List<Map<String, AdherenceAccumulator>> partitions =
+            new ArrayList<>(Collections.nCopies(stripes.length, null));
+        private volatile boolean failed = false;
+
+        // Outbound state, guarded by the call
+        private final ArrayDeque<MedicationAnalysis> outbound = new ArrayDeque<>();
+        private int pendingStripes = stripes.length;
+        private int patientCount = 0;
+        private boolean closed = false;
+
+        BulkAnalysis(ServerCallStreamObserver<MedicationAnalysis> call) {
+            this.call = call;
+        }
+
+        @Override
+        public void onNext(MedicationRecord record) {
+            if (failed) {
+                return;
+            }
+            String recordPatientId = record.getPatientId();
+            if (!ValidationUtils.isValidPatientId(recordPatientId)) {
+                failed = true;
+                IllegalArgumentException e = new IllegalArgumentException(
+                    "Invalid patient ID in bulk stream: " + recordPatientId);
+                LoggingUtils.logError(logger, "MedicationService", recordPatientId, e, true);
+                synchronized (call) {
+                    closed = true;
+                    call.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+                }
+                return;
+            }
+
+            int stripe = stripeOf(recordPatientId);
+            stripes[stripe].execute(() -> {
+                Map<String, AdherenceAccumulator> partition = partitions.get(stripe);
+                if (partition == null) {
+                    partition = new HashMap<>();
+                    partitions.set(stripe, partition);
+                }
+                partition.computeIfAbsent(recordPatientId, id -> new AdherenceAccumulator(id, missedDoseCap))
+                    .add(record);
+                call.request(1);
+            });
+        }
+
+        @Override
+        public void onCompleted() {
+            if (failed) {
+                return;
+            }
+            // Queued behind every record of this call, so each stripe reports complete results
+            for (int i = 0; i < stripes.length; i++) {
+                int stripe = i;
+                stripes[stripe].execute(() -> {
+                    Map<String, AdherenceAccumulator> partition = partitions.get(stripe);
+                    partitions.set(stripe, null);
+                    synchronized (call) {
+                        if (partition != null) {
+                            for (AdherenceAccumulator adherence : partition.values()) {
+                                outbound.add(adherence.toAnalysis());
+                            }
+                            patientCount += partition.size();
+                        }
+                        pendingStripes--;
+                    }
+                    drain();
+                });
+            }
+        }
+
+        /**
+         * Sends the queued analyses while the client is ready, and completes the call once every
+         * stripe has reported and the queue is empty. Called by the stripes and by gRPC when the
+         * client can take more.
+         */
+        void drain() {
+            int analyzed;
+            synchronized (call) {
+                if (closed) {
+                    return;
+                }
+                if (call.isCancelled()) {
+                    closed = true;
+                    outbound.clear();
+                    return;
+                }
+                while (!outbound.isEmpty() && call.isReady()) {
+                    call.onNext(outbound.poll());
+                }
+                if (pendingStripes > 0 || !outbound.isEmpty()) {
+                    return;
+                }
+                closed = true;
+                call.onCompleted();
+                analyzed = patientCount;
+            }
+            LoggingUtils.logServiceEnd(logger, "MedicationService", "bulk", analyzed + " patients analyzed");
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            failed = true;
+            LoggingUtils.logError(logger, "MedicationService", "bulk", t, false);
+        }
+    }
+
+    /**
+     * Selects the stripe that owns a patient.
+     *
+     * @param patientId the patient ID
+     * @return the stripe index
+     */
+    private int stripeOf(String patientId) {
+        int hash = patientId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+/**
+ * gRPC service exposing the per-method call metrics recorded by the server's
+ * {@link MetricsServerInterceptor}, as structured data and as plain text.
+ *
+ * @author anukratimehta
+ */
+
+import com.healthcare.grpc.metrics.*;
+import distsys.smartmed.metrics.MetricsRegistry;
+import distsys.smartmed.metrics.MetricsServerInterceptor;
+import io.grpc.stub.StreamObserver;
+
+public class MetricsServiceImpl extends MetricsServiceGrpc.MetricsServiceImplBase {
+    private final MetricsRegistry registry;
+
+    /**
+     * @param registry the registry to report
+     */
+    public MetricsServiceImpl(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the metrics of the methods matching the request's filter.
+     *
+     * @param request MetricsRequest message with an optional method name filter
+     * @param responseObserver StreamObserver to send the MetricsReport to
+     */
+    @Override
+    public void getMetrics(MetricsRequest request, StreamObserver<MetricsReport> responseObserver) {
+        responseObserver.onNext(registry.report(request.getMethodFilter()));
+        responseObserver.onCompleted();
+    }
+}
@@ -6,38 +6,208 @@ package distsys.smartmed.server;
 
 /**
  * gRPC service implementation for streaming patient vitals in the SmartMed system.
- * Simulates real-time heart rate and oxygen saturation data for monitoring purposes.
+ * Simulates real-time heart rate and oxygen saturation data for monitoring purposes, with
+ * rolling statistics and alerts attached to every update.
+ * All viewers of a patient subscribe to the same per-patient producer in a {@link VitalsHub},
+ * which ticks on a shared scheduler instead of a sleeping handler thread. Patients whose
+ * device pushes samples through IngestVitals are streamed from those samples instead.
+ * Every sample is recorded in a {@link VitalsHistoryStore}, which QueryVitals reads back
+ * downsampled to the requested resolution. A periodic task seals the store's open chunks,
+ * flushes it and deletes the samples past the retention time.
  *
  * @author anukratimehta
  */
 
 import com.healthcare.grpc.monitoring.*;
 import distsys.smartmed.common.ValidationUtils;
+import distsys.smartmed.storage.MappedSegmentLog;
+import distsys.smartmed.storage.VitalsHistoryStore;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import distsys.smartmed.common.LoggingUtils;
+import distsys.smartmed.common.ThreadUtils;
 
 public class MonitoringServiceImpl extends MonitoringServiceGrpc.MonitoringServiceImplBase {
     private static final Logger logger = Logger.getLogger(MonitoringServiceImpl.class.getName());
 
+    // Time between two vitals updates of a patient
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    // Upper bound on the points of one QueryVitals response
+    public static final int DEFAULT_MAX_QUERY_POINTS = 10000;
+
+    // Vitals history upkeep: seal open chunks after a minute, keep samples for a week or 16 segments
+    public static final long DEFAULT_SEAL_AFTER_MILLIS = 60000;
+    public static final long DEFAULT_RETENTION_HOURS = 168;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final VitalsHistoryStore history;
+    private final int maxQueryPoints;
+    private final VitalsHub hub;
+    private final ScheduledFuture<?> maintenance;
+
     /**
-     * Simulates the generation of a vitals update.
-     * Generates heart rate and oxygen saturation with random but realistic values.
+     * Creates the service with its own small scheduler and one update per second.
+     * Configured through system properties:
+     * <ul>
+     *   <li>{@code smartmed.monitoring.threads}: scheduler threads (default 2)</li>
+     *   <li>{@code smartmed.monitoring.intervalMillis}: update interval (default 1000)</li>
+     *   <li>{@code smartmed.vitals.bufferSize}: per-viewer ring buffer size (default 16)</li>
+     *   <li>{@code smartmed.vitals.slowConsumerPolicy}: drop-oldest (default), conflate or disconnect</li>
+     *   <li>{@code smartmed.vitals.episodeChance}: chance per update that a simulated patient starts
+     *       an episode raising alerts (default 0.01), 0 for resting vitals only</li>
+     *   <li>{@code smartmed.vitals.historyDir}: directory of the vitals history (default data/vitals),
+     *       empty to keep no history</li>
+     *   <li>{@code smartmed.vitals.chunkSamples}: samples per history chunk (default 240)</li>
+     *   <li>{@code smartmed.vitals.sealAfterMillis}: age at which an open history chunk is written
+     *       to disk (default 60000)</li>
+     *   <li>{@code smartmed.vitals.retentionHours}: how long history is kept (default 168)</li>
+     *   <li>{@code smartmed.vitals.maxSegments}: history segments of 64 MB kept at most (default 16)</li>
+     *   <li>{@code smartmed.vitals.maxQueryPoints}: points per QueryVitals response (default 10000)</li>
+     * </ul>
+     * The rolling analytics are configured as described in {@link VitalsAnalytics.Config#fromSystemProperties()}.
+     */
+    public MonitoringServiceImpl() {
+        this(Executors.newScheduledThreadPool(
+                Integer.getInteger("smartmed.monitoring.threads", 2),
+                ThreadUtils.daemonThreadFactory("vitals-scheduler")),
+            true,
+            Long.getLong("smartmed.monitoring.intervalMillis", DEFAULT_INTERVAL_MILLIS),
+            Integer.getInteger("smartmed.vitals.bufferSize", VitalsHub.DEFAULT_BUFFER_SIZE),
+            VitalsHub.SlowConsumerPolicy.parse(System.getProperty("smartmed.vitals.slowConsumerPolicy", "drop-oldest")),
+            openHistory(System.getProperty("smartmed.vitals.historyDir", "data/vitals")),
+            Integer.getInteger("smartmed.vitals.maxQueryPoints", DEFAULT_MAX_QUERY_POINTS));
+    }
+
+    /**
+     * Creates the service on a caller-provided scheduler with default buffering.
      *
-     * @return VitalsUpdate message containing simulated data
+     * @param scheduler the scheduler that drives all vitals producers
+     * @param intervalMillis time between two updates of a patient, in milliseconds
      */
-    private VitalsUpdate generateVitalsUpdate() {
-        return VitalsUpdate.newBuilder()
-            .setHeartRate(70 + (int)(Math.random() * 10))  // 70-80 bpm
-            .setOxygenLevel(95 + (float)(Math.random() * 5))  // 95-100%
-            .setTimestamp(System.currentTimeMillis())
-            .build();
+    public MonitoringServiceImpl(ScheduledExecutorService scheduler, long intervalMillis) {
+        this(scheduler, false, intervalMillis, VitalsHub.DEFAULT_BUFFER_SIZE, VitalsHub.SlowConsumerPolicy.DROP_OLDEST,
+            null, DEFAULT_MAX_QUERY_POINTS);
+    }
+
+    /**
+     * Creates the service on a caller-provided scheduler and history store with default buffering.
+     * The store is maintained on the scheduler as configured by the system properties of
+     * {@link #MonitoringServiceImpl()} and closed when the service shuts down.
+     *
+     * @param scheduler the scheduler that drives all vitals producers
+     * @param intervalMillis time between two updates of a patient, in milliseconds
+     * @param history the store every sample is recorded in, or null to keep no history
+     */
+    public MonitoringServiceImpl(ScheduledExecutorService scheduler, long intervalMillis, VitalsHistoryStore history) {
+        this(scheduler, false, intervalMillis, VitalsHub.DEFAULT_BUFFER_SIZE, VitalsHub.SlowConsumerPolicy.DROP_OLDEST,
+            history, DEFAULT_MAX_QUERY_POINTS);
+    }
+
+    private MonitoringServiceImpl(ScheduledExecutorService scheduler, boolean ownsScheduler, long intervalMillis,
+                                  int bufferSize, VitalsHub.SlowConsumerPolicy policy, VitalsHistoryStore history,
+                                  int maxQueryPoints) {
+        if (maxQueryPoints <= 0) {
+            throw new IllegalArgumentException("maxQueryPoints must be positive");
+        }
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        this.history = history;
+        this.maxQueryPoints = maxQueryPoints;
+        this.hub = new VitalsHub(scheduler, intervalMillis, bufferSize, policy,
+            VitalsAnalytics.Config.fromSystemProperties(), history);
+        this.maintenance = history == null ? null : scheduleMaintenance(scheduler, history);
+    }
+
+    /**
+     * Runs the upkeep of the history store at half the chunk sealing age.
+     *
+     * @param scheduler the scheduler to run on
+     * @param history the store to maintain
+     * @return the periodic task
+     */
+    private static ScheduledFuture<?> scheduleMaintenance(ScheduledExecutorService scheduler, VitalsHistoryStore history) {
+        long sealAfterMillis = Long.getLong("smartmed.vitals.sealAfterMillis", DEFAULT_SEAL_AFTER_MILLIS);
+        long retentionMillis = TimeUnit.HOURS.toMillis(Long.getLong("smartmed.vitals.retentionHours", DEFAULT_RETENTION_HOURS));
+        int maxSegments = Integer.getInteger("smartmed.vitals.maxSegments", DEFAULT_MAX_SEGMENTS);
+        long period = Math.max(1000, sealAfterMillis / 2);
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                history.maintain(sealAfterMillis, retentionMillis, maxSegments);
+            } catch (IOException | RuntimeException e) {
+                // Keep the task scheduled; an exception would cancel it
+                logger.warning("Vitals history maintenance failed: " + e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the vitals history store in a directory.
+     *
+     * @param directory the store directory, or an empty string to keep no history
+     * @return the opened store, or null if no directory is set
+     * @throws UncheckedIOException if the store cannot be opened
+     */
+    private static VitalsHistoryStore openHistory(String directory) {
+        if (directory.isEmpty()) {
+            return null;
+        }
+        try {
+            return new VitalsHistoryStore(Paths.get(directory),
+                Integer.getInteger("smartmed.vitals.chunkSamples", VitalsHistoryStore.DEFAULT_CHUNK_SAMPLES),
+                MappedSegmentLog.DEFAULT_SEGMENT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open vitals history store", e);
+        }
+    }
+
+    /**
+     * @return the hub holding the per-patient producers and their subscribers
+     */
+    public VitalsHub getHub() {
+        return hub;
+    }
+
+    /**
+     * @return the store the vitals history is recorded in, or null if no history is kept
+     */
+    public VitalsHistoryStore getHistory() {
+        return history;
+    }
+
+    /**
+     * Stops the scheduler if it was created by this service and closes the history store,
+     * persisting its open chunks. Open streams stop receiving updates.
+     */
+    public void shutdown() {
+        if (maintenance != null) {
+            maintenance.cancel(false);
+        }
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+        if (history != null) {
+            history.close();
+        }
     }
 
     /**
      * Streams vitals updates for a given duration.
-     * Validates patient ID, sends simulated vitals every second for the requested duration.
+     * Validates patient ID, then subscribes the stream to the patient's producer for one update
+     * per second of the requested duration. The handler thread returns immediately.
      *
      * @param request VitalsRequest message containing patient ID and duration
      * @param responseObserver StreamObserver to send VitalsUpdate messages to the client
@@ -53,31 +223,216 @@ public class MonitoringServiceImpl extends MonitoringServiceGrpc.MonitoringServi
             // Log the start of service
             LoggingUtils.logServiceStart(logger, "MonitoringService", patientId);
 
-            // Stream vitals data for the requested duration
-            for (int i = 0; i < request.getDurationSeconds(); i++) {
-                VitalsUpdate update = generateVitalsUpdate();
-                responseObserver.onNext(update);
+            if (request.getDurationSeconds() <= 0) {
+                responseObserver.onCompleted();
+                LoggingUtils.logServiceEnd(logger, "MonitoringService", patientId, "Stream completed");
+                return;
+            }
 
-                // Log each vitals update in detail
-                LoggingUtils.logFine(logger, "Sent vitals for %s: HR=%d, SpO2=%.1f",
-                    patientId, update.getHeartRate(), update.getOxygenLevel());
+            new VitalsStream(patientId, (ServerCallStreamObserver<VitalsUpdate>) responseObserver)
+                .start(request.getDurationSeconds(), request.getAlertsOnly());
 
-                // Sleep for one second between updates
-                Thread.sleep(1000);
+        } catch (IllegalArgumentException e) {
+            // Handle invalid patient ID
+            LoggingUtils.logError(logger, "MonitoringService", patientId, e, true);
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        }
+    }
+
+    /**
+     * Accepts batched vitals frames from bedside devices and publishes them to the patients'
+     * viewers as they arrive. Frames of one call are processed in order on the call's thread;
+     * a frame with an invalid patient ID or sample lists of different lengths is rejected
+     * without failing the call, and the counts are returned when the device completes. The
+     * call's feeds are closed when it ends either way, so its patients go back to synthetic
+     * samples unless another device still reports on them.
+     *
+     * @param responseObserver StreamObserver to send the IngestSummary to when the client completes
+     * @return StreamObserver receiving the device's VitalsFrame messages
+     */
+    @Override
+    public StreamObserver<VitalsFrame> ingestVitals(StreamObserver<IngestSummary> responseObserver) {
+        return new StreamObserver<VitalsFrame>() {
+            // Feeds opened by this call, so the patient ID is validated once per call
+            private final Map<String, VitalsHub.LiveFeed> feeds = new HashMap<>();
+            private long frames = 0;
+            private long accepted = 0;
+            private long rejected = 0;
+
+            @Override
+            public void onNext(VitalsFrame frame) {
+                frames++;
+                String patientId = frame.getPatientId();
+                int samples = frame.getHeartRatesCount();
+                if (frame.getOxygenLevelsCount() != samples || frame.getTimestampDeltasCount() != samples) {
+                    rejected += Math.max(samples, Math.max(frame.getOxygenLevelsCount(), frame.getTimestampDeltasCount()));
+                    LoggingUtils.logError(logger, "MonitoringService", patientId,
+                        new IllegalArgumentException("Frame sample lists differ in length"), true);
+                    return;
+                }
+                VitalsHub.LiveFeed feed = feeds.get(patientId);
+                if (feed == null) {
+                    if (!ValidationUtils.isValidPatientId(patientId)) {
+                        rejected += samples;
+                        LoggingUtils.logError(logger, "MonitoringService", patientId,
+                            new IllegalArgumentException("Invalid patient ID in vitals frame"), true);
+                        return;
+                    }
+                    LoggingUtils.logServiceStart(logger, "MonitoringService", patientId);
+                    feed = hub.openFeed(patientId);
+                    feeds.put(patientId, feed);
+                }
+                feed.publish(frame);
+                accepted += samples;
             }
 
-            // Complete the response stream
-            responseObserver.onCompleted();
-            LoggingUtils.logServiceEnd(logger, "MonitoringService", patientId, "Stream completed");
+            @Override
+            public void onError(Throwable t) {
+                closeFeeds();
+                logger.warning("Vitals ingestion aborted after " + frames + " frames: " + t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onNext(IngestSummary.newBuilder()
+                    .setFramesReceived(frames)
+                    .setSamplesAccepted(accepted)
+                    .setSamplesRejected(rejected)
+                    .build());
+                responseObserver.onCompleted();
+                for (String patientId : feeds.keySet()) {
+                    LoggingUtils.logServiceEnd(logger, "MonitoringService", patientId, "Ingestion completed");
+                }
+                closeFeeds();
+            }
+
+            private void closeFeeds() {
+                for (VitalsHub.LiveFeed feed : feeds.values()) {
+                    feed.close();
+                }
+                feeds.clear();
+            }
+        };
+    }
+
+    /**
+     * Returns a patient's recorded vitals over a time range, aggregated into buckets of the
+     * requested width. A step of 0 selects the finest step that keeps the response within the
+     * point limit, and a step yielding more points than the limit is rejected.
+     *
+     * @param request VitalsQuery message with the patient ID, time range and step
+     * @param responseObserver StreamObserver to send the VitalsHistory to
+     */
+    @Override
+    public void queryVitals(VitalsQuery request, StreamObserver<VitalsHistory> responseObserver) {
+        String patientId = request.getPatientId();
+        try {
+            ValidationUtils.validatePatientId(patientId);
+            long from = request.getFromTimestamp();
+            long to = request.getToTimestamp();
+            if (from < 0 || from > to) {
+                throw new IllegalArgumentException("from_timestamp must be non-negative and not after to_timestamp");
+            }
+            if (request.getStepMillis() < 0) {
+                throw new IllegalArgumentException("step_millis must not be negative");
+            }
+            if (history == null) {
+                responseObserver.onError(Status.FAILED_PRECONDITION
+                    .withDescription("Vitals history is disabled on this server").asRuntimeException());
+                return;
+            }
+            long step = request.getStepMillis() > 0 ? request.getStepMillis() : (to - from) / maxQueryPoints + 1;
+            if (VitalsDownsampler.bucketCount(from, to, step) > maxQueryPoints) {
+                throw new IllegalArgumentException("Query yields more than " + maxQueryPoints + " points, use a larger step");
+            }
 
+            VitalsDownsampler downsampler = new VitalsDownsampler(from, to, step);
+            int scanned = history.query(patientId, from, to, downsampler);
+            VitalsHistory.Builder response = VitalsHistory.newBuilder()
+                .setPatientId(patientId)
+                .setStepMillis(step)
+                .setSamplesScanned(scanned);
+            downsampler.addPoints(response);
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+            LoggingUtils.logFine(logger, "Queried vitals for %s: %d samples in %d points",
+                patientId, scanned, response.getPointsCount());
         } catch (IllegalArgumentException e) {
-            // Handle invalid patient ID
             LoggingUtils.logError(logger, "MonitoringService", patientId, e, true);
             responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
-        } catch (InterruptedException e) {
-            // Handle interruption gracefully and reset the thread state
-            LoggingUtils.logError(logger, "MonitoringService", patientId, e, false);
-            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adapts one StreamVitals call to a hub subscriber. The hub serializes the callbacks per
+     * subscription, and transport readiness and cancellation are forwarded to the subscription.
+     */
+    private final class VitalsStream implements VitalsHub.Subscriber {
+        private final String patientId;
+        private final ServerCallStreamObserver<VitalsUpdate> observer;
+        private volatile VitalsHub.Subscription subscription;
+
+        VitalsStream(String patientId, ServerCallStreamObserver<VitalsUpdate> observer) {
+            this.patientId = patientId;
+            this.observer = observer;
+        }
+
+        /**
+         * Registers flow-control and cancellation callbacks, then subscribes to the patient.
+         *
+         * @param updates the number of updates to stream
+         * @param alertsOnly true to stream only the updates that raise alerts
+         */
+        void start(int updates, boolean alertsOnly) {
+            observer.setOnReadyHandler(() -> {
+                VitalsHub.Subscription current = subscription;
+                if (current != null) {
+                    current.drain();
+                }
+            });
+            observer.setOnCancelHandler(() -> {
+                VitalsHub.Subscription current = subscription;
+                if (current != null) {
+                    current.cancel();
+                }
+                LoggingUtils.logServiceEnd(logger, "MonitoringService", patientId, "Cancelled by client");
+            });
+            subscription = hub.subscribe(patientId, updates, alertsOnly, this);
+            // A cancellation before the assignment found no subscription to cancel
+            if (observer.isCancelled()) {
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return observer.isReady();
+        }
+
+        @Override
+        public void onUpdate(VitalsUpdate update) {
+            observer.onNext(update);
+
+            // Log each vitals update in detail
+            LoggingUtils.logFine(logger, "Sent vitals for %s: HR=%d, SpO2=%.1f",
+                patientId, update.getHeartRate(), update.getOxygenLevel());
+        }
+
+        @Override
+        public void onCompleted() {
+            observer.onCompleted();
+            int dropped = subscription != null ? subscription.getDroppedCount() : 0;
+            LoggingUtils.logServiceEnd(logger, "MonitoringService", patientId,
+                dropped > 0 ? "Stream completed, " + dropped + " updates dropped" : "Stream completed");
+        }
+
+        @Override
+        public void onOverflow() {
+            LoggingUtils.logError(logger, "MonitoringService", patientId,
+                new IllegalStateException("Client too slow, disconnected"), true);
+            observer.onError(Status.RESOURCE_EXHAUSTED
+                .withDescription("Client too slow to keep up with vitals stream")
+                .asRuntimeException());
         }
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.healthcare.grpc.patient.PatientResponse;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Cache of immutable, ready-to-send patient records.
+ * Records are built once by a loader and their serialized size is computed on insertion, so a
+ * repeat lookup returns the same message without rebuilding or re-measuring it. Eviction is
+ * configured with a Guava cache specification, e.g. {@code maximumSize=100000,expireAfterAccess=30m};
+ * an empty specification keeps every record, which only suits a small bounded id range.
+ * Unknown patients are not cached, so a later lookup sees a record added in the meantime.
+ *
+ * @author anukratimehta
+ */
+public class PatientRecordCache {
+    private static final Logger logger = Logger.getLogger(PatientRecordCache.class.getName());
+
+    /** Specification of a cache holding a bounded number of records. */
+    public static final String DEFAULT_SPEC = "maximumSize=10000";
+
+    private final Cache<String, PatientResponse> cache;
+    private final Function<String, PatientResponse> loader;
+
+    /**
+     * Creates a cache.
+     *
+     * @param loader builds the record of a patient on a cache miss, returning null for unknown patients
+     * @param spec the Guava cache specification controlling eviction, may be empty
+     */
+    public PatientRecordCache(Function<String, PatientResponse> loader, String spec) {
+        this.cache = CacheBuilder.from(spec).recordStats().build();
+        this.loader = loader;
+    }
+
+    /**
+     * Returns a patient's record, loading it on the first request.
+     *
+     * @param patientId the ID of the patient
+     * @return the cached record, or null if the patient is unknown
+     */
+    public PatientResponse get(String patientId) {
+        PatientResponse response = cache.getIfPresent(patientId);
+        if (response != null) {
+            return response;
+        }
+        // Concurrent misses of one patient may both load it; records are immutable, so either wins
+        response = loader.apply(patientId);
+        if (response == null) {
+            return null;
+        }
+        response.getSerializedSize(); // Memoized by the message, saves the work on every send
+        cache.put(patientId, response);
+        return response;
+    }
+
+    /**
+     * Loads the records of a range of numeric patient IDs ahead of the first request.
+     *
+     * @param fromId the first patient ID, inclusive
+     * @param toId the last patient ID, inclusive
+     */
+    public void warm(int fromId, int toId) {
+        long start = System.nanoTime();
+        for (int id = fromId; id <= toId; id++) {
+            get(String.valueOf(id));
+        }
+        logger.info("Patient record cache warmed with " + cache.size() + " records in "
+            + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Drops a patient's record, e.g. after it changed in the underlying store.
+     *
+     * @param patientId the ID of the patient
+     */
+    public void invalidate(String patientId) {
+        cache.invalidate(patientId);
+    }
+
+    /**
+     * @return the number of cached records
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * @return the number of lookups that had to load the record
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * @return the number of records removed by the eviction policy
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * @return a one-line summary of the cache statistics for logging
+     */
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return String.format("PatientRecordCache[size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f]",
+            cache.size(), stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate());
+    }
+}
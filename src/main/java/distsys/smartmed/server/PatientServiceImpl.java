@@ -6,27 +6,185 @@ package distsys.smartmed.server;
 
 /**
  * Implementation of gRPC service for patient-related operations.
- * Handles requests to fetch patient records and generates synthetic patient data.
+ * Handles requests to fetch patient records from a {@link PatientRepository}.
+ * Records are served from a bounded {@link PatientRecordCache}, warmed at startup with the first
+ * patients of the synthetic store. The batch RPCs split
+ * their IDs into contiguous chunks resolved in parallel on a shared lookup pool.
  * 
  * @author anukratimehta
  */
 
 import com.healthcare.grpc.patient.*;
 import distsys.smartmed.common.ValidationUtils;
+import distsys.smartmed.storage.MappedPatientRepository;
+import distsys.smartmed.storage.PatientRepository;
+import distsys.smartmed.storage.SyntheticPatientRepository;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import distsys.smartmed.common.LoggingUtils;
+import distsys.smartmed.common.ThreadUtils;
 
 // gRPC service implementation for PatientService
 public class PatientServiceImpl extends PatientServiceGrpc.PatientServiceImplBase {
     // Logger instance to log activities in this service
     private static final Logger logger = Logger.getLogger(PatientServiceImpl.class.getName());
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    public static final int DEFAULT_WARM_LIMIT = 1000;
+    public static final int DEFAULT_SEED_LIMIT = 10000;
+
+    // Smallest number of IDs worth handing to another thread; cached lookups take well under a microsecond
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    /**
+     * Receives the result of one ID of a batch, identified by its position in the request.
+     */
+    private interface ResultSink {
+        void accept(int index, PatientRecordResult result);
+    }
+
+    private final PatientRepository repository;
+    private final PatientRecordCache recordCache;
+    private final ExecutorService lookupPool;
+    private final int lookupThreads;
+    private final int maxBatchSize;
+
+    /**
+     * Creates the service on the repository selected by the system property
+     * {@code smartmed.patient.store}: "synthetic" (default) generates records on the fly, and
+     * "mapped" serves them from the persistent store in {@code smartmed.patient.storeDir}
+     * (default: data/patients), seeding an empty store with the first
+     * {@code smartmed.patient.seedLimit} valid patient IDs (default 10000).
+     * The cache eviction policy is read from {@code smartmed.patient.cacheSpec} (Guava cache
+     * specification, default {@value PatientRecordCache#DEFAULT_SPEC}). The first
+     * {@code smartmed.patient.warmLimit} valid patient IDs (default 1000) are loaded up front if
+     * {@code smartmed.patient.warmCache} is true, which is the default for the synthetic store;
+     * the mapped store reads records on demand and is not warmed by default. Batch requests are resolved on
+     * {@code smartmed.patient.lookupThreads} threads (default: number of cores) and limited to
+     * {@code smartmed.patient.maxBatchSize} IDs (default 1000).
+     */
+    public PatientServiceImpl() {
+        this(createRepository(System.getProperty("smartmed.patient.store", "synthetic")),
+            System.getProperty("smartmed.patient.cacheSpec", PatientRecordCache.DEFAULT_SPEC),
+            Integer.getInteger("smartmed.patient.lookupThreads", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("smartmed.patient.maxBatchSize", DEFAULT_MAX_BATCH_SIZE));
+        boolean synthetic = repository instanceof SyntheticPatientRepository;
+        if (Boolean.parseBoolean(System.getProperty("smartmed.patient.warmCache", String.valueOf(synthetic)))) {
+            recordCache.warm(ValidationUtils.PATIENT_ID_MIN,
+                lastId(Integer.getInteger("smartmed.patient.warmLimit", DEFAULT_WARM_LIMIT)));
+        }
+    }
+
+    /**
+     * @param count the number of IDs wanted from the start of the valid range
+     * @return the last valid patient ID of the first {@code count} IDs
+     */
+    private static int lastId(int count) {
+        return (int) Math.min(ValidationUtils.PATIENT_ID_MAX, (long) ValidationUtils.PATIENT_ID_MIN + count - 1);
+    }
+
+    /**
+     * Creates the service on a caller-provided repository.
+     *
+     * @param repository the store the patient records are read from
+     * @param cacheSpec the Guava cache specification of the record cache, may be empty
+     */
+    public PatientServiceImpl(PatientRepository repository, String cacheSpec) {
+        this(repository, cacheSpec, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates the service on a caller-provided repository with explicit batch settings.
+     *
+     * @param repository the store the patient records are read from
+     * @param cacheSpec the Guava cache specification of the record cache, may be empty
+     * @param lookupThreads the number of threads resolving batch requests
+     * @param maxBatchSize the maximum number of IDs in one batch request
+     */
+    public PatientServiceImpl(PatientRepository repository, String cacheSpec, int lookupThreads, int maxBatchSize) {
+        if (lookupThreads <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("lookupThreads and maxBatchSize must be positive");
+        }
+        this.repository = repository;
+        this.recordCache = new PatientRecordCache(repository::findById, cacheSpec);
+        this.lookupThreads = lookupThreads;
+        this.maxBatchSize = maxBatchSize;
+        this.lookupPool = Executors.newFixedThreadPool(lookupThreads, ThreadUtils.daemonThreadFactory("patient-lookup"));
+    }
+
+    /**
+     * Opens the patient repository of the given kind.
+     *
+     * @param store "synthetic" or "mapped"
+     * @return the opened repository
+     * @throws IllegalArgumentException if the store kind is unknown
+     * @throws UncheckedIOException if the persistent store cannot be opened
+     */
+    private static PatientRepository createRepository(String store) {
+        switch (store) {
+            case "synthetic":
+                return new SyntheticPatientRepository(ValidationUtils.PATIENT_ID_MIN, ValidationUtils.PATIENT_ID_MAX);
+            case "mapped":
+                try {
+                    MappedPatientRepository repository = new MappedPatientRepository(
+                        Paths.get(System.getProperty("smartmed.patient.storeDir", "data/patients")));
+                    if (repository.count() == 0) {
+                        seed(repository);
+                    }
+                    return repository;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to open patient store", e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown patient store: " + store + " (expected synthetic or mapped)");
+        }
+    }
+
+    /**
+     * Fills an empty persistent store with synthetic records for the first valid patient IDs,
+     * up to the seed limit; IDs beyond it are reported as not found until records are saved.
+     *
+     * @param repository the store to fill
+     */
+    private static void seed(MappedPatientRepository repository) {
+        long start = System.nanoTime();
+        int last = lastId(Integer.getInteger("smartmed.patient.seedLimit", DEFAULT_SEED_LIMIT));
+        for (int id = ValidationUtils.PATIENT_ID_MIN; id <= last; id++) {
+            repository.save(SyntheticPatientRepository.generatePatientRecord(String.valueOf(id)));
+        }
+        repository.flush();
+        logger.info("Seeded patient store with " + repository.count() + " records in "
+            + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * @return the repository the records are read from
+     */
+    public PatientRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * @return the record cache, exposing its hit, miss and eviction counters
+     */
+    public PatientRecordCache getRecordCache() {
+        return recordCache;
+    }
     
     /**
      * Handles the getPatientRecord gRPC call.
-     * Validates the request, generates a synthetic patient record,
+     * Validates the request, looks up the (cached) patient record,
      * and sends the response back to the client.
      */
     @Override
@@ -39,8 +197,14 @@ public class PatientServiceImpl extends PatientServiceGrpc.PatientServiceImplBas
             // Log service start
             LoggingUtils.logServiceStart(logger, "PatientService", patientId);
 
-            // Generate a synthetic patient record based on the patient ID
-            PatientResponse response = generatePatientRecord(patientId);
+            // Look up the patient record, loading it from the repository on the first request
+            PatientResponse response = recordCache.get(patientId);
+            if (response == null) {
+                LoggingUtils.logServiceEnd(logger, "PatientService", patientId, "Record not found");
+                responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("No record for patient " + patientId).asRuntimeException());
+                return;
+            }
 
             // Send the response to the client
             responseObserver.onNext(response);
@@ -61,88 +225,166 @@ public class PatientServiceImpl extends PatientServiceGrpc.PatientServiceImplBas
     }
 
     /**
-     * Generates a synthetic patient record using the patient ID.
-     * Ensures consistent data for the same ID by seeding Random with hash.
+     * Handles the GetPatientRecords gRPC call.
+     * Resolves every requested ID in parallel and answers with one result per ID, in request order.
+     */
+    @Override
+    public void getPatientRecords(PatientBatchRequest request, StreamObserver<PatientBatchResponse> responseObserver) {
+        List<String> patientIds;
+        try {
+            patientIds = expandIds(request);
+        } catch (IllegalArgumentException e) {
+            LoggingUtils.logError(logger, "PatientService", "batch", e, true);
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        String batch = patientIds.size() + " patients";
+        LoggingUtils.logServiceStart(logger, "PatientService", batch);
+
+        PatientRecordResult[] results = new PatientRecordResult[patientIds.size()];
+        resolveInParallel(patientIds, (index, result) -> results[index] = result, () -> {
+            responseObserver.onNext(PatientBatchResponse.newBuilder().addAllResults(Arrays.asList(results)).build());
+            responseObserver.onCompleted();
+            LoggingUtils.logServiceEnd(logger, "PatientService", batch, "Records fetched");
+        }, null);
+    }
+
+    /**
+     * Handles the StreamPatientRecords gRPC call.
+     * Resolves every requested ID in parallel and streams each result as soon as it is ready,
+     * so the order of the results follows completion rather than the request.
+     */
+    @Override
+    public void streamPatientRecords(PatientBatchRequest request, StreamObserver<PatientRecordResult> responseObserver) {
+        List<String> patientIds;
+        try {
+            patientIds = expandIds(request);
+        } catch (IllegalArgumentException e) {
+            LoggingUtils.logError(logger, "PatientService", "batch", e, true);
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        String batch = patientIds.size() + " patients";
+        LoggingUtils.logServiceStart(logger, "PatientService", batch);
+
+        ServerCallStreamObserver<PatientRecordResult> call = (ServerCallStreamObserver<PatientRecordResult>) responseObserver;
+        resolveInParallel(patientIds, (index, result) -> {
+            // Chunks complete on different threads; the observer is not thread-safe
+            synchronized (call) {
+                if (!call.isCancelled()) {
+                    call.onNext(result);
+                }
+            }
+        }, () -> {
+            synchronized (call) {
+                if (!call.isCancelled()) {
+                    call.onCompleted();
+                }
+            }
+            LoggingUtils.logServiceEnd(logger, "PatientService", batch, "Records streamed");
+        }, call);
+    }
+
+    /**
+     * Collects the IDs of a batch request: the listed IDs followed by the range, if any.
      *
-     * @param patientId the ID of the patient
-     * @return a generated PatientResponse object
+     * @param request the batch request
+     * @return the IDs to resolve, in request order
+     * @throws IllegalArgumentException if the range is inverted or the batch is too large
      */
-    private PatientResponse generatePatientRecord(String patientId) {
-        logger.fine("Generating patient record for: " + patientId);
+    private List<String> expandIds(PatientBatchRequest request) {
+        long rangeSize = 0;
+        if (request.hasRange()) {
+            PatientIdRange range = request.getRange();
+            if (range.getFromId() > range.getToId()) {
+                throw new IllegalArgumentException("Patient ID range is inverted: "
+                    + range.getFromId() + "-" + range.getToId());
+            }
+            rangeSize = (long) range.getToId() - range.getFromId() + 1;
+        }
+        long total = request.getPatientIdsCount() + rangeSize;
+        if (total > maxBatchSize) {
+            throw new IllegalArgumentException("Batch of " + total + " patients exceeds the limit of " + maxBatchSize);
+        }
+        List<String> patientIds = new ArrayList<>((int) total);
+        patientIds.addAll(request.getPatientIdsList());
+        for (long id = request.getRange().getFromId(); id < request.getRange().getFromId() + rangeSize; id++) {
+            patientIds.add(String.valueOf(id));
+        }
+        return patientIds;
+    }
 
-        // Sample first and last names
-        String[] firstNames = {
-            "John", "Jane", "Robert", "Emily", "Michael", "Sarah", "David", "Lisa",
-            "James", "Mary", "William", "Jennifer", "Richard", "Jessica", "Thomas", "Elizabeth"
-        };
-        
-        String[] lastNames = {
-            "Smith", "Johnson", "Williams", "Brown", "Jones", "Miller", "Davis", "Wilson",
-            "Anderson", "Taylor", "Thomas", "White", "Harris", "Martin", "Thompson", "Garcia"
-        };
-        
-        // Sample medical conditions with ICD-10 codes
-        String[][] conditions = {
-            {"Hypertension", "I10"}, 
-            {"Type 2 Diabetes", "E11.9"},
-            {"Asthma", "J45.909"},
-            {"Major Depressive Disorder", "F32.9"},
-            {"Osteoarthritis", "M17.9"},
-            {"Hyperlipidemia", "E78.5"},
-            {"GERD", "K21.9"},
-            {"Chronic Kidney Disease", "N18.9"},
-            {"COPD", "J44.9"},
-            {"Hypothyroidism", "E03.9"}
-        };
-        
-        // Sample medications with their categories
-        String[][] medications = {
-            {"Metformin 500mg", "Antidiabetic"},
-            {"Lisinopril 10mg", "ACE Inhibitor"},
-            {"Ibuprofen 400mg", "NSAID"},
-            {"Atorvastatin 20mg", "Statin"},
-            {"Sertraline 50mg", "SSRI"},
-            {"Albuterol Inhaler", "Bronchodilator"},
-            {"Omeprazole 20mg", "PPI"},
-            {"Levothyroxine 50mcg", "Thyroid Hormone"},
-            {"Losartan 50mg", "ARB"},
-            {"Amlodipine 5mg", "Calcium Channel Blocker"}
-        };
-        
-        // Generate consistent pseudo-random data based on the patientId
-        int hash = patientId.hashCode();
-        Random rand = new Random(hash); // Use hash as seed for consistency
+    /**
+     * Resolves IDs on the lookup pool in contiguous chunks, one per thread at most.
+     * Small batches are resolved on the calling thread.
+     *
+     * @param patientIds the IDs to resolve
+     * @param sink receives each result with its position in patientIds
+     * @param onDone called once after every result was delivered
+     * @param call the streaming call, checked to stop early if the client cancels; may be null
+     */
+    private void resolveInParallel(List<String> patientIds, ResultSink sink, Runnable onDone,
+                                   ServerCallStreamObserver<?> call) {
+        int size = patientIds.size();
+        int chunks = Math.max(1, Math.min(lookupThreads, size / MIN_CHUNK_SIZE));
+        AtomicInteger pending = new AtomicInteger(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = (int) ((long) size * chunk / chunks);
+            int to = (int) ((long) size * (chunk + 1) / chunks);
+            Runnable task = () -> {
+                for (int i = from; i < to && (call == null || !call.isCancelled()); i++) {
+                    sink.accept(i, resolve(patientIds.get(i)));
+                }
+                // The last chunk to finish sees every result written by the others
+                if (pending.decrementAndGet() == 0) {
+                    onDone.run();
+                }
+            };
+            if (chunks == 1) {
+                task.run();
+            } else {
+                lookupPool.execute(task);
+            }
+        }
+    }
 
-        // Choose a name based on hash
-        String name = firstNames[Math.abs(hash) % firstNames.length] + " " + 
-                      lastNames[Math.abs(hash / 31) % lastNames.length];
-        
-        // Generate a list of 1 to 3 medical conditions
-        List<String> medicalHistory = new ArrayList<>();
-        int conditionCount = 1 + Math.abs(hash) % 3;
-        for (int i = 0; i < conditionCount; i++) {
-            String[] condition = conditions[(Math.abs(hash) + i) % conditions.length];
-            int diagnosisYear = 2015 + Math.abs(hash + i) % 9; // Years from 2015 to 2023
-            medicalHistory.add(condition[0] + " (" + condition[1] + ") dx. " + diagnosisYear);
+    /**
+     * Looks up one ID of a batch, turning every failure into a per-ID status.
+     *
+     * @param patientId the ID of the patient
+     * @return the result for the ID
+     */
+    private PatientRecordResult resolve(String patientId) {
+        PatientRecordResult.Builder result = PatientRecordResult.newBuilder().setPatientId(patientId);
+        if (!ValidationUtils.isValidPatientId(patientId)) {
+            return result.setStatus(RecordStatus.RECORD_STATUS_INVALID_ID)
+                .setErrorMessage(String.format("Patient ID must be between %d-%d",
+                    ValidationUtils.PATIENT_ID_MIN, ValidationUtils.PATIENT_ID_MAX))
+                .build();
         }
-        
-        // Decide if the patient is currently on medication (80% chance)
-        String currentMedication = "None";
-        if (rand.nextDouble() > 0.2) {
-            String[] medication = medications[Math.abs(hash) % medications.length];
-            currentMedication = medication[0] + " (" + medication[1] + ")";
+        try {
+            PatientResponse record = recordCache.get(patientId);
+            if (record == null) {
+                return result.setStatus(RecordStatus.RECORD_STATUS_NOT_FOUND)
+                    .setErrorMessage("No record for patient " + patientId)
+                    .build();
+            }
+            return result.setStatus(RecordStatus.RECORD_STATUS_OK).setRecord(record).build();
+        } catch (RuntimeException e) {
+            LoggingUtils.logError(logger, "PatientService", patientId, e, false);
+            return result.setStatus(RecordStatus.RECORD_STATUS_ERROR).setErrorMessage("Server error").build();
+        }
+    }
+
+    /**
+     * Stops the batch lookup pool and closes the patient repository.
+     */
+    public void shutdown() {
+        lookupPool.shutdown();
+        try {
+            repository.close();
+        } catch (IOException e) {
+            logger.warning("Failed to close patient repository: " + e.getMessage());
         }
-        
-        // Generate age between 20 and 80
-        int age = 20 + Math.abs(hash) % 61;
-        
-        // Build and return the patient response
-        return PatientResponse.newBuilder()
-            .setPatientId(patientId)
-            .setName(name)
-            .setAge(age)
-            .setCurrentMedication(currentMedication)
-            .addAllMedicalHistory(medicalHistory)
-            .build();
     }
 }
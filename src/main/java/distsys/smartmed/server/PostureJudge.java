@@ -0,0 +1,72 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+/**
+ * Judges the samples of one exercise session against a compiled {@link PostureRules.ExerciseRule}.
+ * Holds the session's rolling window of angles in a preallocated ring, so each sample is judged
+ * in constant time without allocating. Not thread-safe; each session owns its judge.
+ *
+ * @author anukratimehta
+ */
+public final class PostureJudge {
+    private final PostureRules.ExerciseRule rule;
+    private final double[] window;
+    private int next = 0;
+    private int filled = 0;
+    private double sum = 0;
+    private long lastRepNanos = 0;  // Time of the previous sample on the clock of the caller
+    private boolean hasLastRep = false;
+
+    PostureJudge(PostureRules.ExerciseRule rule) {
+        this.rule = rule;
+        this.window = new double[rule.smoothing];
+    }
+
+    /**
+     * @return the rule this judge applies
+     */
+    public PostureRules.ExerciseRule getRule() {
+        return rule;
+    }
+
+    /**
+     * Judges one sample. The angle band is checked against the rolling mean of the last
+     * samples; the tempo is checked only when the angle is fine. The times of one session must
+     * come from the same clock.
+     *
+     * @param angle the posture angle of the sample, in degrees
+     * @param nanoTime the time the sample was taken, in nanoseconds
+     * @return the verdict with its prebuilt feedback
+     */
+    public PostureRules.Verdict judge(double angle, long nanoTime) {
+        // Rolling mean over the ring; the running sum is corrected by the value falling out
+        if (filled == window.length) {
+            sum -= window[next];
+        } else {
+            filled++;
+        }
+        window[next] = angle;
+        sum += angle;
+        next = next + 1 == window.length ? 0 : next + 1;
+        double smoothed = sum / filled;
+
+        long sinceLastRep = nanoTime - lastRepNanos;
+        boolean tempoKnown = hasLastRep;
+        lastRepNanos = nanoTime;
+        hasLastRep = true;
+
+        if (smoothed < rule.minAngle) {
+            return rule.tooLow;
+        } else if (smoothed > rule.maxAngle) {
+            return rule.tooHigh;
+        } else if (tempoKnown && rule.minTempoNanos > 0 && sinceLastRep < rule.minTempoNanos) {
+            return rule.tooFast;
+        } else if (tempoKnown && rule.maxTempoNanos > 0 && sinceLastRep > rule.maxTempoNanos) {
+            return rule.tooSlow;
+        }
+        return rule.good;
+    }
+}
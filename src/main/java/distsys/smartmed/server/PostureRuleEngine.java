@@ -0,0 +1,128 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import distsys.smartmed.common.ThreadUtils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Source of the current {@link PostureRules}, optionally hot-reloaded from a file.
+ * A background check compares the file's modification time at a fixed interval and swaps in
+ * the recompiled rules; a file that fails to compile is logged and the previous rules stay
+ * active. A failed version is retried on every check until it loads, since a file caught
+ * mid-write may be completed without its modification time changing. Sessions pick up new
+ * rules on their next sample.
+ *
+ * @author anukratimehta
+ */
+public class PostureRuleEngine {
+    private static final Logger logger = Logger.getLogger(PostureRuleEngine.class.getName());
+
+    private final Path file;
+    private final ScheduledExecutorService reloader;
+    private volatile PostureRules rules;
+    private FileTime loadedModified;
+    private FileTime failedModified;  // Version whose failure was already logged as a warning
+
+    /**
+     * Creates an engine with fixed rules and no reloading.
+     *
+     * @param rules the rules to apply
+     */
+    public PostureRuleEngine(PostureRules rules) {
+        this.file = null;
+        this.reloader = null;
+        this.rules = rules;
+    }
+
+    /**
+     * Creates an engine that loads its rules from a file and reloads them when it changes.
+     *
+     * @param file the rules file
+     * @param reloadIntervalMillis how often the file is checked for changes
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the rules in the file are invalid
+     */
+    public PostureRuleEngine(Path file, long reloadIntervalMillis) throws IOException {
+        this.file = file;
+        this.loadedModified = Files.getLastModifiedTime(file);
+        this.rules = PostureRules.load(file);
+        logger.info("Loaded posture rules for " + rules.size() + " exercises from " + file);
+        this.reloader = Executors.newSingleThreadScheduledExecutor(ThreadUtils.daemonThreadFactory("posture-rules"));
+        reloader.scheduleWithFixedDelay(this::reloadIfModified, reloadIntervalMillis, reloadIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the engine configured through system properties: the rules are read from
+     * {@code smartmed.rehab.rulesFile} and checked for changes every
+     * {@code smartmed.rehab.rulesReloadMillis} (default 2000), or taken from the bundled
+     * rules if no file is set.
+     *
+     * @return the engine
+     * @throws IllegalStateException if the configured file cannot be loaded
+     */
+    public static PostureRuleEngine fromSystemProperties() {
+        String path = System.getProperty("smartmed.rehab.rulesFile");
+        if (path == null || path.isEmpty()) {
+            return new PostureRuleEngine(PostureRules.loadDefault());
+        }
+        try {
+            return new PostureRuleEngine(Paths.get(path), Long.getLong("smartmed.rehab.rulesReloadMillis", 2000L));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Failed to load posture rules from " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the rules currently in force
+     */
+    public PostureRules current() {
+        return rules;
+    }
+
+    /**
+     * Reloads the rules file if its modification time changed since the last successful load.
+     */
+    void reloadIfModified() {
+        FileTime modified = null;
+        try {
+            modified = Files.getLastModifiedTime(file);
+            if (modified.equals(loadedModified)) {
+                return;
+            }
+            rules = PostureRules.load(file);
+            // Only a parsed version counts as loaded, so a failed one is tried again
+            loadedModified = modified;
+            failedModified = null;
+            logger.info("Reloaded posture rules for " + rules.size() + " exercises from " + file);
+        } catch (IOException | IllegalArgumentException e) {
+            // Keep serving the previous rules until the file is fixed; warn once per version
+            if (modified == null || !modified.equals(failedModified)) {
+                failedModified = modified;
+                logger.warning("Failed to reload posture rules from " + file + ": " + e.getMessage());
+            } else {
+                logger.fine("Posture rules in " + file + " still invalid: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops watching the rules file.
+     */
+    public void shutdown() {
+        if (reloader != null) {
+            reloader.shutdown();
+        }
+    }
+}
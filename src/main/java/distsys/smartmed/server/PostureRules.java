@@ -0,0 +1,297 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import com.healthcare.grpc.rehab.ExerciseFeedback;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Immutable, compiled set of posture rules keyed by exercise name.
+ * Rules are parsed from a properties file (see {@code posture-rules.properties}) into one
+ * {@link ExerciseRule} per exercise with all of its feedback messages prebuilt, so judging a
+ * sample is a table lookup and a few comparisons.
+ *
+ * @author anukratimehta
+ */
+public final class PostureRules {
+    public static final String DEFAULT_RESOURCE = "/posture-rules.properties";
+
+    private static final String DEFAULT_KEY = "default";
+
+    private final Map<String, ExerciseRule> byExercise;
+    private final ExerciseRule defaultRule;
+
+    private PostureRules(Map<String, ExerciseRule> byExercise, ExerciseRule defaultRule) {
+        this.byExercise = byExercise;
+        this.defaultRule = defaultRule;
+    }
+
+    /**
+     * Loads the rules bundled with the server.
+     *
+     * @return the compiled rules
+     * @throws IllegalStateException if the bundled rules are missing or invalid
+     */
+    public static PostureRules loadDefault() {
+        try (InputStream in = PostureRules.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource " + DEFAULT_RESOURCE);
+            }
+            return parse(read(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + DEFAULT_RESOURCE, e);
+        }
+    }
+
+    /**
+     * Loads rules from a file.
+     *
+     * @param file the rules file
+     * @return the compiled rules
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the rules are invalid
+     */
+    public static PostureRules load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(read(reader));
+        }
+    }
+
+    private static Properties read(Reader reader) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        return properties;
+    }
+
+    /**
+     * Compiles rules from their properties. Every key other than "default" defines the
+     * exercise named by its {@code .name} property, falling back to the default rule's values.
+     *
+     * @param properties the rule properties
+     * @return the compiled rules
+     * @throws IllegalArgumentException if a value is missing, not a number, or out of range
+     */
+    public static PostureRules parse(Properties properties) {
+        ExerciseRule defaultRule = ExerciseRule.compile(DEFAULT_KEY, properties, null);
+        TreeSet<String> keys = new TreeSet<>();
+        for (String property : properties.stringPropertyNames()) {
+            int dot = property.indexOf('.');
+            if (dot > 0 && !property.substring(0, dot).equals(DEFAULT_KEY)) {
+                keys.add(property.substring(0, dot));
+            }
+        }
+        Map<String, ExerciseRule> byExercise = new HashMap<>();
+        for (String key : keys) {
+            ExerciseRule rule = ExerciseRule.compile(key, properties, defaultRule);
+            if (byExercise.put(rule.exercise, rule) != null) {
+                throw new IllegalArgumentException("Exercise " + rule.exercise + " is configured twice");
+            }
+        }
+        return new PostureRules(byExercise, defaultRule);
+    }
+
+    /**
+     * Returns the rule of an exercise.
+     *
+     * @param exerciseName the exercise name as sent by the client
+     * @return the exercise's rule, or the default rule for unknown exercises
+     */
+    public ExerciseRule forExercise(String exerciseName) {
+        ExerciseRule rule = byExercise.get(exerciseName);
+        return rule != null ? rule : defaultRule;
+    }
+
+    /**
+     * @return the number of exercises with their own rules
+     */
+    public int size() {
+        return byExercise.size();
+    }
+
+    /**
+     * The outcome of judging one sample, with its prebuilt feedback message.
+     */
+    public static final class Verdict {
+        private final ExerciseFeedback template;
+        private final boolean goodPosture;
+        private final boolean corrective;
+
+        Verdict(String message, String severity, boolean goodPosture, boolean corrective) {
+            this.template = ExerciseFeedback.newBuilder()
+                .setMessage(message)
+                .setSeverity(severity)
+                .build();
+            this.goodPosture = goodPosture;
+            this.corrective = corrective;
+        }
+
+        /**
+         * @return true if the angle was within the exercise's band
+         */
+        public boolean isGoodPosture() {
+            return goodPosture;
+        }
+
+        /**
+         * @return true if the verdict asks the patient to correct something
+         */
+        public boolean isCorrective() {
+            return corrective;
+        }
+
+        /**
+         * @return the feedback message without a repetition number
+         */
+        public ExerciseFeedback getTemplate() {
+            return template;
+        }
+
+        /**
+         * @param repetitionNumber the repetition the feedback refers to
+         * @return the feedback message for the repetition
+         */
+        public ExerciseFeedback feedbackFor(int repetitionNumber) {
+            return template.toBuilder().setRepetitionNumber(repetitionNumber).build();
+        }
+    }
+
+    /**
+     * The compiled rule of one exercise.
+     */
+    public static final class ExerciseRule {
+        final String exercise;
+        final double minAngle;
+        final double maxAngle;
+        final int smoothing;
+        final long minTempoNanos;
+        final long maxTempoNanos;
+        final Verdict tooLow;
+        final Verdict tooHigh;
+        final Verdict good;
+        final Verdict tooFast;
+        final Verdict tooSlow;
+
+        private ExerciseRule(String exercise, double minAngle, double maxAngle, int smoothing,
+                             long minTempoMillis, long maxTempoMillis, String tooLowMessage,
+                             String tooHighMessage, String goodMessage, String tooFastMessage,
+                             String tooSlowMessage) {
+            this.exercise = exercise;
+            this.minAngle = minAngle;
+            this.maxAngle = maxAngle;
+            this.smoothing = smoothing;
+            this.minTempoNanos = minTempoMillis * 1000000L;
+            this.maxTempoNanos = maxTempoMillis * 1000000L;
+            this.tooLow = new Verdict(tooLowMessage, "WARNING", false, true);
+            this.tooHigh = new Verdict(tooHighMessage, "WARNING", false, true);
+            this.good = new Verdict(goodMessage, "INFO", true, false);
+            this.tooFast = new Verdict(tooFastMessage, "WARNING", true, true);
+            this.tooSlow = new Verdict(tooSlowMessage, "WARNING", true, true);
+        }
+
+        /**
+         * Compiles the rule stored under a key.
+         *
+         * @param key the property key prefix
+         * @param properties the rule properties
+         * @param fallback the rule supplying missing values, or null for the default rule itself
+         * @return the compiled rule
+         */
+        static ExerciseRule compile(String key, Properties properties, ExerciseRule fallback) {
+            String exercise = fallback == null ? "" : require(properties, key, "name");
+            double minAngle = doubleValue(properties, key, "minAngle", fallback == null ? null : fallback.minAngle);
+            double maxAngle = doubleValue(properties, key, "maxAngle", fallback == null ? null : fallback.maxAngle);
+            int smoothing = (int) longValue(properties, key, "smoothing", fallback == null ? 1 : fallback.smoothing);
+            long minTempo = longValue(properties, key, "minTempoMillis",
+                fallback == null ? 0 : fallback.minTempoNanos / 1000000L);
+            long maxTempo = longValue(properties, key, "maxTempoMillis",
+                fallback == null ? 0 : fallback.maxTempoNanos / 1000000L);
+            if (minAngle > maxAngle) {
+                throw new IllegalArgumentException(key + ": minAngle must not exceed maxAngle");
+            }
+            if (smoothing < 1 || smoothing > 1000) {
+                throw new IllegalArgumentException(key + ".smoothing must be between 1 and 1000");
+            }
+            if (minTempo < 0 || maxTempo < 0 || (maxTempo > 0 && minTempo > maxTempo)) {
+                throw new IllegalArgumentException(key + ": tempo limits must be non-negative and ordered");
+            }
+            return new ExerciseRule(exercise, minAngle, maxAngle, smoothing, minTempo, maxTempo,
+                message(properties, key, "tooLowMessage", fallback == null ? null : fallback.tooLow),
+                message(properties, key, "tooHighMessage", fallback == null ? null : fallback.tooHigh),
+                message(properties, key, "goodMessage", fallback == null ? null : fallback.good),
+                message(properties, key, "tooFastMessage", fallback == null ? null : fallback.tooFast),
+                message(properties, key, "tooSlowMessage", fallback == null ? null : fallback.tooSlow));
+        }
+
+        /**
+         * @return a new judge holding the per-session state of this rule
+         */
+        public PostureJudge newJudge() {
+            return new PostureJudge(this);
+        }
+
+        /**
+         * @return the exercise name, empty for the default rule
+         */
+        public String getExercise() {
+            return exercise;
+        }
+
+        private static String require(Properties properties, String key, String name) {
+            String value = properties.getProperty(key + "." + name);
+            if (value == null || value.trim().isEmpty()) {
+                throw new IllegalArgumentException("Missing " + key + "." + name);
+            }
+            return value.trim();
+        }
+
+        private static String message(Properties properties, String key, String name, Verdict fallback) {
+            String value = properties.getProperty(key + "." + name);
+            if (value != null && !value.trim().isEmpty()) {
+                return value.trim();
+            }
+            if (fallback == null) {
+                return require(properties, key, name);
+            }
+            return fallback.template.getMessage();
+        }
+
+        private static double doubleValue(Properties properties, String key, String name, Double fallback) {
+            String value = properties.getProperty(key + "." + name);
+            if (value == null) {
+                if (fallback == null) {
+                    throw new IllegalArgumentException("Missing " + key + "." + name);
+                }
+                return fallback;
+            }
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + "." + name + " is not a number: " + value);
+            }
+        }
+
+        private static long longValue(Properties properties, String key, String name, long fallback) {
+            String value = properties.getProperty(key + "." + name);
+            if (value == null) {
+                return fallback;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + "." + name + " is not an integer: " + value);
+            }
+        }
+    }
+}
@@ -7,22 +7,124 @@ package distsys.smartmed.server;
 /**
  * gRPC service implementation for live exercise feedback during rehabilitation sessions.
  * Provides real-time posture analysis and a summary of performance at the end.
- * 
+ * The stream is flow-controlled in both directions: inputs are only requested while the
+ * client can take feedback, so feedback waiting to be sent never exceeds the input window.
+ * Feedback can be coalesced to one message per N reps or per time window; a window is sent
+ * when it ends, even if no further rep arrives. Samples are judged
+ * against per-exercise rules from a {@link PostureRuleEngine}. The tempo is judged on the
+ * client's timestamps, since deferred inputs reach the handler in bursts; inputs without one
+ * fall back to their arrival time.
+ *
  * @author anukratimehta
  */
 
 import com.healthcare.grpc.rehab.*;
+import distsys.smartmed.common.ThreadUtils;
 import distsys.smartmed.common.ValidationUtils;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import distsys.smartmed.common.LoggingUtils;
 
 public class RehabServiceImpl extends RehabServiceGrpc.RehabServiceImplBase {
     private static final Logger logger = Logger.getLogger(RehabServiceImpl.class.getName());
 
+    // Inputs a session may have requested from the client before they are processed;
+    // also bounds the feedback a session holds while the client is not ready
+    private static final int INPUT_WINDOW = 32;
+
+    /**
+     * How often feedback is sent while the client streams repetitions.
+     */
+    public enum FeedbackMode {
+        /** One feedback message per repetition. */
+        PER_REP,
+        /** One feedback message per N repetitions. */
+        EVERY_N,
+        /** At most one feedback message per time window, sent when the window ends. */
+        WINDOW;
+
+        /**
+         * Parses a mode name such as "per-rep", "every-n" or "WINDOW", ignoring case.
+         *
+         * @param name the mode name
+         * @return the matching mode
+         * @throws IllegalArgumentException if the name is not a known mode
+         */
+        public static FeedbackMode parse(String name) {
+            try {
+                return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown feedback mode: " + name
+                    + " (expected per-rep, every-n or window)");
+            }
+        }
+    }
+
+    private final PostureRuleEngine ruleEngine;
+    private final FeedbackMode feedbackMode;
+    private final int feedbackEvery;
+    private final long feedbackWindowNanos;
+    // Sends the feedback of windows that end without a further rep; only in WINDOW mode
+    private final ScheduledExecutorService windowScheduler;
+
+    /**
+     * Creates the service configured through system properties:
+     * {@code smartmed.rehab.feedbackMode} (per-rep, every-n or window; default per-rep),
+     * {@code smartmed.rehab.feedbackEvery} (reps per feedback in every-n mode, default 5) and
+     * {@code smartmed.rehab.feedbackWindowMillis} (window length in window mode, default 500).
+     * Posture rules are configured as described in {@link PostureRuleEngine#fromSystemProperties()}.
+     */
+    public RehabServiceImpl() {
+        this(PostureRuleEngine.fromSystemProperties(),
+            FeedbackMode.parse(System.getProperty("smartmed.rehab.feedbackMode", "per-rep")),
+            Integer.getInteger("smartmed.rehab.feedbackEvery", 5),
+            Long.getLong("smartmed.rehab.feedbackWindowMillis", 500L));
+    }
+
+    /**
+     * Creates the service with explicit rules and coalescing configuration.
+     *
+     * @param ruleEngine the source of the posture rules
+     * @param feedbackMode how often feedback is sent
+     * @param feedbackEvery the number of reps per feedback in {@link FeedbackMode#EVERY_N} mode
+     * @param feedbackWindowMillis the window length in {@link FeedbackMode#WINDOW} mode
+     */
+    public RehabServiceImpl(PostureRuleEngine ruleEngine, FeedbackMode feedbackMode, int feedbackEvery,
+                            long feedbackWindowMillis) {
+        if (feedbackEvery <= 0 || feedbackWindowMillis <= 0) {
+            throw new IllegalArgumentException("feedbackEvery and feedbackWindowMillis must be positive");
+        }
+        this.ruleEngine = ruleEngine;
+        this.feedbackMode = feedbackMode;
+        this.feedbackEvery = feedbackEvery;
+        this.feedbackWindowNanos = feedbackWindowMillis * 1000000L;
+        this.windowScheduler = feedbackMode == FeedbackMode.WINDOW
+            ? Executors.newSingleThreadScheduledExecutor(ThreadUtils.daemonThreadFactory("rehab-feedback"))
+            : null;
+    }
+
     /**
-     * Processes a live stream of ExerciseInput messages and sends immediate feedback
+     * Stops reloading the posture rules and sending window feedback.
+     */
+    public void shutdown() {
+        ruleEngine.shutdown();
+        if (windowScheduler != null) {
+            windowScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Processes a live stream of ExerciseInput messages and sends feedback
      * based on posture angle. Sends a summary upon stream completion.
      *
      * @param responseObserver StreamObserver to send ExerciseFeedback messages to the client
@@ -31,104 +133,276 @@ public class RehabServiceImpl extends RehabServiceGrpc.RehabServiceImplBase {
     @Override
     public StreamObserver<ExerciseInput> liveExerciseFeedback(
         StreamObserver<ExerciseFeedback> responseObserver) {
-        
-        return new StreamObserver<ExerciseInput>() {
-            private int totalReps = 0;
-            private int goodPostureCount = 0;
-            private String currentExercise = "";
-            private String patientId = "";
-
-            /**
-             * Called when a new repetition is received.
-             * Validates patient ID, evaluates posture, and sends real-time feedback.
-             *
-             * @param input the ExerciseInput from the client
-             */
-            @Override
-            public void onNext(ExerciseInput input) {
+
+        ServerCallStreamObserver<ExerciseFeedback> call = (ServerCallStreamObserver<ExerciseFeedback>) responseObserver;
+        Session session = new Session(call);
+        // gRPC serializes onReady with the inbound callbacks; the session locks itself only
+        // because the end of a feedback window is handled on the window scheduler
+        call.disableAutoRequest();
+        call.setOnReadyHandler(session::onReady);
+        call.request(INPUT_WINDOW);
+        return session;
+    }
+
+    /**
+     * State of one exercise session, driven by the inbound stream and the outbound readiness.
+     */
+    private final class Session implements StreamObserver<ExerciseInput> {
+        private final ServerCallStreamObserver<ExerciseFeedback> call;
+        private int totalReps = 0;
+        private int goodPostureCount = 0;
+        private String currentExercise = "";
+        private String patientId = null;
+        private boolean failed = false;
+
+        // Judge of the current exercise, replaced when the exercise or the rules change
+        private PostureRules rules = null;
+        private String judgedExercise = null;
+        private PostureJudge judge = null;
+        private boolean clientClock = false;  // Whether the tempo is measured on client timestamps
+
+        // Coalescing state: the feedback of the current group, sent when the group closes
+        private PostureRules.Verdict groupVerdict = null;
+        private int groupLastRep = 0;
+        private int groupReps = 0;
+        private long groupStartNanos = 0;
+        private int groupNumber = 0;  // Tells a window flush whether its group is still open
+        private ScheduledFuture<?> windowFlush = null;
+
+        // Flow control state
+        private final ArrayDeque<ExerciseFeedback> pending = new ArrayDeque<>(INPUT_WINDOW);
+        private int deferredRequests = 0;  // Inputs processed while the client was not ready
+
+        Session(ServerCallStreamObserver<ExerciseFeedback> call) {
+            this.call = call;
+        }
+
+        /**
+         * Called when a new repetition is received.
+         * Validates patient ID, evaluates posture, and sends or coalesces feedback.
+         *
+         * @param input the ExerciseInput from the client
+         */
+        @Override
+        public synchronized void onNext(ExerciseInput input) {
+            if (failed) {
+                return;
+            }
+            // Validate the patient ID only when it changes, not on every sample
+            if (!input.getPatientId().equals(patientId)) {
                 try {
-                    // Validate the patient ID
                     ValidationUtils.validatePatientId(input.getPatientId());
-                    
-                    // Initialize session with first input
-                    if (totalReps == 0) {
-                        patientId = input.getPatientId();
-                        currentExercise = input.getExerciseName();
-                        LoggingUtils.logServiceStart(logger, "RehabService", patientId);
-                    }
-
-                    totalReps++;
-                    double angle = input.getPostureAngle();
-                    
-                    // Determine feedback based on posture angle
-                    String feedbackMsg;
-                    String severity;
-                    if (angle < 30) {
-                        feedbackMsg = "Bend less at the knees";
-                        severity = "WARNING";
-                    } else if (angle > 45) {
-                        feedbackMsg = "Too rigid - relax your muscles";
-                        severity = "WARNING";
-                    } else {
-                        feedbackMsg = "Perfect form!";
-                        severity = "INFO";
-                        goodPostureCount++;
-                    }
-
-                    // Send feedback back to client
-                    responseObserver.onNext(ExerciseFeedback.newBuilder()
-                        .setRepetitionNumber(input.getRepetitionNumber())
-                        .setMessage(feedbackMsg)
-                        .setSeverity(severity)
-                        .build());
-
-                    logger.fine(String.format("Processed rep %d: %.1f° - %s", 
-                        input.getRepetitionNumber(), angle, severity));
-
                 } catch (IllegalArgumentException e) {
+                    failed = true;
                     logger.warning("Invalid input: " + e.getMessage());
-                    responseObserver.onError(Status.INVALID_ARGUMENT
+                    call.onError(Status.INVALID_ARGUMENT
                         .withDescription(e.getMessage())
                         .asRuntimeException());
+                    return;
+                }
+                if (patientId == null) {
+                    currentExercise = input.getExerciseName();
+                    LoggingUtils.logServiceStart(logger, "RehabService", input.getPatientId());
                 }
+                patientId = input.getPatientId();
             }
 
-            /**
-             * Called when the stream ends successfully.
-             * Sends a summary message with the overall posture success rate.
-             */
-            @Override
-            public void onCompleted() {
-                try {
-                    double successRate = (goodPostureCount * 100.0) / totalReps;
-                    String summary = String.format(
-                        "Completed %d reps of %s.\nGood posture: %.1f%% (%d/%d)",
-                        totalReps, currentExercise, successRate, goodPostureCount, totalReps);
-                    
-                    // Send final summary
-                    responseObserver.onNext(ExerciseFeedback.newBuilder()
-                        .setRepetitionNumber(0) // Special marker for summary
-                        .setMessage(summary)
-                        .setSeverity("SUMMARY")
-                        .build());
-                    
-                    responseObserver.onCompleted();
-                    logger.info("Session completed for " + patientId + ": " + summary);
-                    
-                } catch (Exception e) {
-                    logger.severe("Error completing session: " + e.getMessage());
+            PostureRules currentRules = ruleEngine.current();
+            if (currentRules != rules || !input.getExerciseName().equals(judgedExercise)) {
+                rules = currentRules;
+                judgedExercise = input.getExerciseName();
+                judge = rules.forExercise(judgedExercise).newJudge();
+            }
+
+            totalReps++;
+            PostureRules.Verdict verdict = judge.judge(input.getPostureAngle(), sampleTime(input));
+            if (verdict.isGoodPosture()) {
+                goodPostureCount++;
+            }
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(String.format("Processed rep %d: %.1f° - %s",
+                    input.getRepetitionNumber(), input.getPostureAngle(), verdict.getTemplate().getMessage()));
+            }
+
+            coalesce(verdict, input.getRepetitionNumber());
+
+            // Ask for the next input only while the client keeps up with the feedback
+            if (pending.isEmpty() && call.isReady()) {
+                call.request(1);
+            } else {
+                deferredRequests++;
+            }
+        }
+
+        /**
+         * @param input a received rep
+         * @return the time the client performed the rep, or its arrival time if the client
+         *         sent none, in nanoseconds
+         */
+        private long sampleTime(ExerciseInput input) {
+            if (input.getTimestampMillis() > 0) {
+                clientClock = true;
+                return TimeUnit.MILLISECONDS.toNanos(input.getTimestampMillis());
+            }
+            // A session mixing both kinds of inputs keeps its tempo on the client clock
+            return clientClock ? TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) : System.nanoTime();
+        }
+
+        /**
+         * Adds a repetition to the current feedback group and sends the group's feedback once
+         * the group is complete. A group reports its last corrective classification, or good
+         * form if every rep in it was good.
+         *
+         * @param verdict the verdict of the rep
+         * @param repetitionNumber the number of the rep
+         */
+        private void coalesce(PostureRules.Verdict verdict, int repetitionNumber) {
+            long now = feedbackMode == FeedbackMode.WINDOW ? System.nanoTime() : 0;
+            if (groupReps == 0) {
+                groupStartNanos = now;
+                groupVerdict = verdict;
+                if (feedbackMode == FeedbackMode.WINDOW) {
+                    scheduleWindowFlush();
                 }
+            } else if (verdict.isCorrective()) {
+                groupVerdict = verdict;
+            }
+            groupReps++;
+            groupLastRep = repetitionNumber;
+
+            boolean complete;
+            switch (feedbackMode) {
+                case EVERY_N:
+                    complete = groupReps >= feedbackEvery;
+                    break;
+                case WINDOW:
+                    complete = now - groupStartNanos >= feedbackWindowNanos;
+                    break;
+                default: // PER_REP
+                    complete = true;
+            }
+            if (complete) {
+                closeGroup();
+            }
+        }
+
+        /**
+         * Sends the feedback of the current window when it ends, unless a later rep or the
+         * end of the stream closes the group first.
+         */
+        private void scheduleWindowFlush() {
+            int group = groupNumber;
+            try {
+                windowFlush = windowScheduler.schedule(() -> flushWindow(group), feedbackWindowNanos,
+                    TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                windowFlush = null;  // Shutting down, the next rep or the end of the stream sends it
+            }
+        }
+
+        private synchronized void flushWindow(int group) {
+            if (group == groupNumber && !failed && !call.isCancelled()) {
+                windowFlush = null;
+                closeGroup();
+            }
+        }
+
+        /**
+         * Sends the feedback of the current group, if any, and starts a new group.
+         */
+        private void closeGroup() {
+            endGroup();
+            if (groupReps > 0) {
+                send(groupVerdict.feedbackFor(groupLastRep));
+                groupReps = 0;
+            }
+        }
+
+        /**
+         * Stops the pending window flush of the current group, if any.
+         */
+        private void endGroup() {
+            groupNumber++;
+            if (windowFlush != null) {
+                windowFlush.cancel(false);
+                windowFlush = null;
             }
+        }
 
-            /**
-             * Called when the client sends an error.
-             *
-             * @param t the Throwable received from the client side
-             */
-            @Override
-            public void onError(Throwable t) {
-                logger.warning("Client error: " + t.getMessage());
+        /**
+         * Sends feedback if the client is ready, otherwise queues it behind the feedback
+         * already waiting.
+         *
+         * @param feedback the feedback to send
+         */
+        private void send(ExerciseFeedback feedback) {
+            if (pending.isEmpty() && call.isReady()) {
+                call.onNext(feedback);
+            } else {
+                pending.add(feedback);
             }
-        };
+        }
+
+        /**
+         * Called by gRPC when the client can take more feedback: sends the queued feedback
+         * and resumes reading the inputs held back in the meantime.
+         */
+        synchronized void onReady() {
+            while (!pending.isEmpty() && call.isReady() && !call.isCancelled()) {
+                call.onNext(pending.poll());
+            }
+            if (pending.isEmpty() && deferredRequests > 0 && call.isReady()) {
+                call.request(deferredRequests);
+                deferredRequests = 0;
+            }
+        }
+
+        /**
+         * Called when the stream ends successfully.
+         * Sends any outstanding feedback and a summary message with the overall posture success rate.
+         */
+        @Override
+        public synchronized void onCompleted() {
+            if (failed) {
+                return;
+            }
+            try {
+                // Flush what is left; at most one input window's worth of feedback
+                closeGroup();
+                while (!pending.isEmpty()) {
+                    call.onNext(pending.poll());
+                }
+
+                double successRate = totalReps == 0 ? 0 : (goodPostureCount * 100.0) / totalReps;
+                String summary = String.format(
+                    "Completed %d reps of %s.\nGood posture: %.1f%% (%d/%d)",
+                    totalReps, currentExercise, successRate, goodPostureCount, totalReps);
+
+                // Send final summary
+                call.onNext(ExerciseFeedback.newBuilder()
+                    .setRepetitionNumber(0) // Special marker for summary
+                    .setMessage(summary)
+                    .setSeverity("SUMMARY")
+                    .build());
+
+                call.onCompleted();
+                logger.info("Session completed for " + patientId + ": " + summary);
+
+            } catch (Exception e) {
+                logger.severe("Error completing session: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Called when the client sends an error.
+         *
+         * @param t the Throwable received from the client side
+         */
+        @Override
+        public synchronized void onError(Throwable t) {
+            failed = true;
+            endGroup();
+            logger.warning("Client error: " + t.getMessage());
+        }
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import distsys.smartmed.common.LoadHints;
+import distsys.smartmed.common.ThreadUtils;
+import distsys.smartmed.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.jmdns.JmDNS;
+import javax.jmdns.ServiceInfo;
+
+/**
+ * Announces a running server as a DNS-SD service over JmDNS, so clients browsing the service
+ * type find it without configuration. The TXT record carries the {@link LoadHints} of the
+ * server, read from its metrics registry and refreshed on a fixed interval.
+ * <p>
+ * JmDNS announces a new TXT record in rounds of about two seconds and does not answer queries
+ * for the service in the meantime. The hints are therefore coarse: the calls in flight and the
+ * streams are rounded down to a power of two and the CPU use to steps of
+ * {@value #CPU_STEP_PERCENT} percent, and the record is only replaced when a rounded value
+ * changed. A busy replica whose in-flight count wanders between 40 and 60 keeps announcing 32,
+ * and is re-announced only when its load roughly halves or doubles or its CPU use moves by a
+ * step. A replacement also waits until the previous announcement had time to complete:
+ * {@value #REGISTER_ANNOUNCE_MILLIS} ms after the registration, which probes the name first,
+ * and {@value #UPDATE_ANNOUNCE_MILLIS} ms after a record update.
+ *
+ * @author anukratimehta
+ */
+public class ServiceAdvertiser {
+    private static final Logger logger = Logger.getLogger(ServiceAdvertiser.class.getName());
+    private static final int CPU_STEP_PERCENT = 10;
+    private static final long REGISTER_ANNOUNCE_MILLIS = 6000;
+    private static final long UPDATE_ANNOUNCE_MILLIS = 3000;
+
+    private final MetricsRegistry metricsRegistry;
+    private final Set<String> streamingMethods;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(ThreadUtils.daemonThreadFactory("smartmed-advertiser"));
+    private JmDNS jmdns;
+    private ServiceInfo info;
+    private LoadHints announced;
+    private long quietUntil;
+
+    /**
+     * @param metricsRegistry the registry of the server calls
+     * @param streamingMethods the full names of the streaming methods, counted as streams
+     */
+    public ServiceAdvertiser(MetricsRegistry metricsRegistry, Set<String> streamingMethods) {
+        this.metricsRegistry = metricsRegistry;
+        this.streamingMethods = streamingMethods;
+    }
+
+    /**
+     * Registers the service and starts refreshing its load hints.
+     *
+     * @param address the interface to announce on
+     * @param serviceType the DNS-SD service type, such as {@code _smartmed._tcp.local.}
+     * @param name the instance name, made unique by JmDNS if another server uses it
+     * @param port the port the server listens on
+     * @param refreshMillis the time between two load readings, in milliseconds
+     * @throws IOException if JmDNS cannot be started or the service cannot be registered
+     */
+    public void start(InetAddress address, String serviceType, String name, int port, long refreshMillis)
+            throws IOException {
+        jmdns = JmDNS.create(address);
+        announced = currentLoad();
+        info = ServiceInfo.create(serviceType, name, port, 0, 0, announced.toText());
+        jmdns.registerService(info);
+        quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REGISTER_ANNOUNCE_MILLIS);
+        logger.info("Advertising " + info.getQualifiedName() + " on " + address.getHostAddress() + ":" + port);
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh() {
+        try {
+            if (System.nanoTime() - quietUntil < 0) {
+                return;  // Likely still announcing, the next refresh sends the latest hints
+            }
+            LoadHints load = currentLoad();
+            if (!load.equals(announced)) {
+                info.setText(load.toText());
+                announced = load;
+                quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(UPDATE_ANNOUNCE_MILLIS);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to refresh the advertised load", e);
+        }
+    }
+
+    private LoadHints currentLoad() {
+        return new LoadHints(bucket(metricsRegistry.getInFlight()),
+            bucket(metricsRegistry.getInFlight(streamingMethods)), cpuPercent());
+    }
+
+    /**
+     * @param count a call count
+     * @return the count rounded down to a power of two, or 0 for no calls
+     */
+    private static long bucket(long count) {
+        return count <= 0 ? 0 : Long.highestOneBit(count);
+    }
+
+    /**
+     * @return the recent CPU use of this process in percent, or the system load average per
+     *         processor when the JVM does not report it, or -1 if neither is available; rounded
+     *         to the CPU step
+     */
+    private int cpuPercent() {
+        double load = -1;
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        if (load < 0 && os.getSystemLoadAverage() >= 0) {
+            load = Math.min(1, os.getSystemLoadAverage() / os.getAvailableProcessors());
+        }
+        return load < 0 ? -1 : (int) Math.round(load * 100 / CPU_STEP_PERCENT) * CPU_STEP_PERCENT;
+    }
+
+    /**
+     * Deregisters the service, so browsing clients drop this server, and stops JmDNS.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        if (jmdns != null) {
+            jmdns.unregisterAllServices();
+            try {
+                jmdns.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close JmDNS", e);
+            }
+            jmdns = null;
+        }
+    }
+}
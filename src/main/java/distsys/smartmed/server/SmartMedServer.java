@@ -8,34 +8,95 @@ package distsys.smartmed.server;
  * Main server class for SmartMed.
  * Initializes and starts the gRPC server with all healthcare-related services and interceptors.
  * Configures logging and handles server shutdown gracefully.
+ * When run from {@link #main}, the server also announces itself as a {@value ServiceDiscovery#SERVICE_TYPE}
+ * service with its current load in the TXT record, see {@link ServiceAdvertiser}.
+ * 
+ * Supported command-line arguments (system property equivalents in brackets):
+ * <ul>
+ *   <li>{@code --port=<n>} ({@code smartmed.port}, default 50051)</li>
+ *   <li>{@code --executor=cached|fixed|virtual|direct} ({@code smartmed.executor}, default cached)</li>
+ *   <li>{@code --threads=<n>} ({@code smartmed.executor.threads}, pool size for the fixed executor)</li>
+ *   <li>{@code --advertise=true|false} ({@code smartmed.advertise}, default true)</li>
+ * </ul>
+ * The advertisement is tuned with {@code smartmed.advertise.address} (interface to announce on,
+ * default the first non-loopback address of a running interface, preferring IPv4),
+ * {@code smartmed.advertise.name} (instance name, default {@code SmartMed-<port>}) and
+ * {@code smartmed.advertise.refreshMillis} (time between two load updates, default 5000).
  * 
  * @author anukratimehta
  */
 
+import io.grpc.MethodDescriptor;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
+import distsys.smartmed.common.AsyncLogHandler;
+import distsys.smartmed.common.RotatingFileHandler;
+import distsys.smartmed.common.ServiceDiscovery;
+import distsys.smartmed.metrics.HandlerTimingInterceptor;
+import distsys.smartmed.metrics.MetricsRegistry;
+import distsys.smartmed.metrics.MetricsServerInterceptor;
 import distsys.smartmed.security.JwtServerInterceptor;
 
 public class SmartMedServer {
     private static final Logger logger = Logger.getLogger(SmartMedServer.class.getName());
+    public static final int DEFAULT_PORT = 50051;
+
+    private final int port;
+    private final ExecutorMode executorMode;
+    private final int executorThreads;
     private Server server;
+    private ExecutorService executor;
+    private PatientServiceImpl patientService;
+    private MonitoringServiceImpl monitoringService;
+    private MedicationServiceImpl medicationService;
+    private RehabServiceImpl rehabService;
+    private JwtServerInterceptor authInterceptor;
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    private ServiceAdvertiser advertiser;
 
-    // Static block to configure logging once during class loading
-    static {
-        configureLogging();
+    /**
+     * Creates a server with the given listening port and execution mode.
+     *
+     * @param port the TCP port to listen on
+     * @param executorMode how gRPC calls are dispatched to handler threads
+     * @param executorThreads the pool size used by {@link ExecutorMode#FIXED}
+     */
+    public SmartMedServer(int port, ExecutorMode executorMode, int executorThreads) {
+        this.port = port;
+        this.executorMode = executorMode;
+        this.executorThreads = executorThreads;
     }
 
     /**
      * Configures the global logging behavior.
-     * Logs are written to 'smartmed-%g.log' files with rolling file handlers.
+     * Logs are written to 'smartmed-%g.log' files with rolling file handlers. The file and the
+     * existing console output are fed by one {@link AsyncLogHandler}, so logging threads only
+     * queue their records; the queue holds {@code smartmed.log.queueSize} records (default 8192).
      */
     private static void configureLogging() {
         try {
-            FileHandler fileHandler = new FileHandler("smartmed-%g.log", 1000000, 3);
-            fileHandler.setFormatter(new SimpleFormatter());
-            Logger.getLogger("").addHandler(fileHandler);
+            Logger root = Logger.getLogger("");
+            Handler[] existing = root.getHandlers();
+            Handler[] targets = Arrays.copyOf(existing, existing.length + 1);
+            targets[existing.length] = new RotatingFileHandler("smartmed-%g.log", 1000000, 3);
+            for (Handler handler : existing) {
+                root.removeHandler(handler);
+            }
+            root.addHandler(new AsyncLogHandler(
+                Integer.getInteger("smartmed.log.queueSize", AsyncLogHandler.DEFAULT_CAPACITY), targets));
             logger.info("Logging configured successfully");
         } catch (IOException e) {
             System.err.println("Failed to configure logging: " + e.getMessage());
@@ -45,48 +106,190 @@ public class SmartMedServer {
     /**
      * Entry point for starting the SmartMed server.
      *
-     * @param args command-line arguments
+     * @param args command-line arguments, see the class documentation
      * @throws IOException if the server fails to start
      * @throws InterruptedException if the server is interrupted
      */
     public static void main(String[] args) throws IOException, InterruptedException {
-        SmartMedServer serverInstance = new SmartMedServer();
-        serverInstance.start();
+        configureLogging();
+
+        int port = Integer.getInteger("smartmed.port", DEFAULT_PORT);
+        String mode = System.getProperty("smartmed.executor", "cached");
+        int threads = Integer.getInteger("smartmed.executor.threads",
+            Runtime.getRuntime().availableProcessors() * 2);
+        boolean advertise = Boolean.parseBoolean(System.getProperty("smartmed.advertise", "true"));
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--executor=")) {
+                mode = arg.substring("--executor=".length());
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--advertise=")) {
+                advertise = Boolean.parseBoolean(arg.substring("--advertise=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        SmartMedServer serverInstance = new SmartMedServer(port, ExecutorMode.parse(mode), threads);
+        serverInstance.start(ServerBuilder.forPort(port));
+        if (advertise) {
+            try {
+                serverInstance.advertise();
+            } catch (IOException e) {
+                // Clients with a fixed address still work, so keep serving
+                logger.log(Level.WARNING, "Failed to advertise the server", e);
+            }
+        }
+
+        // Ensure graceful shutdown on JVM termination
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Shutting down server...");
+            serverInstance.stop();
+        }));
+
         serverInstance.blockUntilShutdown();
     }
 
     /**
-     * Starts the gRPC server on port 50051 and registers all services and interceptors.
+     * Registers all services and interceptors on the given builder and starts the server.
+     * Taking the builder lets benchmarks run the same setup on an in-process transport.
      *
+     * @param builder the builder for the transport to serve on
      * @throws IOException if there is an error starting the server
      */
-    private void start() throws IOException {
-        int port = 50051;
-        server = ServerBuilder.forPort(port)
+    public void start(ServerBuilder<?> builder) throws IOException {
+        executor = executorMode.configure(builder, executorThreads);
+        patientService = new PatientServiceImpl();
+        monitoringService = new MonitoringServiceImpl();
+        medicationService = new MedicationServiceImpl();
+        rehabService = new RehabServiceImpl();
+        authInterceptor = new JwtServerInterceptor();
+        server = builder
             .addService(new AuthServiceImpl())
-            .addService(new PatientServiceImpl())
-            .addService(new MonitoringServiceImpl())
-            .addService(new MedicationServiceImpl())
-            .addService(new RehabServiceImpl())
-            .intercept(new JwtServerInterceptor())
+            .addService(patientService)
+            .addService(monitoringService)
+            .addService(medicationService)
+            .addService(rehabService)
+            .addService(new MetricsServiceImpl(metricsRegistry))
+            // Added first so it runs last, marking where auth time ends and handler time starts
+            .intercept(new HandlerTimingInterceptor())
+            .intercept(authInterceptor)
+            // Added last so it runs first, also counting calls rejected by authentication
+            .intercept(new MetricsServerInterceptor(metricsRegistry))
             .build()
             .start();
         
-        logger.info("Server started on port " + port);
+        logger.info("Server started on port " + port + " with " + executorMode + " executor");
+    }
 
-        // Ensure graceful shutdown on JVM termination
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            logger.info("Shutting down server...");
-            stop();
-        }));
+    /**
+     * Announces the started server on the local network with the settings from the system
+     * properties, until {@link #stop()} deregisters it.
+     *
+     * @throws IOException if JmDNS cannot be started or the service cannot be registered
+     */
+    public void advertise() throws IOException {
+        String address = System.getProperty("smartmed.advertise.address");
+        Set<String> streamingMethods = new HashSet<>();
+        for (ServerServiceDefinition service : server.getServices()) {
+            for (ServerMethodDefinition<?, ?> method : service.getMethods()) {
+                if (method.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+                    streamingMethods.add(method.getMethodDescriptor().getFullMethodName());
+                }
+            }
+        }
+        advertiser = new ServiceAdvertiser(metricsRegistry, streamingMethods);
+        advertiser.start(
+            address != null ? InetAddress.getByName(address) : defaultAdvertiseAddress(),
+            ServiceDiscovery.SERVICE_TYPE,
+            System.getProperty("smartmed.advertise.name", "SmartMed-" + getPort()),
+            getPort(),
+            Long.getLong("smartmed.advertise.refreshMillis", 5000));
+    }
+
+    /**
+     * Picks the address to announce on when none is configured. The local host name often
+     * resolves to a loopback address such as 127.0.1.1, which other machines cannot reach.
+     *
+     * @return the first non-loopback address of a running interface, IPv4 before IPv6, or the
+     *         local host address if there is none
+     * @throws IOException if the interfaces cannot be listed
+     */
+    private static InetAddress defaultAdvertiseAddress() throws IOException {
+        InetAddress fallback = null;
+        for (NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!network.isUp() || network.isLoopback() || network.isVirtual()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(network.getInetAddresses())) {
+                if (address.isLoopbackAddress() || address.isLinkLocalAddress()) {
+                    continue;
+                }
+                if (address instanceof Inet4Address) {
+                    return address;
+                }
+                if (fallback == null) {
+                    fallback = address;
+                }
+            }
+        }
+        return fallback != null ? fallback : InetAddress.getLocalHost();
+    }
+
+    /**
+     * @return the port the server listens on, which is chosen by the system when it was
+     *         started on port 0, or -1 for transports without a port
+     */
+    public int getPort() {
+        return server.getPort();
     }
 
     /**
-     * Stops the server if it is running.
+     * @return the per-method call metrics of the server
      */
-    private void stop() {
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Withdraws the advertisement, stops the server if it is running and releases its executor
+     * and schedulers.
+     */
+    public void stop() {
+        if (advertiser != null) {
+            // Deregister first, so clients stop picking this server while it drains
+            advertiser.stop();
+        }
         if (server != null) {
             server.shutdown();
+            try {
+                if (!server.awaitTermination(5, TimeUnit.SECONDS)) {
+                    server.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                server.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (patientService != null) {
+            patientService.shutdown();
+        }
+        if (monitoringService != null) {
+            monitoringService.shutdown();
+        }
+        if (medicationService != null) {
+            medicationService.shutdown();
+        }
+        if (rehabService != null) {
+            rehabService.shutdown();
+        }
+        if (authInterceptor != null) {
+            authInterceptor.shutdown();
+        }
+        if (executor != null) {
+            executor.shutdown();
         }
     }
 
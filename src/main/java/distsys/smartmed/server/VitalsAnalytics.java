@@ -0,0 +1,253 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import com.healthcare.grpc.monitoring.AlertType;
+import com.healthcare.grpc.monitoring.VitalsAlert;
+import com.healthcare.grpc.monitoring.VitalsStats;
+import com.healthcare.grpc.monitoring.VitalsUpdate;
+
+/**
+ * Rolling-window analytics of one patient's vitals, run by the patient's producer between
+ * generating a sample and emitting it. Keeps the window in primitive rings and tracks the
+ * moving average with a running sum, min/max with monotonic queues and an EWMA, so each
+ * sample costs O(1) and allocates nothing beyond the emitted message. Alerts are raised
+ * when a condition starts and re-armed once it clears. Not thread-safe; a patient's
+ * producer ticks never overlap.
+ *
+ * @author anukratimehta
+ */
+public final class VitalsAnalytics {
+
+    /**
+     * Window, smoothing and alert thresholds shared by all patients.
+     */
+    public static final class Config {
+        final int window;
+        final double alpha;
+        final int heartRateHigh;
+        final int heartRateLow;
+        final float oxygenLow;
+        final double heartRateTrend;
+        final double oxygenTrend;
+        final String tachycardiaMessage;
+        final String bradycardiaMessage;
+        final String lowOxygenMessage;
+
+        /**
+         * @param window the number of samples the rolling statistics cover
+         * @param alpha the EWMA weight of the newest sample, between 0 and 1
+         * @param heartRateHigh heart rate above which tachycardia is raised, in bpm
+         * @param heartRateLow heart rate below which bradycardia is raised, in bpm
+         * @param oxygenLow SpO2 below which low oxygen is raised, in percent
+         * @param heartRateTrend EWMA distance above the window average that counts as rising, in bpm
+         * @param oxygenTrend EWMA distance below the window average that counts as falling, in percent
+         */
+        public Config(int window, double alpha, int heartRateHigh, int heartRateLow, float oxygenLow,
+                      double heartRateTrend, double oxygenTrend) {
+            if (window <= 0 || alpha <= 0 || alpha > 1) {
+                throw new IllegalArgumentException("window must be positive and alpha in (0, 1]");
+            }
+            this.window = window;
+            this.alpha = alpha;
+            this.heartRateHigh = heartRateHigh;
+            this.heartRateLow = heartRateLow;
+            this.oxygenLow = oxygenLow;
+            this.heartRateTrend = heartRateTrend;
+            this.oxygenTrend = oxygenTrend;
+            this.tachycardiaMessage = "Heart rate above " + heartRateHigh + " bpm";
+            this.bradycardiaMessage = "Heart rate below " + heartRateLow + " bpm";
+            this.lowOxygenMessage = "SpO2 below " + oxygenLow + "%";
+        }
+
+        /**
+         * Reads the configuration from system properties: {@code smartmed.vitals.window}
+         * (default 60 samples), {@code smartmed.vitals.ewmaAlpha} (default 0.2),
+         * {@code smartmed.vitals.heartRateHigh} (default 120), {@code smartmed.vitals.heartRateLow}
+         * (default 50), {@code smartmed.vitals.oxygenLow} (default 92),
+         * {@code smartmed.vitals.heartRateTrend} (default 10) and
+         * {@code smartmed.vitals.oxygenTrend} (default 2).
+         *
+         * @return the configuration
+         */
+        public static Config fromSystemProperties() {
+            return new Config(
+                Integer.getInteger("smartmed.vitals.window", 60),
+                Double.parseDouble(System.getProperty("smartmed.vitals.ewmaAlpha", "0.2")),
+                Integer.getInteger("smartmed.vitals.heartRateHigh", 120),
+                Integer.getInteger("smartmed.vitals.heartRateLow", 50),
+                Float.parseFloat(System.getProperty("smartmed.vitals.oxygenLow", "92")),
+                Double.parseDouble(System.getProperty("smartmed.vitals.heartRateTrend", "10")),
+                Double.parseDouble(System.getProperty("smartmed.vitals.oxygenTrend", "2")));
+        }
+    }
+
+    // Bits of the conditions currently active, so each alert fires once per episode
+    private static final int TACHYCARDIA = 1;
+    private static final int BRADYCARDIA = 1 << 1;
+    private static final int LOW_OXYGEN = 1 << 2;
+    private static final int HEART_RATE_RISING = 1 << 3;
+    private static final int OXYGEN_FALLING = 1 << 4;
+
+    private final Config config;
+    private final Series heartRate;
+    private final Series oxygen;
+    private int active = 0;
+
+    // Reused for every sample; build() leaves them usable
+    private final VitalsUpdate.Builder update = VitalsUpdate.newBuilder();
+    private final VitalsStats.Builder stats = VitalsStats.newBuilder();
+
+    /**
+     * @param config the shared configuration
+     */
+    public VitalsAnalytics(Config config) {
+        this.config = config;
+        this.heartRate = new Series(config.window, config.alpha);
+        this.oxygen = new Series(config.window, config.alpha);
+    }
+
+    /**
+     * Adds a sample to the window and builds the update to emit, with the rolling statistics
+     * and any alert the sample raised.
+     *
+     * @param heartRateBpm the heart rate in bpm
+     * @param oxygenLevel the SpO2 in percent
+     * @param timestamp the sample time in epoch milliseconds
+     * @return the update to emit
+     */
+    public VitalsUpdate record(int heartRateBpm, float oxygenLevel, long timestamp) {
+        heartRate.add(heartRateBpm);
+        oxygen.add(oxygenLevel);
+
+        update.clear()
+            .setHeartRate(heartRateBpm)
+            .setOxygenLevel(oxygenLevel)
+            .setTimestamp(timestamp)
+            .setStats(stats.clear()
+                .setWindowSize(heartRate.size)
+                .setHeartRateAvg((float) heartRate.average())
+                .setHeartRateMin((int) heartRate.min())
+                .setHeartRateMax((int) heartRate.max())
+                .setHeartRateEwma((float) heartRate.ewma)
+                .setOxygenAvg((float) oxygen.average())
+                .setOxygenMin(oxygen.min())
+                .setOxygenMax(oxygen.max())
+                .setOxygenEwma((float) oxygen.ewma));
+
+        // Trends are only meaningful once the window holds a few samples
+        boolean trendKnown = heartRate.size >= Math.min(config.window, 5);
+        check(TACHYCARDIA, heartRateBpm > config.heartRateHigh, AlertType.TACHYCARDIA,
+            config.tachycardiaMessage, heartRateBpm);
+        check(BRADYCARDIA, heartRateBpm < config.heartRateLow, AlertType.BRADYCARDIA,
+            config.bradycardiaMessage, heartRateBpm);
+        check(LOW_OXYGEN, oxygenLevel < config.oxygenLow, AlertType.LOW_OXYGEN,
+            config.lowOxygenMessage, oxygenLevel);
+        check(HEART_RATE_RISING, trendKnown && heartRate.ewma - heartRate.average() > config.heartRateTrend,
+            AlertType.HEART_RATE_RISING, "Heart rate rising", (float) heartRate.ewma);
+        check(OXYGEN_FALLING, trendKnown && oxygen.average() - oxygen.ewma > config.oxygenTrend,
+            AlertType.OXYGEN_FALLING, "SpO2 falling", (float) oxygen.ewma);
+        return update.build();
+    }
+
+    /**
+     * Raises an alert when its condition becomes true and re-arms it when the condition clears.
+     * The alert message is only built when it fires.
+     */
+    private void check(int bit, boolean condition, AlertType type, String message, float value) {
+        if (!condition) {
+            active &= ~bit;
+        } else if ((active & bit) == 0) {
+            active |= bit;
+            update.addAlerts(VitalsAlert.newBuilder().setType(type).setMessage(message).setValue(value));
+        }
+    }
+
+    /**
+     * Rolling window of one vital: a ring of the last samples with a running sum, an EWMA, and
+     * monotonic queues of ring sequence numbers whose fronts are the window's min and max.
+     */
+    private static final class Series {
+        private final float[] values;
+        private final double alpha;
+        private final int[] minQueue;
+        private final int[] maxQueue;
+        private int minHead = 0, minSize = 0;
+        private int maxHead = 0, maxSize = 0;
+        private int sequence = 0;  // Number of samples seen, the ring slot is sequence % length
+        private int size = 0;
+        private double sum = 0;
+        private double ewma = 0;
+
+        Series(int window, double alpha) {
+            this.values = new float[window];
+            this.alpha = alpha;
+            this.minQueue = new int[window];
+            this.maxQueue = new int[window];
+        }
+
+        void add(float value) {
+            int window = values.length;
+            int slot = sequence % window;
+            if (size == window) {
+                sum -= values[slot];
+            } else {
+                size++;
+            }
+            values[slot] = value;
+            sum += value;
+            ewma = sequence == 0 ? value : alpha * value + (1 - alpha) * ewma;
+
+            // Drop samples that left the window from the queue fronts
+            int oldest = sequence - window + 1;
+            while (minSize > 0 && minQueue[minHead] < oldest) {
+                minHead = (minHead + 1) % window;
+                minSize--;
+            }
+            while (maxSize > 0 && maxQueue[maxHead] < oldest) {
+                maxHead = (maxHead + 1) % window;
+                maxSize--;
+            }
+            // Drop samples from the backs that can no longer be the min or max
+            while (minSize > 0 && values[minQueue[(minHead + minSize - 1) % window] % window] >= value) {
+                minSize--;
+            }
+            minQueue[(minHead + minSize++) % window] = sequence;
+            while (maxSize > 0 && values[maxQueue[(maxHead + maxSize - 1) % window] % window] <= value) {
+                maxSize--;
+            }
+            maxQueue[(maxHead + maxSize++) % window] = sequence;
+
+            // Wrap well before overflow while keeping the queued sequence numbers comparable
+            if (++sequence == Integer.MAX_VALUE - window) {
+                rebase();
+            }
+        }
+
+        private void rebase() {
+            int window = values.length;
+            int shift = sequence - sequence % window - window;
+            for (int i = 0; i < minSize; i++) {
+                minQueue[(minHead + i) % window] -= shift;
+            }
+            for (int i = 0; i < maxSize; i++) {
+                maxQueue[(maxHead + i) % window] -= shift;
+            }
+            sequence -= shift;
+        }
+
+        double average() {
+            return sum / size;
+        }
+
+        float min() {
+            return values[minQueue[minHead] % values.length];
+        }
+
+        float max() {
+            return values[maxQueue[maxHead] % values.length];
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import com.healthcare.grpc.monitoring.VitalsHistory;
+import com.healthcare.grpc.monitoring.VitalsPoint;
+import distsys.smartmed.storage.VitalsHistoryStore;
+import java.util.Arrays;
+
+/**
+ * Aggregates the samples of a history query into fixed-width time buckets.
+ * The per-bucket count, sums and extremes are kept in primitive arrays indexed by bucket, so
+ * samples may arrive in any order and each costs a few array updates. Not thread-safe; one
+ * downsampler serves one query.
+ *
+ * @author anukratimehta
+ */
+final class VitalsDownsampler implements VitalsHistoryStore.SampleVisitor {
+    private final long from;
+    private final long step;
+    private final int[] counts;
+    private final long[] heartRateSums;
+    private final int[] heartRateMins;
+    private final int[] heartRateMaxes;
+    private final double[] oxygenSums;
+    private final float[] oxygenMins;
+    private final float[] oxygenMaxes;
+
+    /**
+     * @param from the start of the first bucket, in epoch milliseconds
+     * @param to the end of the queried range, inclusive
+     * @param step the bucket width in milliseconds
+     */
+    VitalsDownsampler(long from, long to, long step) {
+        this.from = from;
+        this.step = step;
+        int buckets = bucketCount(from, to, step);
+        this.counts = new int[buckets];
+        this.heartRateSums = new long[buckets];
+        this.heartRateMins = new int[buckets];
+        this.heartRateMaxes = new int[buckets];
+        this.oxygenSums = new double[buckets];
+        this.oxygenMins = new float[buckets];
+        this.oxygenMaxes = new float[buckets];
+        Arrays.fill(heartRateMins, Integer.MAX_VALUE);
+        Arrays.fill(heartRateMaxes, Integer.MIN_VALUE);
+        Arrays.fill(oxygenMins, Float.MAX_VALUE);
+        Arrays.fill(oxygenMaxes, -Float.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of buckets of the given width covering the range
+     */
+    static int bucketCount(long from, long to, long step) {
+        long lastBucket = (to - from) / step;
+        return lastBucket >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) lastBucket + 1;
+    }
+
+    @Override
+    public void visit(long timestamp, int heartRate, float oxygenLevel) {
+        int bucket = (int) ((timestamp - from) / step);
+        counts[bucket]++;
+        heartRateSums[bucket] += heartRate;
+        heartRateMins[bucket] = Math.min(heartRateMins[bucket], heartRate);
+        heartRateMaxes[bucket] = Math.max(heartRateMaxes[bucket], heartRate);
+        oxygenSums[bucket] += oxygenLevel;
+        oxygenMins[bucket] = Math.min(oxygenMins[bucket], oxygenLevel);
+        oxygenMaxes[bucket] = Math.max(oxygenMaxes[bucket], oxygenLevel);
+    }
+
+    /**
+     * Adds a point for every non-empty bucket, in time order.
+     *
+     * @param history the response to add the points to
+     */
+    void addPoints(VitalsHistory.Builder history) {
+        VitalsPoint.Builder point = VitalsPoint.newBuilder();
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            int count = counts[bucket];
+            if (count == 0) {
+                continue;
+            }
+            history.addPoints(point
+                .setTimestamp(from + bucket * step)
+                .setSamples(count)
+                .setHeartRateAvg((float) heartRateSums[bucket] / count)
+                .setHeartRateMin(heartRateMins[bucket])
+                .setHeartRateMax(heartRateMaxes[bucket])
+                .setOxygenAvg((float) (oxygenSums[bucket] / count))
+                .setOxygenMin(oxygenMins[bucket])
+                .setOxygenMax(oxygenMaxes[bucket])
+                .build());
+        }
+    }
+}
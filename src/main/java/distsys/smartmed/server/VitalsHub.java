@@ -0,0 +1,610 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import com.healthcare.grpc.monitoring.VitalsFrame;
+import com.healthcare.grpc.monitoring.VitalsUpdate;
+import distsys.smartmed.storage.VitalsHistoryStore;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Per-patient broadcast hub for vitals updates.
+ * Each watched patient has exactly one producer ticking on the shared scheduler, and every
+ * viewer of that patient attaches as a subscriber with its own bounded ring buffer. All viewers
+ * therefore see the same series, and the generation cost grows with the number of watched
+ * patients rather than the number of viewers. The producer stops when its last subscriber leaves.
+ * Each producer runs its patient's {@link VitalsAnalytics}, so every update carries rolling
+ * statistics and alerts computed once for all viewers.
+ * <p>
+ * Patients fed by a bedside device through a {@link LiveFeed} stop producing synthetic samples;
+ * their ingested samples are published to the subscribers as they arrive. Ticks and ingested
+ * frames enter a channel through a lock-free inbox and are processed by whichever thread finds
+ * the channel idle, so the analytics see one sample at a time without locking. Every emitted
+ * sample is also recorded in the hub's {@link VitalsHistoryStore}, if it has one.
+ *
+ * @author anukratimehta
+ */
+public class VitalsHub {
+    private static final Logger logger = Logger.getLogger(VitalsHub.class.getName());
+
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    // Inbox marker for a producer tick
+    private static final Object TICK = new Object();
+
+    /**
+     * What to do when a subscriber's ring buffer is full because its client reads too slowly.
+     */
+    public enum SlowConsumerPolicy {
+        /** Overwrite the oldest buffered update. */
+        DROP_OLDEST,
+        /** Discard everything buffered and keep only the latest update. */
+        CONFLATE,
+        /** Disconnect the subscriber. */
+        DISCONNECT;
+
+        /**
+         * Parses a policy name such as "drop-oldest" or "CONFLATE", ignoring case.
+         *
+         * @param name the policy name
+         * @return the matching policy
+         * @throws IllegalArgumentException if the name is not a known policy
+         */
+        public static SlowConsumerPolicy parse(String name) {
+            try {
+                return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown slow consumer policy: " + name
+                    + " (expected drop-oldest, conflate or disconnect)");
+            }
+        }
+    }
+
+    /**
+     * Entry point for the samples of a device-fed patient.
+     */
+    public interface LiveFeed {
+        /**
+         * Publishes a frame of samples. Safe to call from any thread; frames of the same patient
+         * are processed in the order they were published.
+         *
+         * @param frame the frame, with parallel sample lists of equal length
+         */
+        void publish(VitalsFrame frame);
+
+        /**
+         * Ends the feed, e.g. when the device disconnects. Once the last feed of a patient is
+         * closed, the patient's viewers receive synthetic samples again. Frames published after
+         * closing are ignored; closing twice has no effect.
+         */
+        void close();
+    }
+
+    /**
+     * Receives the updates of one subscription. Calls are serialized per subscription.
+     */
+    public interface Subscriber {
+        /**
+         * @return true if the subscriber can take another update without buffering
+         */
+        boolean isReady();
+
+        /**
+         * Delivers one update.
+         *
+         * @param update the vitals update
+         */
+        void onUpdate(VitalsUpdate update);
+
+        /**
+         * Called once after the requested number of updates has been delivered.
+         */
+        void onCompleted();
+
+        /**
+         * Called once if the subscription was dropped under {@link SlowConsumerPolicy#DISCONNECT}.
+         */
+        void onOverflow();
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMillis;
+    private final int bufferSize;
+    private final SlowConsumerPolicy policy;
+    private final VitalsAnalytics.Config analyticsConfig;
+    private final VitalsHistoryStore history;
+    private final ConcurrentHashMap<String, PatientChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    // Chance per tick that a simulated patient starts an episode crossing the alert thresholds
+    private final double episodeChance =
+        Double.parseDouble(System.getProperty("smartmed.vitals.episodeChance", "0.01"));
+
+    /**
+     * Creates a hub.
+     *
+     * @param scheduler the scheduler running the per-patient producers
+     * @param intervalMillis time between two updates of a patient, in milliseconds
+     * @param bufferSize the ring buffer capacity of each subscriber
+     * @param policy what to do when a subscriber's buffer is full
+     */
+    public VitalsHub(ScheduledExecutorService scheduler, long intervalMillis, int bufferSize, SlowConsumerPolicy policy) {
+        this(scheduler, intervalMillis, bufferSize, policy, VitalsAnalytics.Config.fromSystemProperties());
+    }
+
+    /**
+     * Creates a hub with an explicit analytics configuration.
+     *
+     * @param scheduler the scheduler running the per-patient producers
+     * @param intervalMillis time between two updates of a patient, in milliseconds
+     * @param bufferSize the ring buffer capacity of each subscriber
+     * @param policy what to do when a subscriber's buffer is full
+     * @param analyticsConfig the rolling window and alert thresholds of the per-patient analytics
+     */
+    public VitalsHub(ScheduledExecutorService scheduler, long intervalMillis, int bufferSize, SlowConsumerPolicy policy,
+                     VitalsAnalytics.Config analyticsConfig) {
+        this(scheduler, intervalMillis, bufferSize, policy, analyticsConfig, null);
+    }
+
+    /**
+     * Creates a hub that also records every sample it emits.
+     *
+     * @param scheduler the scheduler running the per-patient producers
+     * @param intervalMillis time between two updates of a patient, in milliseconds
+     * @param bufferSize the ring buffer capacity of each subscriber
+     * @param policy what to do when a subscriber's buffer is full
+     * @param analyticsConfig the rolling window and alert thresholds of the per-patient analytics
+     * @param history the store the samples are recorded in, or null to keep no history
+     */
+    public VitalsHub(ScheduledExecutorService scheduler, long intervalMillis, int bufferSize, SlowConsumerPolicy policy,
+                     VitalsAnalytics.Config analyticsConfig, VitalsHistoryStore history) {
+        if (intervalMillis <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("intervalMillis and bufferSize must be positive");
+        }
+        this.scheduler = scheduler;
+        this.intervalMillis = intervalMillis;
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+        this.analyticsConfig = analyticsConfig;
+        this.history = history;
+    }
+
+    /**
+     * Attaches a subscriber to a patient's vitals, starting the patient's producer if this is
+     * the first subscriber. The latest update of an already running producer is delivered
+     * immediately, so late joiners do not wait for the next tick, and exactly once, even when
+     * the producer publishes it while the subscriber joins.
+     *
+     * @param patientId the patient to watch
+     * @param updates the number of update intervals before the subscription completes
+     * @param subscriber the receiver of the updates
+     * @return the subscription, used to drain on readiness and to cancel
+     */
+    public Subscription subscribe(String patientId, int updates, Subscriber subscriber) {
+        return subscribe(patientId, updates, false, subscriber);
+    }
+
+    /**
+     * Attaches a subscriber to a patient's vitals, optionally receiving only the updates that
+     * raise alerts. The subscription lasts a number of update intervals: for a device-fed
+     * patient every ingested sample is delivered and the intervals only measure the time.
+     *
+     * @param patientId the patient to watch
+     * @param updates the number of update intervals before the subscription completes
+     * @param alertsOnly true to deliver only updates carrying alerts
+     * @param subscriber the receiver of the updates
+     * @return the subscription, used to drain on readiness and to cancel
+     */
+    public Subscription subscribe(String patientId, int updates, boolean alertsOnly, Subscriber subscriber) {
+        Subscription subscription = new Subscription(patientId, updates, alertsOnly, subscriber);
+        // The producer's offers to the new subscription wait until it has the snapshot
+        synchronized (subscription) {
+            PatientChannel channel = channels.compute(patientId, (id, existing) -> {
+                PatientChannel target = existing != null ? existing : new PatientChannel(id);
+                if (target.producer == null) {
+                    target.start();
+                }
+                target.subscriptions.add(subscription);
+                return target;
+            });
+            subscriberCount.incrementAndGet();
+            subscription.join(channel.latest, !channel.live);
+        }
+        return subscription;
+    }
+
+    /**
+     * Switches a patient to device-fed samples until every feed opened for it is closed. The
+     * patient's synthetic producer stops generating meanwhile, and the channel is kept while it
+     * has feeds or subscribers, so its analytics carry on across overlapping feeds.
+     *
+     * @param patientId the patient the device reports on
+     * @return the feed to publish the device's frames to, to be closed when the device leaves
+     */
+    public LiveFeed openFeed(String patientId) {
+        PatientChannel channel = channels.compute(patientId, (id, existing) -> {
+            PatientChannel target = existing != null ? existing : new PatientChannel(id);
+            target.feeds++;
+            target.live = true;
+            return target;
+        });
+        return new Feed(channel);
+    }
+
+    /**
+     * Releases one feed of a patient, dropping the channel if nothing uses it any more.
+     *
+     * @param channel the channel the feed was opened on
+     */
+    private void closeFeed(PatientChannel channel) {
+        channels.computeIfPresent(channel.patientId, (id, current) -> {
+            if (current != channel) {
+                return current;
+            }
+            if (--channel.feeds > 0) {
+                return channel;
+            }
+            channel.live = false;
+            return channel.subscriptions.isEmpty() ? null : channel;
+        });
+    }
+
+    /**
+     * Detaches a subscription, stopping the patient's producer if it was the last one.
+     *
+     * @param subscription the subscription to remove
+     */
+    private void unsubscribe(Subscription subscription) {
+        channels.computeIfPresent(subscription.patientId, (id, channel) -> {
+            if (!channel.subscriptions.remove(subscription)) {
+                return channel;
+            }
+            subscriberCount.decrementAndGet();
+            if (!channel.subscriptions.isEmpty()) {
+                return channel;
+            }
+            channel.stop();
+            return channel.feeds > 0 ? channel : null;
+        });
+    }
+
+    /**
+     * @return the number of patients with a running producer or a live feed
+     */
+    public int getPatientCount() {
+        return channels.size();
+    }
+
+    /**
+     * @return the number of attached subscribers across all patients
+     */
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+
+    /**
+     * One device's handle on a patient channel, closed at most once.
+     */
+    private final class Feed implements LiveFeed {
+        private final PatientChannel channel;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Feed(PatientChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void publish(VitalsFrame frame) {
+            if (!closed.get()) {
+                channel.submit(frame);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                closeFeed(channel);
+            }
+        }
+    }
+
+    /**
+     * The single producer of one patient and the subscribers it fans out to.
+     */
+    private final class PatientChannel implements Runnable {
+        private final String patientId;
+        private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private final VitalsAnalytics analytics = new VitalsAnalytics(analyticsConfig);
+        private final VitalsSimulator simulator = new VitalsSimulator(episodeChance);
+        private final ConcurrentLinkedQueue<Object> inbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger wip = new AtomicInteger();  // Items submitted but not yet processed
+        private ScheduledFuture<?> producer;  // Guarded by the channels map entry
+        private int feeds = 0;  // Open device feeds, guarded by the channels map entry
+        private volatile boolean live = false;
+        private volatile VitalsUpdate latest;
+
+        PatientChannel(String patientId) {
+            this.patientId = patientId;
+        }
+
+        /**
+         * Starts the producer ticks. Called while the channel's map entry is being updated.
+         */
+        void start() {
+            producer = scheduler.scheduleAtFixedRate(this, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Stops the producer ticks. Called while the channel's map entry is being updated.
+         */
+        void stop() {
+            if (producer != null) {
+                producer.cancel(false);
+                producer = null;
+            }
+        }
+
+        /**
+         * Producer tick, run by the scheduler.
+         */
+        @Override
+        public void run() {
+            submit(TICK);
+        }
+
+        /**
+         * Queues an item and processes the inbox unless another thread already does. The thread
+         * that moves the in-progress count away from zero drains until it returns to zero.
+         *
+         * @param item a frame or the tick marker
+         */
+        private void submit(Object item) {
+            inbox.offer(item);
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                Object next;
+                while ((next = inbox.poll()) != null) {
+                    try {
+                        if (next == TICK) {
+                            tick();
+                        } else {
+                            ingest((VitalsFrame) next);
+                        }
+                    } catch (RuntimeException e) {
+                        // Keep the channel alive; an exception would cancel all future ticks
+                        logger.warning("Vitals producer for patient " + patientId + " failed: " + e.getMessage());
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Advances the subscriptions by one interval. Unless the patient is device-fed, this
+         * simulates one sample with the patient's {@link VitalsSimulator}, runs it through the
+         * analytics and offers the update to every subscriber.
+         */
+        private void tick() {
+            if (live) {
+                for (Subscription subscription : subscriptions) {
+                    subscription.tick();
+                }
+                return;
+            }
+            simulator.next(ThreadLocalRandom.current());
+            VitalsUpdate update = analytics.record(simulator.getHeartRate(), simulator.getOxygenLevel(),
+                System.currentTimeMillis());
+            latest = update;
+            if (history != null) {
+                history.append(patientId, update.getTimestamp(), update.getHeartRate(), update.getOxygenLevel());
+            }
+            for (Subscription subscription : subscriptions) {
+                subscription.offer(update, true);
+            }
+        }
+
+        /**
+         * Runs every sample of an ingested frame through the analytics and offers the updates
+         * to every subscriber.
+         *
+         * @param frame the frame of samples
+         */
+        private void ingest(VitalsFrame frame) {
+            long timestamp = frame.getBaseTimestamp();
+            int samples = frame.getHeartRatesCount();
+            for (int i = 0; i < samples; i++) {
+                timestamp += frame.getTimestampDeltas(i);
+                VitalsUpdate update = analytics.record(frame.getHeartRates(i), frame.getOxygenLevels(i), timestamp);
+                latest = update;
+                if (history != null) {
+                    history.append(patientId, timestamp, update.getHeartRate(), update.getOxygenLevel());
+                }
+                for (Subscription subscription : subscriptions) {
+                    subscription.offer(update, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * One subscriber's attachment to a patient, with its bounded ring buffer of pending updates.
+     */
+    public final class Subscription {
+        private final String patientId;
+        private final Subscriber subscriber;
+        private final boolean alertsOnly;
+        private final VitalsUpdate[] ring = new VitalsUpdate[bufferSize];
+        private int head = 0;   // Index of the oldest buffered update
+        private int size = 0;
+        private int remaining;  // Updates still to be offered before completion
+        private int dropped = 0;
+        private VitalsUpdate snapshot;  // Latest update delivered on joining, until the next offer
+        private boolean detached = false;
+        private boolean closed = false;
+
+        Subscription(String patientId, int updates, boolean alertsOnly, Subscriber subscriber) {
+            this.patientId = patientId;
+            this.remaining = updates;
+            this.alertsOnly = alertsOnly;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Delivers the latest update of the patient to the newly registered subscription. The
+         * producer may have published that update to the subscription list after the
+         * registration, so its own offer of the same update is skipped.
+         *
+         * @param latest the latest update of the patient, or null if there is none yet
+         * @param counts true if the update also ends one of the subscription's intervals
+         */
+        synchronized void join(VitalsUpdate latest, boolean counts) {
+            if (latest != null) {
+                offer(latest, counts);
+                snapshot = latest;
+            }
+        }
+
+        /**
+         * Buffers one update, applying the slow-consumer policy if the buffer is full,
+         * and delivers as much as the subscriber can take.
+         *
+         * @param update the update to deliver
+         * @param counts true if the update also ends one of the subscription's intervals
+         */
+        synchronized void offer(VitalsUpdate update, boolean counts) {
+            if (snapshot != null) {
+                VitalsUpdate joined = snapshot;
+                snapshot = null;
+                if (update == joined) {
+                    return;  // Already delivered on joining
+                }
+            }
+            if (detached) {
+                return;
+            }
+            if (!alertsOnly || update.getAlertsCount() > 0) {
+                if (!buffer(update)) {
+                    return;
+                }
+            }
+            if (counts && --remaining <= 0) {
+                detach();
+            }
+            drain();
+        }
+
+        /**
+         * Ends one of the subscription's intervals without an update.
+         */
+        synchronized void tick() {
+            if (detached) {
+                return;
+            }
+            if (--remaining <= 0) {
+                detach();
+            }
+            drain();
+        }
+
+        /**
+         * Adds an update to the ring, applying the slow-consumer policy if it is full.
+         *
+         * @param update the update to buffer
+         * @return false if the subscription was disconnected instead
+         */
+        private boolean buffer(VitalsUpdate update) {
+            if (size == ring.length) {
+                dropped++;
+                switch (policy) {
+                    case DISCONNECT:
+                        close();
+                        subscriber.onOverflow();
+                        return false;
+                    case CONFLATE:
+                        Arrays.fill(ring, null);
+                        head = 0;
+                        size = 0;
+                        dropped += ring.length - 1;
+                        break;
+                    default: // DROP_OLDEST
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        size--;
+                }
+            }
+            ring[(head + size) % ring.length] = update;
+            size++;
+            return true;
+        }
+
+        /**
+         * Delivers buffered updates while the subscriber is ready, and completes the subscription
+         * once it is detached and its buffer is empty. Call this whenever the subscriber becomes
+         * ready again.
+         */
+        public synchronized void drain() {
+            while (!closed && size > 0 && subscriber.isReady()) {
+                VitalsUpdate update = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                subscriber.onUpdate(update);
+            }
+            if (!closed && detached && size == 0) {
+                closed = true;
+                subscriber.onCompleted();
+            }
+        }
+
+        /**
+         * Cancels the subscription without notifying the subscriber, e.g. after the client left.
+         */
+        public synchronized void cancel() {
+            close();
+        }
+
+        /**
+         * @return the number of updates discarded by the slow-consumer policy
+         */
+        public synchronized int getDroppedCount() {
+            return dropped;
+        }
+
+        /**
+         * Stops any further delivery and releases the buffered updates.
+         */
+        private void close() {
+            closed = true;
+            Arrays.fill(ring, null);
+            size = 0;
+            detach();
+        }
+
+        /**
+         * Removes the subscription from its patient's channel; already buffered updates may
+         * still be drained.
+         */
+        private void detach() {
+            if (!detached) {
+                detached = true;
+                unsubscribe(this);
+            }
+        }
+    }
+}
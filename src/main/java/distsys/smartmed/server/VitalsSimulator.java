@@ -0,0 +1,86 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Synthetic vitals of one patient without a bedside device. Most of the time the samples stay
+ * in a resting range of 70-79 bpm and 95-100% SpO2, which never raises an alert. Now and then
+ * the patient goes through an episode of tachycardia, bradycardia or desaturation: the affected
+ * vital drifts beyond the default alert threshold over a few samples, holds there and recovers,
+ * so both the threshold and the trend alerts of {@link VitalsAnalytics} get exercised.
+ * <p>
+ * Not thread-safe; each patient's producer owns one instance.
+ *
+ * @author anukratimehta
+ */
+final class VitalsSimulator {
+    private static final int RAMP_SAMPLES = 5;
+    private static final int MIN_EPISODE_SAMPLES = 20;
+    private static final int MAX_EPISODE_SAMPLES = 40;
+
+    private enum Episode {
+        TACHYCARDIA, BRADYCARDIA, DESATURATION
+    }
+
+    private final double episodeChance;
+    private Episode episode = null;
+    private int episodeLength = 0;
+    private int episodeSample = 0;
+    private int heartRate;
+    private float oxygenLevel;
+
+    /**
+     * @param episodeChance the chance per sample that a resting patient starts an episode,
+     *        0 for a patient that always rests
+     */
+    VitalsSimulator(double episodeChance) {
+        this.episodeChance = episodeChance;
+    }
+
+    /**
+     * Simulates the next sample, readable through {@link #getHeartRate()} and
+     * {@link #getOxygenLevel()}.
+     *
+     * @param random the random source of the calling thread
+     */
+    void next(ThreadLocalRandom random) {
+        heartRate = 70 + random.nextInt(10);          // 70-79 bpm
+        oxygenLevel = 95 + random.nextFloat() * 5;    // 95-100%
+        if (episode == null) {
+            if (episodeChance <= 0 || random.nextDouble() >= episodeChance) {
+                return;
+            }
+            episode = Episode.values()[random.nextInt(Episode.values().length)];
+            episodeLength = MIN_EPISODE_SAMPLES + random.nextInt(MAX_EPISODE_SAMPLES - MIN_EPISODE_SAMPLES + 1);
+            episodeSample = 0;
+        }
+        // Ramps in and out over a few samples, so the EWMA pulls away from the window average
+        int fromEdge = Math.min(episodeSample + 1, episodeLength - episodeSample);
+        float severity = Math.min(1f, fromEdge / (float) RAMP_SAMPLES);
+        switch (episode) {
+            case TACHYCARDIA:
+                heartRate += Math.round(severity * (60 + random.nextInt(15)));    // up to 130-150 bpm
+                break;
+            case BRADYCARDIA:
+                heartRate -= Math.round(severity * (30 + random.nextInt(5)));     // down to 40-49 bpm
+                break;
+            default: // DESATURATION
+                oxygenLevel -= severity * (8 + random.nextFloat() * 2);           // down to 85-92%
+        }
+        if (++episodeSample >= episodeLength) {
+            episode = null;
+        }
+    }
+
+    int getHeartRate() {
+        return heartRate;
+    }
+
+    float getOxygenLevel() {
+        return oxygenLevel;
+    }
+}
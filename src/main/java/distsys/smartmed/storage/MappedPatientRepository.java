@@ -0,0 +1,142 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.storage;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.healthcare.grpc.patient.PatientResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Persistent patient repository on an embedded, memory-mapped record log.
+ * Records are appended to a {@link MappedSegmentLog} as serialized PatientResponse messages;
+ * an in-memory index maps each patient ID to the address of its latest record and each
+ * medical-history code to the IDs of the patients carrying it. Both indexes are rebuilt by
+ * scanning the log on open, so a lookup is one hash probe plus one protobuf parse from
+ * the page cache.
+ *
+ * @author anukratimehta
+ */
+public class MappedPatientRepository implements PatientRepository {
+    private static final Logger logger = Logger.getLogger(MappedPatientRepository.class.getName());
+
+    private final MappedSegmentLog log;
+    private final ConcurrentHashMap<String, Long> addresses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> historyIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Opens or creates a repository with the default segment size.
+     *
+     * @param directory the directory holding the store's files
+     * @throws IOException if the store cannot be opened
+     */
+    public MappedPatientRepository(Path directory) throws IOException {
+        this(directory, MappedSegmentLog.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens or creates a repository and rebuilds its indexes.
+     *
+     * @param directory the directory holding the store's files
+     * @param segmentSize the size of each segment file in bytes
+     * @throws IOException if the store cannot be opened
+     */
+    public MappedPatientRepository(Path directory, int segmentSize) throws IOException {
+        long start = System.nanoTime();
+        this.log = new MappedSegmentLog(directory, "patients", segmentSize);
+        log.scan((address, bytes) -> index(parse(bytes), address));
+        logger.info("Opened patient store " + directory + " with " + addresses.size() + " patients in "
+            + log.getSegmentCount() + " segments in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    @Override
+    public PatientResponse findById(String patientId) {
+        Long address = addresses.get(patientId);
+        return address == null ? null : parse(log.read(address));
+    }
+
+    @Override
+    public List<String> findIdsByHistoryCode(String code) {
+        Set<String> ids = historyIndex.get(code);
+        return ids == null ? Collections.emptyList() : new ArrayList<>(ids);
+    }
+
+    /**
+     * Appends the record and points the indexes at it. The previous record of the patient
+     * stays in the log but is no longer reachable.
+     *
+     * @param record the record to store
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    @Override
+    public synchronized void save(PatientResponse record) {
+        long address;
+        try {
+            address = log.append(record.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store patient " + record.getPatientId(), e);
+        }
+        index(record, address);
+    }
+
+    @Override
+    public long count() {
+        return addresses.size();
+    }
+
+    /**
+     * Flushes written records to disk.
+     */
+    public void flush() {
+        log.force();
+    }
+
+    @Override
+    public void close() {
+        log.close();
+    }
+
+    /**
+     * Points the ID and history-code indexes at a record, unlinking the codes of the record
+     * it replaces.
+     *
+     * @param record the stored record
+     * @param address the record's address in the log
+     */
+    private void index(PatientResponse record, long address) {
+        Long previous = addresses.put(record.getPatientId(), address);
+        if (previous != null) {
+            for (String code : PatientRepository.historyCodes(parse(log.read(previous)))) {
+                Set<String> ids = historyIndex.get(code);
+                if (ids != null) {
+                    ids.remove(record.getPatientId());
+                }
+            }
+        }
+        for (String code : PatientRepository.historyCodes(record)) {
+            historyIndex.computeIfAbsent(code, c -> ConcurrentHashMap.newKeySet()).add(record.getPatientId());
+        }
+    }
+
+    /**
+     * @param bytes a record read from the log
+     * @return the decoded patient record
+     */
+    private static PatientResponse parse(ByteBuffer bytes) {
+        try {
+            return PatientResponse.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Corrupt patient record in store", e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only record log stored in fixed-size, memory-mapped segment files.
+ * Each record is written as a 4-byte length followed by its bytes and is addressed by a
+ * {@code long} combining the segment number (high 32 bits) and the offset in the segment
+ * (low 32 bits). Appends are serialized; reads are lock-free and served straight from the
+ * page cache. The length is written after the payload, so a record interrupted by a crash
+ * reads as the end of the segment on recovery. The oldest segments can be dropped to bound the
+ * disk use; segment numbers keep counting up, so the addresses of the other records stay valid.
+ *
+ * @author anukratimehta
+ */
+public class MappedSegmentLog implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Receives the records found while scanning the log.
+     */
+    public interface RecordVisitor {
+        /**
+         * @param address the record's address
+         * @param record a read-only view of the record's bytes
+         */
+        void visit(long address, ByteBuffer record);
+    }
+
+    private final Path directory;
+    private final String prefix;
+    private final int segmentSize;
+
+    /**
+     * The mapped segments and the number of the first one, replaced together by copy on write
+     * so readers never need a lock.
+     */
+    private static final class Segments {
+        final int first;
+        final MappedByteBuffer[] buffers;
+
+        Segments(int first, MappedByteBuffer[] buffers) {
+            this.first = first;
+            this.buffers = buffers;
+        }
+    }
+
+    private volatile Segments segments = new Segments(0, new MappedByteBuffer[0]);
+    private int writeOffset;
+
+    /**
+     * Opens or creates a log, recovering the write position from the existing segments.
+     *
+     * @param directory the directory holding the segment files
+     * @param prefix the segment file name prefix, e.g. "patients"
+     * @param segmentSize the size of each segment file in bytes
+     * @throws IOException if the segments cannot be created or mapped
+     */
+    public MappedSegmentLog(Path directory, String prefix, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "-*.seg")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                numbers.add(Integer.parseInt(name.substring(prefix.length() + 1, name.length() - ".seg".length())));
+            }
+        }
+        numbers.sort(null);
+        // Only the oldest segments are ever deleted, so the remaining ones are consecutive
+        int first = numbers.isEmpty() ? 0 : numbers.get(0);
+        MappedByteBuffer[] opened = new MappedByteBuffer[numbers.size()];
+        for (int i = 0; i < opened.length; i++) {
+            opened[i] = map(segmentPath(first + i));
+        }
+        segments = new Segments(first, opened);
+        writeOffset = opened.length > 0 ? endOfData(opened[opened.length - 1]) : segmentSize;
+    }
+
+    /**
+     * @param segment the segment number
+     * @return the file of the segment
+     */
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s-%05d.seg", prefix, segment));
+    }
+
+    /**
+     * Maps a segment file, creating it zero-filled at the full segment size if needed.
+     *
+     * @param file the segment file
+     * @return the mapped buffer
+     * @throws IOException if the file cannot be mapped
+     */
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(segmentSize);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * Finds the first free offset of a segment by skipping over its records.
+     *
+     * @param segment the mapped segment
+     * @return the offset following the last complete record
+     */
+    private int endOfData(ByteBuffer segment) {
+        int offset = 0;
+        while (offset + 4 <= segmentSize) {
+            int length = segment.getInt(offset);
+            if (length <= 0 || offset + 4 + length > segmentSize) {
+                break;
+            }
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Appends a record, starting a new segment if it does not fit in the current one.
+     *
+     * @param record the record bytes
+     * @return the address of the record
+     * @throws IOException if a new segment cannot be created
+     * @throws IllegalArgumentException if the record is empty or larger than a segment
+     */
+    public synchronized long append(byte[] record) throws IOException {
+        if (record.length == 0 || record.length > segmentSize - 4) {
+            throw new IllegalArgumentException("Record size must be between 1 and " + (segmentSize - 4) + " bytes");
+        }
+        Segments current = segments;
+        if (writeOffset + 4 + record.length > segmentSize) {
+            MappedByteBuffer[] grown = Arrays.copyOf(current.buffers, current.buffers.length + 1);
+            grown[grown.length - 1] = map(segmentPath(current.first + grown.length - 1));
+            current = new Segments(current.first, grown);
+            segments = current;
+            writeOffset = 0;
+        }
+        int segmentNumber = current.first + current.buffers.length - 1;
+        ByteBuffer segment = current.buffers[current.buffers.length - 1].duplicate();
+        segment.position(writeOffset + 4);
+        segment.put(record);
+        segment.putInt(writeOffset, record.length); // Published last, see class comment
+        long address = ((long) segmentNumber << 32) | writeOffset;
+        writeOffset += 4 + record.length;
+        return address;
+    }
+
+    /**
+     * Returns a read-only view of a record without copying it.
+     *
+     * @param address the address returned by {@link #append(byte[])}
+     * @return the record bytes, or null if the record's segment has been dropped
+     */
+    public ByteBuffer read(long address) {
+        Segments current = segments;
+        int index = (int) (address >>> 32) - current.first;
+        if (index < 0) {
+            return null;
+        }
+        ByteBuffer segment = current.buffers[index].asReadOnlyBuffer();
+        int offset = (int) address;
+        int length = segment.getInt(offset);
+        segment.position(offset + 4).limit(offset + 4 + length);
+        return segment.slice();
+    }
+
+    /**
+     * Visits every record in append order, e.g. to rebuild in-memory indexes on startup.
+     *
+     * @param visitor receives each record
+     */
+    public void scan(RecordVisitor visitor) {
+        Segments current = segments;
+        for (int i = 0; i < current.buffers.length; i++) {
+            int segmentNumber = current.first + i;
+            ByteBuffer segment = current.buffers[i].asReadOnlyBuffer();
+            int end = endOfData(segment);
+            int offset = 0;
+            while (offset < end) {
+                int length = segment.getInt(offset);
+                segment.limit(offset + 4 + length).position(offset + 4);
+                visitor.visit(((long) segmentNumber << 32) | offset, segment.slice());
+                segment.clear();
+                offset += 4 + length;
+            }
+        }
+    }
+
+    /**
+     * @return the number of segment files in use
+     */
+    public int getSegmentCount() {
+        return segments.buffers.length;
+    }
+
+    /**
+     * @return the number of the oldest segment still in use
+     */
+    public int getFirstSegment() {
+        return segments.first;
+    }
+
+    /**
+     * @return the number of the segment new records are appended to, or -1 if there is none
+     */
+    public int getLastSegment() {
+        Segments current = segments;
+        return current.first + current.buffers.length - 1;
+    }
+
+    /**
+     * Drops the segments numbered below a limit and deletes their files. The segment being
+     * appended to is always kept. Records of dropped segments read as null.
+     *
+     * @param segmentNumber the number of the first segment to keep
+     * @return the number of segments dropped
+     * @throws IOException if a segment file cannot be deleted
+     */
+    public synchronized int dropSegmentsBefore(int segmentNumber) throws IOException {
+        Segments current = segments;
+        int drop = Math.min(segmentNumber - current.first, current.buffers.length - 1);
+        if (drop <= 0) {
+            return 0;
+        }
+        segments = new Segments(current.first + drop,
+            Arrays.copyOfRange(current.buffers, drop, current.buffers.length));
+        for (int i = 0; i < drop; i++) {
+            // The mapping stays readable by readers holding it until it is garbage collected
+            Files.deleteIfExists(segmentPath(current.first + i));
+        }
+        return drop;
+    }
+
+    /**
+     * Flushes written records to disk.
+     */
+    public synchronized void force() {
+        for (MappedByteBuffer segment : segments.buffers) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Flushes the log. The mappings are released once the buffers are garbage collected.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+}
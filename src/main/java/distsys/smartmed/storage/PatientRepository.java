@@ -0,0 +1,89 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.storage;
+
+import com.healthcare.grpc.patient.PatientResponse;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Storage abstraction for patient records served by the PatientService.
+ * Records are stored as the PatientResponse messages the service returns.
+ *
+ * @author anukratimehta
+ */
+public interface PatientRepository extends Closeable {
+
+    // Medical history entries embed their ICD-10 code in parentheses, e.g. "Asthma (J45.909) dx. 2021"
+    Pattern HISTORY_CODE = Pattern.compile("\\(([A-Z][0-9][0-9A-Z]*(?:\\.[0-9A-Z]+)?)\\)");
+
+    /**
+     * Looks up a single patient.
+     *
+     * @param patientId the ID of the patient
+     * @return the patient record, or null if the patient is unknown
+     */
+    PatientResponse findById(String patientId);
+
+    /**
+     * Looks up several patients. Unknown IDs are left out of the result.
+     *
+     * @param patientIds the IDs of the patients
+     * @return the found records keyed by patient ID, in request order
+     */
+    default Map<String, PatientResponse> findByIds(Collection<String> patientIds) {
+        Map<String, PatientResponse> found = new LinkedHashMap<>();
+        for (String patientId : patientIds) {
+            PatientResponse record = findById(patientId);
+            if (record != null) {
+                found.put(patientId, record);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the patients whose medical history contains a diagnosis code.
+     *
+     * @param code the ICD-10 code, e.g. "I10"
+     * @return the IDs of the matching patients
+     */
+    List<String> findIdsByHistoryCode(String code);
+
+    /**
+     * Stores a patient record, replacing any previous record with the same patient ID.
+     *
+     * @param record the record to store
+     */
+    void save(PatientResponse record);
+
+    /**
+     * @return the number of stored patients
+     */
+    long count();
+
+    /**
+     * Extracts the ICD-10 codes from a record's medical history.
+     *
+     * @param record the patient record
+     * @return the codes in history order
+     */
+    static List<String> historyCodes(PatientResponse record) {
+        List<String> codes = new ArrayList<>(record.getMedicalHistoryCount());
+        for (String entry : record.getMedicalHistoryList()) {
+            Matcher matcher = HISTORY_CODE.matcher(entry);
+            if (matcher.find()) {
+                codes.add(matcher.group(1));
+            }
+        }
+        return codes;
+    }
+}
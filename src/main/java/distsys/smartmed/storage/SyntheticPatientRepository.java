@@ -0,0 +1,186 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.storage;
+
+import com.healthcare.grpc.patient.PatientResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Patient repository that synthesizes records instead of storing them.
+ * Every numeric ID in the configured range yields a consistent, pseudo-random record, which
+ * makes it the data source for demos, seeding a persistent store, and benchmarks.
+ *
+ * @author anukratimehta
+ */
+public class SyntheticPatientRepository implements PatientRepository {
+    private static final Logger logger = Logger.getLogger(SyntheticPatientRepository.class.getName());
+
+    // Sample first and last names
+    private static final String[] FIRST_NAMES = {
+        "John", "Jane", "Robert", "Emily", "Michael", "Sarah", "David", "Lisa",
+        "James", "Mary", "William", "Jennifer", "Richard", "Jessica", "Thomas", "Elizabeth"
+    };
+
+    private static final String[] LAST_NAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Miller", "Davis", "Wilson",
+        "Anderson", "Taylor", "Thomas", "White", "Harris", "Martin", "Thompson", "Garcia"
+    };
+
+    // Sample medical conditions with ICD-10 codes
+    private static final String[][] CONDITIONS = {
+        {"Hypertension", "I10"},
+        {"Type 2 Diabetes", "E11.9"},
+        {"Asthma", "J45.909"},
+        {"Major Depressive Disorder", "F32.9"},
+        {"Osteoarthritis", "M17.9"},
+        {"Hyperlipidemia", "E78.5"},
+        {"GERD", "K21.9"},
+        {"Chronic Kidney Disease", "N18.9"},
+        {"COPD", "J44.9"},
+        {"Hypothyroidism", "E03.9"}
+    };
+
+    // Sample medications with their categories
+    private static final String[][] MEDICATIONS = {
+        {"Metformin 500mg", "Antidiabetic"},
+        {"Lisinopril 10mg", "ACE Inhibitor"},
+        {"Ibuprofen 400mg", "NSAID"},
+        {"Atorvastatin 20mg", "Statin"},
+        {"Sertraline 50mg", "SSRI"},
+        {"Albuterol Inhaler", "Bronchodilator"},
+        {"Omeprazole 20mg", "PPI"},
+        {"Levothyroxine 50mcg", "Thyroid Hormone"},
+        {"Losartan 50mg", "ARB"},
+        {"Amlodipine 5mg", "Calcium Channel Blocker"}
+    };
+
+    private final int minId;
+    private final int maxId;
+
+    /**
+     * Creates a repository synthesizing patients with numeric IDs in the given range.
+     *
+     * @param minId the lowest patient ID, inclusive
+     * @param maxId the highest patient ID, inclusive
+     */
+    public SyntheticPatientRepository(int minId, int maxId) {
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
+    /**
+     * Returns the synthetic record of a patient in the configured range.
+     *
+     * @param patientId the ID of the patient
+     * @return the generated record, or null if the ID is outside the range
+     */
+    @Override
+    public PatientResponse findById(String patientId) {
+        return inRange(patientId) ? generatePatientRecord(patientId) : null;
+    }
+
+    /**
+     * Scans the whole ID range; intended for tests and demos rather than large ranges.
+     *
+     * @param code the ICD-10 code
+     * @return the IDs of the matching patients
+     */
+    @Override
+    public List<String> findIdsByHistoryCode(String code) {
+        List<String> ids = new ArrayList<>();
+        for (int id = minId; id <= maxId; id++) {
+            String patientId = String.valueOf(id);
+            if (PatientRepository.historyCodes(generatePatientRecord(patientId)).contains(code)) {
+                ids.add(patientId);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Synthetic records are derived from the ID and cannot be changed.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void save(PatientResponse record) {
+        throw new UnsupportedOperationException("Synthetic patient records are read-only");
+    }
+
+    @Override
+    public long count() {
+        return Math.max(0, (long) maxId - minId + 1);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /**
+     * Checks whether a patient ID is a number within the configured range.
+     *
+     * @param patientId the ID of the patient
+     * @return true if a record exists for the ID
+     */
+    private boolean inRange(String patientId) {
+        try {
+            int id = Integer.parseInt(patientId);
+            return id >= minId && id <= maxId;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generates a synthetic patient record using the patient ID.
+     * Ensures consistent data for the same ID by seeding Random with hash.
+     *
+     * @param patientId the ID of the patient
+     * @return a generated PatientResponse object
+     */
+    public static PatientResponse generatePatientRecord(String patientId) {
+        logger.fine("Generating patient record for: " + patientId);
+
+        // Generate consistent pseudo-random data based on the patientId
+        int hash = patientId.hashCode();
+        Random rand = new Random(hash); // Use hash as seed for consistency
+
+        // Choose a name based on hash
+        String name = FIRST_NAMES[Math.abs(hash) % FIRST_NAMES.length] + " " + 
+                      LAST_NAMES[Math.abs(hash / 31) % LAST_NAMES.length];
+        
+        // Generate a list of 1 to 3 medical conditions
+        List<String> medicalHistory = new ArrayList<>();
+        int conditionCount = 1 + Math.abs(hash) % 3;
+        for (int i = 0; i < conditionCount; i++) {
+            String[] condition = CONDITIONS[(Math.abs(hash) + i) % CONDITIONS.length];
+            int diagnosisYear = 2015 + Math.abs(hash + i) % 9; // Years from 2015 to 2023
+            medicalHistory.add(condition[0] + " (" + condition[1] + ") dx. " + diagnosisYear);
+        }
+        
+        // Decide if the patient is currently on medication (80% chance)
+        String currentMedication = "None";
+        if (rand.nextDouble() > 0.2) {
+            String[] medication = MEDICATIONS[Math.abs(hash) % MEDICATIONS.length];
+            currentMedication = medication[0] + " (" + medication[1] + ")";
+        }
+        
+        // Generate age between 20 and 80
+        int age = 20 + Math.abs(hash) % 61;
+        
+        // Build and return the patient response
+        return PatientResponse.newBuilder()
+            .setPatientId(patientId)
+            .setName(name)
+            .setAge(age)
+            .setCurrentMedication(currentMedication)
+            .addAllMedicalHistory(medicalHistory)
+            .build();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Columnar, compressed block of one patient's consecutive vitals samples.
+ * Timestamps are stored as zigzag varints of their delta-of-delta, heart rates and SpO2 (kept
+ * to 0.1%) as zigzag varints of their delta, each in its own column. Samples taken at a steady
+ * rate with slowly changing vitals therefore cost about one byte per column.
+ * <p>
+ * Sealed record layout: patient ID length and bytes, sample count, min timestamp,
+ * max - min timestamp, the three column lengths, then the columns. All integers are varints.
+ * Not thread-safe; the store guards each open chunk with its patient's lock.
+ *
+ * @author anukratimehta
+ */
+final class VitalsChunk {
+
+    /**
+     * The fields of a sealed chunk's header needed to index it.
+     */
+    static final class Header {
+        String patientId;
+        int count;
+        long minTimestamp;
+        long maxTimestamp;
+    }
+
+    private final Column timestamps = new Column();
+    private final Column heartRates = new Column();
+    private final Column oxygenLevels = new Column();
+    private int count = 0;
+    private long previousTimestamp;
+    private long previousDelta;
+    private int previousHeartRate;
+    private int previousOxygen;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Appends a sample to the chunk's columns.
+     *
+     * @param timestamp the sample time in epoch milliseconds
+     * @param heartRate the heart rate in bpm
+     * @param oxygenLevel the SpO2 in percent
+     */
+    void add(long timestamp, int heartRate, float oxygenLevel) {
+        int oxygen = Math.round(oxygenLevel * 10);
+        if (count == 0) {
+            timestamps.writeLong(zigzag(timestamp));
+            heartRates.writeLong(zigzag(heartRate));
+            oxygenLevels.writeLong(zigzag(oxygen));
+            previousDelta = 0;
+        } else {
+            long delta = timestamp - previousTimestamp;
+            timestamps.writeLong(zigzag(delta - previousDelta));
+            heartRates.writeLong(zigzag(heartRate - previousHeartRate));
+            oxygenLevels.writeLong(zigzag(oxygen - previousOxygen));
+            previousDelta = delta;
+        }
+        previousTimestamp = timestamp;
+        previousHeartRate = heartRate;
+        previousOxygen = oxygen;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        count++;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Visits the samples of the open chunk within a time range.
+     *
+     * @return the number of samples visited
+     */
+    int scan(long from, long to, VitalsHistoryStore.SampleVisitor visitor) {
+        if (count == 0 || maxTimestamp < from || minTimestamp > to) {
+            return 0;
+        }
+        return decode(ByteBuffer.wrap(timestamps.bytes, 0, timestamps.size),
+            ByteBuffer.wrap(heartRates.bytes, 0, heartRates.size),
+            ByteBuffer.wrap(oxygenLevels.bytes, 0, oxygenLevels.size), count, from, to, visitor);
+    }
+
+    /**
+     * Serializes the chunk as a log record.
+     *
+     * @param patientId the patient the samples belong to
+     * @return the record bytes
+     */
+    byte[] seal(String patientId) {
+        byte[] id = patientId.getBytes(StandardCharsets.UTF_8);
+        Column header = new Column();
+        header.writeLong(id.length);
+        header.write(id, id.length);
+        header.writeLong(count);
+        header.writeLong(zigzag(minTimestamp));
+        header.writeLong(maxTimestamp - minTimestamp);
+        header.writeLong(timestamps.size);
+        header.writeLong(heartRates.size);
+        header.writeLong(oxygenLevels.size);
+        byte[] record = Arrays.copyOf(header.bytes,
+            header.size + timestamps.size + heartRates.size + oxygenLevels.size);
+        int offset = header.size;
+        System.arraycopy(timestamps.bytes, 0, record, offset, timestamps.size);
+        offset += timestamps.size;
+        System.arraycopy(heartRates.bytes, 0, record, offset, heartRates.size);
+        offset += heartRates.size;
+        System.arraycopy(oxygenLevels.bytes, 0, record, offset, oxygenLevels.size);
+        return record;
+    }
+
+    /**
+     * Reads the header of a sealed chunk, leaving the buffer positioned at the column lengths.
+     *
+     * @param record the record bytes
+     * @param header receives the header fields
+     */
+    static void readHeader(ByteBuffer record, Header header) {
+        int idLength = (int) readLong(record);
+        byte[] id = new byte[idLength];
+        record.get(id);
+        header.patientId = new String(id, StandardCharsets.UTF_8);
+        header.count = (int) readLong(record);
+        header.minTimestamp = unzigzag(readLong(record));
+        header.maxTimestamp = header.minTimestamp + readLong(record);
+    }
+
+    /**
+     * Visits the samples of a sealed chunk within a time range.
+     *
+     * @param record the record bytes
+     * @param from the first timestamp to visit, inclusive
+     * @param to the last timestamp to visit, inclusive
+     * @param visitor receives the samples
+     * @return the number of samples visited
+     */
+    static int scan(ByteBuffer record, long from, long to, VitalsHistoryStore.SampleVisitor visitor) {
+        Header header = new Header();
+        readHeader(record, header);
+        int timestampsSize = (int) readLong(record);
+        int heartRatesSize = (int) readLong(record);
+        int oxygenSize = (int) readLong(record);
+        int start = record.position();
+        ByteBuffer timestampColumn = column(record, start, timestampsSize);
+        ByteBuffer heartRateColumn = column(record, start + timestampsSize, heartRatesSize);
+        ByteBuffer oxygenColumn = column(record, start + timestampsSize + heartRatesSize, oxygenSize);
+        return decode(timestampColumn, heartRateColumn, oxygenColumn, header.count, from, to, visitor);
+    }
+
+    private static ByteBuffer column(ByteBuffer record, int offset, int length) {
+        ByteBuffer column = record.duplicate();
+        column.limit(offset + length).position(offset);
+        return column;
+    }
+
+    private static int decode(ByteBuffer timestampColumn, ByteBuffer heartRateColumn, ByteBuffer oxygenColumn,
+                              int count, long from, long to, VitalsHistoryStore.SampleVisitor visitor) {
+        long timestamp = unzigzag(readLong(timestampColumn));
+        int heartRate = (int) unzigzag(readLong(heartRateColumn));
+        int oxygen = (int) unzigzag(readLong(oxygenColumn));
+        long delta = 0;
+        int visited = 0;
+        for (int i = 0; ; i++) {
+            if (timestamp >= from && timestamp <= to) {
+                visitor.visit(timestamp, heartRate, oxygen / 10f);
+                visited++;
+            }
+            if (i + 1 == count) {
+                return visited;
+            }
+            delta += unzigzag(readLong(timestampColumn));
+            timestamp += delta;
+            heartRate += (int) unzigzag(readLong(heartRateColumn));
+            oxygen += (int) unzigzag(readLong(oxygenColumn));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Growable byte array holding one column of varints.
+     */
+    private static final class Column {
+        private byte[] bytes = new byte[64];
+        private int size = 0;
+
+        void writeLong(long value) {
+            if (size + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void write(byte[] data, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+            System.arraycopy(data, 0, bytes, size, length);
+            size += length;
+        }
+    }
+}
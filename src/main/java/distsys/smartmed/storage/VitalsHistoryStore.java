@@ -0,0 +1,394 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package distsys.smartmed.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Embedded time-series store of patients' vitals samples.
+ * Each patient's samples are collected in an open {@link VitalsChunk} in memory; a full chunk
+ * is sealed into a {@link MappedSegmentLog} record of a few bytes per sample, and its time range
+ * and address are added to the patient's in-memory chunk index. A range query looks up the
+ * chunks overlapping the range by binary search and decodes them straight from the page cache,
+ * together with the open chunk. The indexes are rebuilt by scanning the log on open.
+ * <p>
+ * {@link #maintain} is meant to run periodically: it seals open chunks once they are old enough,
+ * so a crash loses at most that much of each patient's samples, and deletes the oldest log
+ * segments once all their samples are past the retention time or the log has too many segments.
+ *
+ * @author anukratimehta
+ */
+public class VitalsHistoryStore implements Closeable {
+    private static final Logger logger = Logger.getLogger(VitalsHistoryStore.class.getName());
+
+    // Four minutes of samples at one per second
+    public static final int DEFAULT_CHUNK_SAMPLES = 240;
+
+    /**
+     * Receives the samples of a range query in chunk order, which is time order for patients
+     * whose samples arrive in order.
+     */
+    public interface SampleVisitor {
+        /**
+         * @param timestamp the sample time in epoch milliseconds
+         * @param heartRate the heart rate in bpm
+         * @param oxygenLevel the SpO2 in percent, to 0.1%
+         */
+        void visit(long timestamp, int heartRate, float oxygenLevel);
+    }
+
+    private final MappedSegmentLog log;
+    private final int chunkSamples;
+    private final ConcurrentHashMap<String, PatientSeries> series = new ConcurrentHashMap<>();
+    private final LongAdder sampleCount = new LongAdder();
+    // Segment number to {latest sample timestamp, sample count} of its chunks, guarded by itself
+    private final TreeMap<Integer, long[]> segmentStats = new TreeMap<>();
+
+    /**
+     * Opens or creates a store with the default chunk and segment sizes.
+     *
+     * @param directory the directory holding the store's files
+     * @throws IOException if the store cannot be opened
+     */
+    public VitalsHistoryStore(Path directory) throws IOException {
+        this(directory, DEFAULT_CHUNK_SAMPLES, MappedSegmentLog.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens or creates a store and rebuilds its chunk indexes.
+     *
+     * @param directory the directory holding the store's files
+     * @param chunkSamples the number of samples after which a chunk is sealed
+     * @param segmentSize the size of each segment file in bytes
+     * @throws IOException if the store cannot be opened
+     */
+    public VitalsHistoryStore(Path directory, int chunkSamples, int segmentSize) throws IOException {
+        if (chunkSamples <= 0) {
+            throw new IllegalArgumentException("chunkSamples must be positive");
+        }
+        long start = System.nanoTime();
+        this.chunkSamples = chunkSamples;
+        this.log = new MappedSegmentLog(directory, "vitals", segmentSize);
+        VitalsChunk.Header header = new VitalsChunk.Header();
+        log.scan((address, record) -> {
+            VitalsChunk.readHeader(record, header);
+            seriesOf(header.patientId).addChunk(header.minTimestamp, header.maxTimestamp, address);
+            recordSegmentStats(address, header.maxTimestamp, header.count);
+            sampleCount.add(header.count);
+        });
+        logger.info("Opened vitals store " + directory + " with " + sampleCount.sum() + " samples of "
+            + series.size() + " patients in " + log.getSegmentCount() + " segments in "
+            + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Records one sample, sealing the patient's open chunk once it is full.
+     *
+     * @param patientId the patient the sample belongs to
+     * @param timestamp the sample time in epoch milliseconds
+     * @param heartRate the heart rate in bpm
+     * @param oxygenLevel the SpO2 in percent
+     * @throws UncheckedIOException if a sealed chunk cannot be written
+     */
+    public void append(String patientId, long timestamp, int heartRate, float oxygenLevel) {
+        PatientSeries patient = seriesOf(patientId);
+        synchronized (patient) {
+            if (patient.open.getCount() == 0) {
+                patient.openedAtMillis = System.currentTimeMillis();
+            }
+            patient.open.add(timestamp, heartRate, oxygenLevel);
+            if (patient.open.getCount() >= chunkSamples) {
+                patient.seal();
+            }
+        }
+        sampleCount.increment();
+    }
+
+    /**
+     * Visits a patient's samples within a time range.
+     *
+     * @param patientId the patient to query
+     * @param from the first timestamp to visit, inclusive
+     * @param to the last timestamp to visit, inclusive
+     * @param visitor receives the samples
+     * @return the number of samples visited
+     */
+    public int query(String patientId, long from, long to, SampleVisitor visitor) {
+        PatientSeries patient = series.get(patientId);
+        if (patient == null || from > to) {
+            return 0;
+        }
+        // Sealed chunks are immutable and decoded outside the lock; the open chunk is not
+        long[] addresses;
+        long sealed;
+        synchronized (patient) {
+            addresses = patient.overlapping(0, from, to);
+            sealed = patient.droppedChunks + patient.chunks;
+        }
+        int visited = scan(addresses, from, to, visitor);
+        synchronized (patient) {
+            // Chunks sealed in the meantime hold samples that were in the open chunk before
+            int start = (int) Math.max(0, sealed - patient.droppedChunks);
+            visited += scan(patient.overlapping(start, from, to), from, to, visitor);
+            visited += patient.open.scan(from, to, visitor);
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the samples of sealed chunks, skipping chunks dropped by the retention meanwhile.
+     */
+    private int scan(long[] addresses, long from, long to, SampleVisitor visitor) {
+        int visited = 0;
+        for (long address : addresses) {
+            ByteBuffer record = log.read(address);
+            if (record != null) {
+                visited += VitalsChunk.scan(record, from, to, visitor);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Seals the open chunks started at least {@code sealAfterMillis} ago, flushes the log, and
+     * drops the oldest segments while all their samples are older than the retention time or
+     * the log has more than {@code maxSegments} segments. The segment being written is kept.
+     *
+     * @param sealAfterMillis the age after which an open chunk is sealed, in milliseconds
+     * @param retentionMillis how long samples are kept, in milliseconds
+     * @param maxSegments the number of segments kept at most
+     * @throws IOException if a dropped segment file cannot be deleted
+     * @throws UncheckedIOException if a chunk cannot be written
+     */
+    public void maintain(long sealAfterMillis, long retentionMillis, int maxSegments) throws IOException {
+        long now = System.currentTimeMillis();
+        for (PatientSeries patient : series.values()) {
+            synchronized (patient) {
+                if (patient.open.getCount() > 0 && now - patient.openedAtMillis >= sealAfterMillis) {
+                    patient.seal();
+                }
+            }
+        }
+        log.force();
+
+        long cutoff = now - retentionMillis;
+        int first = log.getFirstSegment();
+        int last = log.getLastSegment();
+        int keep = first;
+        long droppedSamples = 0;
+        synchronized (segmentStats) {
+            while (keep < last) {
+                long[] stats = segmentStats.get(keep);
+                boolean expired = stats == null || stats[0] < cutoff;
+                if (!expired && last - keep + 1 <= maxSegments) {
+                    break;
+                }
+                if (stats != null) {
+                    droppedSamples += stats[1];
+                }
+                keep++;
+            }
+            segmentStats.headMap(keep).clear();
+        }
+        if (keep == first) {
+            return;
+        }
+        // Unlink the chunks before deleting their segments; running queries skip what is gone
+        long keepAddress = (long) keep << 32;
+        for (PatientSeries patient : series.values()) {
+            synchronized (patient) {
+                patient.dropChunksBefore(keepAddress);
+            }
+        }
+        sampleCount.add(-droppedSamples);
+        int dropped = log.dropSegmentsBefore(keep);
+        logger.info("Dropped " + dropped + " vitals segments holding " + droppedSamples + " samples");
+    }
+
+    private void recordSegmentStats(long address, long maxTimestamp, int samples) {
+        synchronized (segmentStats) {
+            long[] stats = segmentStats.computeIfAbsent((int) (address >>> 32), segment -> new long[] {Long.MIN_VALUE, 0});
+            stats[0] = Math.max(stats[0], maxTimestamp);
+            stats[1] += samples;
+        }
+    }
+
+    /**
+     * @return the number of samples stored
+     */
+    public long getSampleCount() {
+        return sampleCount.sum();
+    }
+
+    /**
+     * @return the number of patients with stored samples
+     */
+    public int getPatientCount() {
+        return series.size();
+    }
+
+    /**
+     * Flushes sealed chunks to disk.
+     */
+    public void flush() {
+        log.force();
+    }
+
+    /**
+     * Seals every open chunk and flushes the log.
+     */
+    @Override
+    public void close() {
+        for (PatientSeries patient : series.values()) {
+            synchronized (patient) {
+                if (patient.open.getCount() > 0) {
+                    patient.seal();
+                }
+            }
+        }
+        log.close();
+    }
+
+    private PatientSeries seriesOf(String patientId) {
+        return series.computeIfAbsent(patientId, PatientSeries::new);
+    }
+
+    /**
+     * One patient's open chunk and the index of its sealed chunks, in append order.
+     * Guarded by its own monitor.
+     */
+    private final class PatientSeries {
+        private final String patientId;
+        private VitalsChunk open = new VitalsChunk();
+        private long openedAtMillis;  // Wall-clock time the first sample of the open chunk arrived
+        private long droppedChunks = 0;  // Chunks removed from the front of the index by the retention
+        private long[] minTimestamps = new long[8];
+        private long[] maxTimestamps = new long[8];
+        private long[] addresses = new long[8];
+        private int chunks = 0;
+        // True while every chunk starts after the previous one ends, enabling binary search
+        private boolean ordered = true;
+
+        PatientSeries(String patientId) {
+            this.patientId = patientId;
+        }
+
+        /**
+         * Writes the open chunk to the log and starts a new one.
+         */
+        void seal() {
+            long address;
+            try {
+                address = log.append(open.seal(patientId));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to store vitals of patient " + patientId, e);
+            }
+            addChunk(open.getMinTimestamp(), open.getMaxTimestamp(), address);
+            recordSegmentStats(address, open.getMaxTimestamp(), open.getCount());
+            open = new VitalsChunk();
+        }
+
+        /**
+         * Removes the chunks stored below an address. Addresses grow in append order, so they
+         * are a prefix of the index.
+         *
+         * @param address the address of the first record to keep
+         */
+        void dropChunksBefore(long address) {
+            int drop = 0;
+            while (drop < chunks && addresses[drop] < address) {
+                drop++;
+            }
+            if (drop == 0) {
+                return;
+            }
+            System.arraycopy(minTimestamps, drop, minTimestamps, 0, chunks - drop);
+            System.arraycopy(maxTimestamps, drop, maxTimestamps, 0, chunks - drop);
+            System.arraycopy(addresses, drop, addresses, 0, chunks - drop);
+            chunks -= drop;
+            droppedChunks += drop;
+        }
+
+        void addChunk(long minTimestamp, long maxTimestamp, long address) {
+            if (chunks == addresses.length) {
+                minTimestamps = Arrays.copyOf(minTimestamps, chunks * 2);
+                maxTimestamps = Arrays.copyOf(maxTimestamps, chunks * 2);
+                addresses = Arrays.copyOf(addresses, chunks * 2);
+            }
+            if (chunks > 0 && minTimestamp < maxTimestamps[chunks - 1]) {
+                ordered = false;
+            }
+            minTimestamps[chunks] = minTimestamp;
+            maxTimestamps[chunks] = maxTimestamp;
+            addresses[chunks] = address;
+            chunks++;
+        }
+
+        /**
+         * @param start the index of the first chunk to consider
+         * @return the addresses of the sealed chunks overlapping a time range, in append order
+         */
+        long[] overlapping(int start, long from, long to) {
+            int first = start;
+            int last = chunks;
+            if (ordered) {
+                // Both bounds are sorted when chunks do not overlap each other
+                first = Math.max(start, firstAtLeast(maxTimestamps, from));
+                last = firstAbove(minTimestamps, to);
+            }
+            long[] result = new long[Math.max(0, last - first)];
+            int size = 0;
+            for (int i = first; i < last; i++) {
+                if (maxTimestamps[i] >= from && minTimestamps[i] <= to) {
+                    result[size++] = addresses[i];
+                }
+            }
+            return size == result.length ? result : Arrays.copyOf(result, size);
+        }
+
+        /**
+         * @return the index of the first chunk whose value is at least the key
+         */
+        private int firstAtLeast(long[] values, long key) {
+            int low = 0;
+            int high = chunks;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the index of the first chunk whose value is above the key
+         */
+        private int firstAbove(long[] values, long key) {
+            int low = 0;
+            int high = chunks;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] <= key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}